@@ -0,0 +1,109 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop.benchmarks;
+
+import ch.epfl.biop.CircleTable;
+import ch.epfl.biop.MaxInscribedCircles;
+import ij.ImagePlus;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of finding the circles of a whole mask, for each shape, size, minimum diameter and engine.
+ *
+ * The circles counter is the number of circles found per second: divided by the throughput, it gives the number
+ * of circles per call, to relate the cost to the number of circles as well as to the size of the image.
+ * Run with -prof gc to get the allocation rate.
+ *
+ * The default sizes keep every combination within minutes. Large masks are only run when asked for, with the
+ * priority queue: the maximum finder searches the whole distance map after each circle and does not finish on them.
+ * <pre>
+ * java -jar benchmarks.jar CircleFindingBenchmark -p size=4096,8192 -p engine=PRIORITY_QUEUE
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CircleFindingBenchmark {
+
+	@Param({"RECTANGLE", "ELLIPSE", "WORM", "BRANCHED", "MANY_OBJECTS"})
+	public Masks shape;
+
+	@Param({"256", "1024"})
+	public int size;
+
+	@Param({"10", "20"})
+	public double minimumDiameter;
+
+	@Param({"MAXIMUM_FINDER", "PRIORITY_QUEUE"})
+	public MaxInscribedCircles.Engine engine;
+
+	private ImagePlus mask;
+
+	/**
+	 * Counts the circles found, reported next to the throughput
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Circles {
+		public long circles;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			circles = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void createMask() {
+		mask = shape.create(size, size);
+	}
+
+	@Benchmark
+	public CircleTable findCircles(Circles counter) {
+		MaxInscribedCircles mic = MaxInscribedCircles.builder(mask)
+				.minimumDiameter(minimumDiameter)
+				.useSelectionOnly(false)
+				.getSpine(false)
+				.engine(engine)
+				.build();
+		mic.process();
+		counter.circles += mic.getCircleTable().size();
+		return mic.getCircleTable();
+	}
+}
@@ -0,0 +1,135 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop.benchmarks;
+
+import ij.ImagePlus;
+import ij.gui.OvalRoi;
+import ij.process.ByteProcessor;
+
+import java.util.Random;
+
+/**
+ * Synthetic masks to benchmark on. Foreground is 255 and background is 0, and the shapes scale with the size of
+ * the image, so that the number of circles grows with it. Random shapes use a fixed seed, so every run sees the same masks.
+ */
+public enum Masks {
+
+	/**
+	 * A filled rectangle, the simplest case with a few large circles and many small ones in the corners
+	 */
+	RECTANGLE {
+		@Override
+		void draw(ByteProcessor ip, Random random) {
+			int w = ip.getWidth();
+			int h = ip.getHeight();
+			ip.setRoi(w / 10, h / 4, 8 * w / 10, h / 2);
+			ip.fill();
+			ip.resetRoi();
+		}
+	},
+
+	/**
+	 * A filled ellipse
+	 */
+	ELLIPSE {
+		@Override
+		void draw(ByteProcessor ip, Random random) {
+			int w = ip.getWidth();
+			int h = ip.getHeight();
+			ip.fill(new OvalRoi(w / 10, h / 5, 8 * w / 10, 3 * h / 5));
+		}
+	},
+
+	/**
+	 * A long curved worm, going back and forth across the image, the typical input of the spine
+	 */
+	WORM {
+		@Override
+		void draw(ByteProcessor ip, Random random) {
+			int w = ip.getWidth();
+			int h = ip.getHeight();
+			ip.setLineWidth(Math.max(3, w / 24));
+			ip.moveTo(w / 10, h / 2);
+			for (int x = w / 10; x <= 9 * w / 10; x++) {
+				double t = (x - w / 10) / (0.8 * w);
+				ip.lineTo(x, (int) Math.round(h / 2 + 0.35 * h * Math.sin(3 * Math.PI * t)));
+			}
+		}
+	},
+
+	/**
+	 * A trunk with branches on both sides, getting thinner towards their tips
+	 */
+	BRANCHED {
+		@Override
+		void draw(ByteProcessor ip, Random random) {
+			int w = ip.getWidth();
+			int h = ip.getHeight();
+			int width = Math.max(3, w / 20);
+			ip.setLineWidth(width);
+			ip.drawLine(w / 10, h / 2, 9 * w / 10, h / 2);
+			for (int k = 1; k <= 4; k++) {
+				int x = w / 10 + k * 8 * w / 50;
+				int side = k % 2 == 0 ? 1 : -1;
+				ip.setLineWidth(Math.max(3, width * 2 / 3));
+				ip.drawLine(x, h / 2, x + w / 10, h / 2 + side * 3 * h / 10);
+				ip.setLineWidth(Math.max(3, width / 3));
+				ip.drawLine(x + w / 10, h / 2 + side * 3 * h / 10, x + w / 10 + w / 15, h / 2 + side * 2 * h / 5);
+			}
+		}
+	},
+
+	/**
+	 * Many ellipses of random sizes and orientations, about one per 128x128 pixels, like a field of cells
+	 */
+	MANY_OBJECTS {
+		@Override
+		void draw(ByteProcessor ip, Random random) {
+			int cell = 128;
+			for (int y = 0; y + cell <= ip.getHeight(); y += cell) {
+				for (int x = 0; x + cell <= ip.getWidth(); x += cell) {
+					int a = 30 + random.nextInt(30);
+					int b = 15 + random.nextInt(25);
+					boolean isVertical = random.nextBoolean();
+					int ow = isVertical ? b : a;
+					int oh = isVertical ? a : b;
+					ip.fill(new OvalRoi(x + (cell - 2 * ow) / 2, y + (cell - 2 * oh) / 2, 2 * ow, 2 * oh));
+				}
+			}
+		}
+	};
+
+	abstract void draw(ByteProcessor ip, Random random);
+
+	/**
+	 * Create the mask
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @return the mask, without selection
+	 */
+	public ImagePlus create(int width, int height) {
+		ByteProcessor ip = new ByteProcessor(width, height);
+		ip.setColor(255);
+		draw(ip, new Random(42));
+		return new ImagePlus(name(), ip);
+	}
+}
@@ -0,0 +1,92 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop.benchmarks;
+
+import ch.epfl.biop.CirclesBasedSpine;
+import ch.epfl.biop.MaxInscribedCircles;
+import ij.ImagePlus;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of tracing the spine through circles found beforehand, for each shape, size and spine setting.
+ * The circles are found once per trial, so only the spine is measured.
+ * Run with -prof gc to get the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SpineBenchmark {
+
+	@Param({"WORM", "BRANCHED"})
+	public Masks shape;
+
+	@Param({"256", "1024", "4096"})
+	public int size;
+
+	@Param({"10"})
+	public double minimumDiameter;
+
+	@Param({"5", "10", "20"})
+	public double spineClosenessTolerance;
+
+	@Param({"0.3", "0.5", "0.8"})
+	public double spineMinimumSimilarity;
+
+	private ImagePlus mask;
+	private List<Roi> circles;
+
+	@Setup(Level.Trial)
+	public void findCircles() {
+		mask = shape.create(size, size);
+		circles = MaxInscribedCircles.findCircles(mask, minimumDiameter, false);
+	}
+
+	@Benchmark
+	public PolygonRoi getSpine() {
+		return new CirclesBasedSpine.Settings(mask)
+				.minCircleDiameter((int) minimumDiameter)
+				.closenessTolerance(spineClosenessTolerance)
+				.minSimilarity(spineMinimumSimilarity)
+				.circles(circles)
+				.build()
+				.getSpine();
+	}
+}
@@ -25,6 +25,8 @@
 //
 
 import ch.epfl.biop.MaxInscribedCircles;
+import ch.epfl.biop.ResultCache;
+import ch.epfl.biop.ResultWriter;
 import ij.IJ;
 import net.imagej.ImageJ;
 import ij.ImagePlus;
@@ -35,16 +37,27 @@ import ij.gui.Overlay;
 import ij.gui.Roi;
 import ij.plugin.PlugIn;
 import ij.plugin.frame.RoiManager;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.List;
 
 public class Max_Inscribed_Circles implements PlugIn {
+    // Where the circles and spines go: the ROI Manager, or a ROI zip and a CSV table written at once
+    private static final String[] OUTPUTS = {"ROI Manager", "ROI zip and CSV table"};
+
     private boolean isSelectionOnly;
+    private boolean isRoiManager;
     private boolean isGetSpine;
     private double minSimilarity = 0.5D;
     private double closenessTolerance = 10.0D;
     private double minDiameter;
 
     private boolean appendPositionToName = false;
+    private String output = OUTPUTS[0];
+    private String outputFolder = "";
+    // Results are kept in this folder and reused for unchanged masks, unless it is empty
+    private String cacheFolder = "";
+    private double cacheSize = 1024.0D;
 
     public Max_Inscribed_Circles() {
     }
@@ -59,15 +72,38 @@ public class Max_Inscribed_Circles implements PlugIn {
         this.showDialog();
         this.setParameters();
 
-        // Get the current Roi Manager or create a new one
-        RoiManager rm = RoiManager.getInstance();
-        if (rm == null) {
-            rm = new RoiManager();
+        // Get the current Roi Manager or create a new one, unless the results are written to files
+        boolean isToFiles = this.output.equals(OUTPUTS[1]);
+        RoiManager rm = null;
+        if (this.isRoiManager || !isToFiles) {
+            rm = RoiManager.getInstance();
+            if (rm == null) {
+                rm = new RoiManager();
+            }
+            // Display it
+            rm.setVisible(true);
+        }
+
+        // Process each ROI of the manager at once if requested
+        Roi[] selections = null;
+        if (this.isRoiManager) {
+            selections = rm.getRoisAsArray();
+            if (selections.length == 0) {
+                IJ.error("No ROIs in the ROI Manager");
+                return;
+            }
         }
-        // Display it
-        rm.setVisible(true);
 
 
+        ResultCache cache = null;
+        if (!this.cacheFolder.isEmpty()) {
+            try {
+                cache = new ResultCache(Paths.get(this.cacheFolder), (long) (this.cacheSize * 1024 * 1024));
+            } catch (IOException | IllegalArgumentException e) {
+                IJ.log("Cannot use the cache in " + this.cacheFolder + ": " + e.getMessage());
+            }
+        }
+
         Overlay finalOverlay = new Overlay();
 
         MaxInscribedCircles mic = MaxInscribedCircles.builder(imp)
@@ -77,20 +113,33 @@ public class Max_Inscribed_Circles implements PlugIn {
                 .spineClosenessTolerance(this.closenessTolerance)
                 .spineMinimumSimilarity(this.minSimilarity)
                 .appendPositionToName(this.appendPositionToName)
+                .selections(selections)
+                .parallelism(this.isRoiManager ? Prefs.getThreads() : 1)
+                .cache(cache)
                 .build();
 
         mic.process();
 
-        List<Roi> rois = mic.getCircles();
         List<Roi> spines = mic.getSpines();
         List<Roi> spineParts = mic.getSpineParts();
 
-        for (Roi roi : rois) {
-            rm.addRoi(roi);
-        }
-
-        for (Roi roi : spines) {
-            rm.addRoi(roi);
+        if (isToFiles) {
+            // All the ROIs are written at once, the ROI Manager is too slow with many of them
+            String name = imp.getShortTitle();
+            try {
+                ResultWriter.write(mic, Paths.get(this.outputFolder), name);
+                IJ.log("Wrote " + mic.getCircleTable().size() + " circles and " + spines.size() + " spines to " + this.outputFolder);
+            } catch (IOException e) {
+                IJ.error("Cannot write the results to " + this.outputFolder + ": " + e.getMessage());
+            }
+        } else {
+            for (Roi roi : mic.getCircles()) {
+                rm.addRoi(roi);
+            }
+
+            for (Roi roi : spines) {
+                rm.addRoi(roi);
+            }
         }
 
         // the SpinePart rois are just for show. add them, to the overlay
@@ -106,42 +155,63 @@ public class Max_Inscribed_Circles implements PlugIn {
         gd.addNumericField("Minimum_Disk Diameter (px)", this.minDiameter, 1);
         gd.addMessage("Set to 0 to get only the largest inscribed circle");
         gd.addCheckbox("Use selection instead of mask", this.isSelectionOnly);
+        gd.addCheckbox("Use all ROIs of the ROI Manager", this.isRoiManager);
         gd.addCheckbox("Get Spine", this.isGetSpine);
         gd.addMessage("Spine Detection Settings");
         gd.addNumericField("Minimum_Similarity", 0.5D, 2);
         gd.addNumericField("Closeness Tolerance", 5.0D, 0);
 
         gd.addCheckbox("Append Position to ROI Name", this.appendPositionToName);
+        gd.addChoice("Results to", OUTPUTS, this.output);
+        gd.addDirectoryField("Output folder", this.outputFolder);
+        gd.addDirectoryField("Cache folder", this.cacheFolder);
+        gd.addNumericField("Cache size (MB)", this.cacheSize, 0);
+        gd.addMessage("Leave the cache folder empty to not cache the results");
 
         gd.showDialog();
         if (!gd.wasCanceled()) {
             this.minDiameter = gd.getNextNumber();
             this.isSelectionOnly = gd.getNextBoolean();
+            this.isRoiManager = gd.getNextBoolean();
             this.isGetSpine = gd.getNextBoolean();
             this.minSimilarity = gd.getNextNumber();
             this.closenessTolerance = gd.getNextNumber();
 
             this.appendPositionToName = gd.getNextBoolean();
+            this.output = gd.getNextChoice();
+            this.outputFolder = gd.getNextString();
+            this.cacheFolder = gd.getNextString();
+            this.cacheSize = gd.getNextNumber();
         }
     }
 
     private void getParameters() {
         this.minDiameter = Prefs.get("biop.max.inscribed.minDiameter", this.minDiameter);
         this.isSelectionOnly = Prefs.get("biop.max.inscribed.isSelOnly", this.isSelectionOnly);
+        this.isRoiManager = Prefs.get("biop.max.inscribed.isRoiManager", this.isRoiManager);
         this.isGetSpine = Prefs.get("biop.max.inscribed.isGetSpine", this.isGetSpine);
         this.minSimilarity = Prefs.get("biop.max.inscribed.minSimilarity", this.minSimilarity);
         this.closenessTolerance = Prefs.get("biop.max.inscribed.closenessTolerance", this.closenessTolerance);
         this.appendPositionToName = Prefs.get("biop.max.inscribed.isAddName", this.appendPositionToName);
+        this.output = Prefs.get("biop.max.inscribed.output", this.output);
+        this.outputFolder = Prefs.get("biop.max.inscribed.outputFolder", this.outputFolder);
+        this.cacheFolder = Prefs.get("biop.max.inscribed.cacheFolder", this.cacheFolder);
+        this.cacheSize = Prefs.get("biop.max.inscribed.cacheSize", this.cacheSize);
 
     }
 
     private void setParameters() {
         Prefs.set("biop.max.inscribed.minDiameter", this.minDiameter);
         Prefs.set("biop.max.inscribed.isSelOnly", this.isSelectionOnly);
+        Prefs.set("biop.max.inscribed.isRoiManager", this.isRoiManager);
         Prefs.set("biop.max.inscribed.isGetSpine", this.isGetSpine);
         Prefs.set("biop.max.inscribed.minSimilarity", this.minSimilarity);
         Prefs.set("biop.max.inscribed.closenessTolerance", this.closenessTolerance);
         Prefs.set("biop.max.inscribed.isAddName", this.appendPositionToName);
+        Prefs.set("biop.max.inscribed.output", this.output);
+        Prefs.set("biop.max.inscribed.outputFolder", this.outputFolder);
+        Prefs.set("biop.max.inscribed.cacheFolder", this.cacheFolder);
+        Prefs.set("biop.max.inscribed.cacheSize", this.cacheSize);
 
     }
 
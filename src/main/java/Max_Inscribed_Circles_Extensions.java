@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import ch.epfl.biop.CircleTable;
+import ch.epfl.biop.MaxInscribedCircles;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.macro.ExtensionDescriptor;
+import ij.macro.Functions;
+import ij.macro.Interpreter;
+import ij.macro.MacroExtension;
+import ij.plugin.PlugIn;
+import ij.process.FloatPolygon;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Macro functions to find the circles and get them as arrays, without going through the ROI Manager.
+ * The variables given to get the arrays become arrays. They must not be arrays already, as macros only pass
+ * array elements to extensions, so they are set to a number before being used again.
+ *
+ * <pre>
+ * run("Max Inscribed Circles Extensions");
+ * Ext.findCircles(10, false, true);
+ * Ext.getCircles(xs, ys, rs, slices);
+ * Ext.getSpineCount(n);
+ * Ext.getSpine(0, spineXs, spineYs, length);
+ * </pre>
+ */
+public class Max_Inscribed_Circles_Extensions implements PlugIn, MacroExtension {
+
+    private CircleTable circles = new CircleTable();
+    private List<Roi> spines = new ArrayList<>();
+
+    private final ExtensionDescriptor[] extensions = {
+            ExtensionDescriptor.newDescriptor("findCircles", this, ARG_NUMBER, ARG_NUMBER, ARG_NUMBER),
+            ExtensionDescriptor.newDescriptor("getCircles", this, ARG_NUMBER + ARG_OUTPUT, ARG_NUMBER + ARG_OUTPUT, ARG_NUMBER + ARG_OUTPUT, ARG_NUMBER + ARG_OUTPUT),
+            ExtensionDescriptor.newDescriptor("getSpineCount", this, ARG_NUMBER + ARG_OUTPUT),
+            ExtensionDescriptor.newDescriptor("getSpine", this, ARG_NUMBER, ARG_NUMBER + ARG_OUTPUT, ARG_NUMBER + ARG_OUTPUT, ARG_NUMBER + ARG_OUTPUT),
+    };
+
+    public void run(String arg) {
+        if (Interpreter.getInstance() == null) {
+            IJ.error("Max Inscribed Circles Extensions can only be used from a macro");
+            return;
+        }
+        Functions.registerExtensions(this);
+    }
+
+    public ExtensionDescriptor[] getExtensionFunctions() {
+        return this.extensions;
+    }
+
+    public String handleExtension(String name, Object[] args) {
+        switch (name) {
+            case "findCircles":
+                // Ext.findCircles(minimumDiameter, useSelectionOnly, getSpine)
+                this.findCircles((Double) args[0], (Double) args[1] != 0, (Double) args[2] != 0);
+                break;
+            case "getCircles":
+                // Ext.getCircles(xs, ys, rs, slices), the centers, radii and slices of the circles, largest first in each slice
+                int n = this.circles.size();
+                double[] xs = new double[n];
+                double[] ys = new double[n];
+                double[] rs = new double[n];
+                double[] slices = new double[n];
+                for (int i = 0; i < n; i++) {
+                    xs[i] = this.circles.getX(i);
+                    ys[i] = this.circles.getY(i);
+                    rs[i] = this.circles.getRadius(i);
+                    slices[i] = this.circles.getSlice(i);
+                }
+                args[0] = toArray(xs);
+                args[1] = toArray(ys);
+                args[2] = toArray(rs);
+                args[3] = toArray(slices);
+                break;
+            case "getSpineCount":
+                // Ext.getSpineCount(n)
+                ((Double[]) args[0])[0] = (double) this.spines.size();
+                break;
+            case "getSpine":
+                // Ext.getSpine(index, xs, ys, length), the points of a spine, from 0 to the spine count excluded
+                int index = ((Double) args[0]).intValue();
+                if (index < 0 || index >= this.spines.size()) {
+                    IJ.error("Spine index out of range: " + index);
+                    return null;
+                }
+                Roi spine = this.spines.get(index);
+                FloatPolygon points = spine.getFloatPolygon();
+                double[] spineXs = new double[points.npoints];
+                double[] spineYs = new double[points.npoints];
+                for (int i = 0; i < points.npoints; i++) {
+                    spineXs[i] = points.xpoints[i];
+                    spineYs[i] = points.ypoints[i];
+                }
+                args[1] = toArray(spineXs);
+                args[2] = toArray(spineYs);
+                ((Double[]) args[3])[0] = spine.getLength();
+                break;
+            default:
+                break;
+        }
+        return null;
+    }
+
+    private void findCircles(double minimumDiameter, boolean useSelectionOnly, boolean getSpine) {
+        ImagePlus imp = IJ.getImage();
+        MaxInscribedCircles mic = MaxInscribedCircles.builder(imp)
+                .minimumDiameter(minimumDiameter)
+                .useSelectionOnly(useSelectionOnly)
+                .getSpine(getSpine)
+                .build();
+        mic.process();
+        this.circles = mic.getCircleTable();
+        this.spines = mic.getSpines();
+    }
+
+    // An output argument set to an array of single values becomes an array in the macro
+    private static Object[] toArray(double[] values) {
+        Object[] array = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            array[i] = new Double[]{values[i]};
+        }
+        return array;
+    }
+}
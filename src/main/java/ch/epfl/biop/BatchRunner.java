@@ -0,0 +1,305 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.io.Opener;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Finds the circles and spines of many mask TIFFs from the command line, without starting ImageJ or its user interface.
+ * Files are processed at the same time by a fixed number of threads, one file per thread. For each file, the circles
+ * and spines are written as a ROI zip that the ROI Manager can open, and as a CSV table.
+ *
+ * <pre>
+ * java -cp MaxInscribedCircles.jar:ij.jar ch.epfl.biop.BatchRunner --input "masks/*.tif" --output results --minimumDiameter 10 --spine
+ * </pre>
+ */
+public class BatchRunner {
+
+	private Path output;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private final List<String> inputs = new ArrayList<>();
+
+	private double minimumDiameter = 10;
+	private boolean getSpine = false;
+	private double spineClosenessTolerance = 10;
+	private double spineMinimumSimilarity = 0.5;
+	private boolean spineLineInCircles = false;
+	private boolean nativeResolution = false;
+	private boolean isLabelImage = false;
+	private boolean appendPositionToName = false;
+	private int maxCircles = 0;
+	private double minRadiusRatio = 0;
+	private long timeLimit = 0;
+	private MaxInscribedCircles.Engine engine = MaxInscribedCircles.Engine.MAXIMUM_FINDER;
+	private Path cacheFolder;
+	private long cacheSize = 1024;
+	private ResultCache cache;
+
+	public static void main(String[] args) {
+		// Never open a window, even by accident
+		System.setProperty("java.awt.headless", "true");
+		BatchRunner runner = new BatchRunner();
+		try {
+			runner.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			printUsage();
+			System.exit(2);
+		}
+		System.exit(runner.run() ? 0 : 1);
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: BatchRunner --input <folder or glob> [--input ...] --output <folder> [options]");
+		System.err.println("  --threads <n>                  files processed at the same time (default: number of processors)");
+		System.err.println("  --minimumDiameter <px>         smallest circle diameter, 0 for the largest circle only (default: 10)");
+		System.err.println("  --spine                        also find the spine");
+		System.err.println("  --spineClosenessTolerance <px> (default: 10)");
+		System.err.println("  --spineMinimumSimilarity <s>   (default: 0.5)");
+		System.err.println("  --spineLineInCircles           do not check the lines between overlapping circles");
+		System.err.println("  --engine <MAXIMUM_FINDER|PRIORITY_QUEUE|POLYGON> (default: MAXIMUM_FINDER)");
+		System.err.println("  --nativeResolution             do not upsample the mask");
+		System.err.println("  --labelImage                   process each label of the mask on its own");
+		System.err.println("  --appendPositionToName         append the slice to the names of the ROIs");
+		System.err.println("  --maximumCircles <n>           largest number of circles per slice or object (default: no limit)");
+		System.err.println("  --minimumRadiusRatio <r>       smallest radius relative to the largest circle (default: no limit)");
+		System.err.println("  --timeLimit <ms>               time limit per slice or object (default: no limit)");
+		System.err.println("  --cache <folder>               keep the results on disk and reuse them for unchanged masks");
+		System.err.println("  --cacheSize <MB>               largest size of the cache (default: 1024)");
+	}
+
+	void parse(String[] args) {
+		for (int k = 0; k < args.length; k++) {
+			String arg = args[k];
+			switch (arg) {
+				case "--input":
+					inputs.add(value(args, ++k, arg));
+					break;
+				case "--output":
+					output = Paths.get(value(args, ++k, arg));
+					break;
+				case "--threads":
+					threads = Integer.parseInt(value(args, ++k, arg));
+					if (threads < 1) throw new IllegalArgumentException("Threads must be at least 1");
+					break;
+				case "--minimumDiameter":
+					minimumDiameter = Double.parseDouble(value(args, ++k, arg));
+					break;
+				case "--spine":
+					getSpine = true;
+					break;
+				case "--spineClosenessTolerance":
+					spineClosenessTolerance = Double.parseDouble(value(args, ++k, arg));
+					break;
+				case "--spineMinimumSimilarity":
+					spineMinimumSimilarity = Double.parseDouble(value(args, ++k, arg));
+					break;
+				case "--spineLineInCircles":
+					spineLineInCircles = true;
+					break;
+				case "--engine":
+					engine = MaxInscribedCircles.Engine.valueOf(value(args, ++k, arg).toUpperCase(Locale.ROOT));
+					break;
+				case "--nativeResolution":
+					nativeResolution = true;
+					break;
+				case "--labelImage":
+					isLabelImage = true;
+					break;
+				case "--appendPositionToName":
+					appendPositionToName = true;
+					break;
+				case "--maximumCircles":
+					maxCircles = Integer.parseInt(value(args, ++k, arg));
+					break;
+				case "--minimumRadiusRatio":
+					minRadiusRatio = Double.parseDouble(value(args, ++k, arg));
+					break;
+				case "--timeLimit":
+					timeLimit = Long.parseLong(value(args, ++k, arg));
+					break;
+				case "--cache":
+					cacheFolder = Paths.get(value(args, ++k, arg));
+					break;
+				case "--cacheSize":
+					cacheSize = Long.parseLong(value(args, ++k, arg));
+					if (cacheSize < 1) throw new IllegalArgumentException("Cache size must be at least 1 MB");
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+		if (inputs.isEmpty()) throw new IllegalArgumentException("No --input given");
+		if (output == null) throw new IllegalArgumentException("No --output given");
+	}
+
+	private static String value(String[] args, int k, String name) {
+		if (k >= args.length) throw new IllegalArgumentException("Missing value for " + name);
+		return args[k];
+	}
+
+	/**
+	 * Process all the files
+	 * @return whether all of them were processed
+	 */
+	boolean run() {
+		List<Path> files;
+		try {
+			Files.createDirectories(output);
+			files = findFiles();
+			// Shared by all the files, so that they evict each other's results
+			if (cacheFolder != null) cache = new ResultCache(cacheFolder, cacheSize * 1024 * 1024);
+		} catch (IOException e) {
+			System.err.println("Error: " + e.getMessage());
+			return false;
+		}
+		if (files.isEmpty()) {
+			System.err.println("No TIFF files found");
+			return false;
+		}
+		// Files with the same name would write the same outputs, file systems may also ignore the case
+		Map<String, Path> names = new HashMap<>();
+		boolean isDuplicate = false;
+		for (Path file : files) {
+			Path other = names.putIfAbsent(getOutputName(file).toLowerCase(Locale.ROOT), file);
+			if (other != null) {
+				System.err.println("Error: " + other + " and " + file + " would write the same outputs");
+				isDuplicate = true;
+			}
+		}
+		if (isDuplicate) return false;
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (Path file : files) {
+				futures.add(executor.submit(() -> {
+					processFile(file);
+					return null;
+				}));
+			}
+			int failed = 0;
+			for (int k = 0; k < files.size(); k++) {
+				try {
+					futures.get(k).get();
+				} catch (Exception e) {
+					Throwable cause = e.getCause() != null ? e.getCause() : e;
+					System.err.println("Error processing " + files.get(k) + ": " + cause);
+					failed++;
+				}
+			}
+			System.out.println((files.size() - failed) + " of " + files.size() + " files processed");
+			return failed == 0;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return the TIFF files of the input folders, and the files matching the input globs, sorted
+	 */
+	private List<Path> findFiles() throws IOException {
+		Set<Path> files = new HashSet<>();
+		for (String input : inputs) {
+			Path path = Paths.get(input);
+			if (Files.isDirectory(path)) {
+				try (Stream<Path> s = Files.list(path)) {
+					files.addAll(s.filter(BatchRunner::isTiff).collect(Collectors.toList()));
+				}
+			} else if (Files.isRegularFile(path)) {
+				files.add(path);
+			} else {
+				// A glob, searched from the folder before the first wildcard
+				int wildcard = input.replaceAll("[*?\\[{].*$", "").lastIndexOf(File.separatorChar);
+				Path root = Paths.get(wildcard < 0 ? "." : input.substring(0, wildcard + 1));
+				PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + (wildcard < 0 ? "./" + input : input));
+				if (!Files.isDirectory(root)) throw new IOException("No such folder: " + root);
+				try (Stream<Path> s = Files.walk(root)) {
+					files.addAll(s.filter(p -> Files.isRegularFile(p) && matcher.matches(p)).collect(Collectors.toList()));
+				}
+			}
+		}
+		List<Path> sorted = new ArrayList<>(files);
+		sorted.sort(null);
+		return sorted;
+	}
+
+	/**
+	 * @return the name of the outputs of a file, its name without extension
+	 */
+	private static String getOutputName(Path file) {
+		return file.getFileName().toString().replaceFirst("\\.[^.]*$", "");
+	}
+
+	private static boolean isTiff(Path path) {
+		String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+		return Files.isRegularFile(path) && (name.endsWith(".tif") || name.endsWith(".tiff"));
+	}
+
+	private void processFile(Path file) throws IOException {
+		long start = System.nanoTime();
+		ImagePlus imp = new Opener().openTiff(file.getParent() == null ? "" : file.getParent().toString() + File.separator, file.getFileName().toString());
+		if (imp == null) throw new IOException("Cannot open " + file + " as a TIFF");
+
+		MaxInscribedCircles mic = MaxInscribedCircles.builder(imp)
+				.minimumDiameter(minimumDiameter)
+				.getSpine(getSpine)
+				.spineClosenessTolerance(spineClosenessTolerance)
+				.spineMinimumSimilarity(spineMinimumSimilarity)
+				.spineLineInCircles(spineLineInCircles)
+				.nativeResolution(nativeResolution)
+				.labelImage(isLabelImage)
+				.appendPositionToName(appendPositionToName)
+				.engine(engine)
+				.maximumCircles(maxCircles)
+				.minimumRadiusRatio(minRadiusRatio)
+				.timeLimit(timeLimit)
+				.cache(cache)
+				.build();
+		mic.process();
+
+		ResultWriter.write(mic, output, getOutputName(file));
+
+		System.out.println(String.format("%s: %d circles, %d spines in %.0f ms", file, mic.getCircleTable().size(), mic.getSpines().size(), (System.nanoTime() - start) / 1e6));
+	}
+}
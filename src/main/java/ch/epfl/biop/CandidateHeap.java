@@ -0,0 +1,99 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import java.util.Arrays;
+
+/**
+ * Binary max-heap of pixel indices keyed by distance, the smallest index first for equal distances
+ */
+class CandidateHeap {
+
+	private float[] keys = new float[256];
+	private int[] pixels = new int[256];
+	private int size = 0;
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the key of the top entry
+	 */
+	float topKey() {
+		return keys[0];
+	}
+
+	/**
+	 * @return the pixel of the top entry
+	 */
+	int topPixel() {
+		return pixels[0];
+	}
+
+	void push(float key, int pixel) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, 2 * size);
+			pixels = Arrays.copyOf(pixels, 2 * size);
+		}
+		keys[size] = key;
+		pixels[size] = pixel;
+		int i = size++;
+		while (i > 0 && isAbove(i, (i - 1) / 2)) {
+			swap(i, (i - 1) / 2);
+			i = (i - 1) / 2;
+		}
+	}
+
+	/**
+	 * Remove the top entry
+	 */
+	void pop() {
+		size--;
+		keys[0] = keys[size];
+		pixels[0] = pixels[size];
+		int i = 0;
+		while (true) {
+			int largest = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < size && isAbove(left, largest)) largest = left;
+			if (right < size && isAbove(right, largest)) largest = right;
+			if (largest == i) return;
+			swap(i, largest);
+			i = largest;
+		}
+	}
+
+	private boolean isAbove(int a, int b) {
+		return keys[a] > keys[b] || (keys[a] == keys[b] && pixels[a] < pixels[b]);
+	}
+
+	private void swap(int a, int b) {
+		float key = keys[a];
+		keys[a] = keys[b];
+		keys[b] = key;
+		int pixel = pixels[a];
+		pixels[a] = pixels[b];
+		pixels[b] = pixel;
+	}
+}
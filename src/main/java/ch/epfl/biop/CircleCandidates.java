@@ -0,0 +1,74 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.process.ImageProcessor;
+
+import java.awt.Polygon;
+
+/**
+ * Candidate circle centers of one pass of the circle finding, kept in parallel primitive arrays
+ * that are reused from one pass to the next. The radius of each candidate is read once from the distance map.
+ */
+class CircleCandidates {
+
+	double[] x = new double[0];
+	double[] y = new double[0];
+	double[] r = new double[0];
+	int count = 0;
+
+	/**
+	 * Replace the candidates by the maxima whose distance is larger than minRadius
+	 * @param maxima the maxima of the distance map
+	 * @param minRadius the smallest radius to keep, excluded
+	 * @param distanceMap the distance map
+	 */
+	void collect(Polygon maxima, double minRadius, ImageProcessor distanceMap) {
+		if (x.length < maxima.npoints) {
+			x = new double[maxima.npoints];
+			y = new double[maxima.npoints];
+			r = new double[maxima.npoints];
+		}
+		count = 0;
+		for (int i = 0; i < maxima.npoints; i++) {
+			double radius = distanceMap.getInterpolatedValue(maxima.xpoints[i], maxima.ypoints[i]);
+			if (radius > minRadius) {
+				x[count] = maxima.xpoints[i];
+				y[count] = maxima.ypoints[i];
+				r[count] = radius;
+				count++;
+			}
+		}
+	}
+
+	/**
+	 * Find the candidate with the largest radius, the first one in maxima order if several are equally large
+	 * @return the index of the largest candidate, or -1 if there are none
+	 */
+	int getLargest() {
+		int largest = -1;
+		for (int i = 0; i < count; i++) {
+			if (largest < 0 || r[i] > r[largest]) largest = i;
+		}
+		return largest;
+	}
+}
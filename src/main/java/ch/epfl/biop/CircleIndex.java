@@ -0,0 +1,181 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over a fixed set of circles, to find the circles close to a given circle without looking at all of them.
+ * Circles are identified by their index in the arrays given to the constructor. Circles much larger than the cells
+ * are kept apart, so that a few large circles do not make every query look at many cells.
+ */
+public class CircleIndex {
+
+	private final int n;
+	private final double[] x;
+	private final double[] y;
+	private final double[] r;
+	// Largest radius of the circles in the grid, the others are in largeItems
+	private double maxRadius = 0;
+	private final int[] largeItems;
+
+	private final double minX;
+	private final double minY;
+	private final double cellSize;
+	private final int cellsX;
+	private final int cellsY;
+
+	// Circles of each cell, in increasing index order: those of cell c are cellItems[cellStart[c]] to cellItems[cellStart[c + 1] - 1]
+	private final int[] cellStart;
+	private final int[] cellItems;
+
+	// Buffer for the results of queries
+	private int[] found = new int[16];
+
+	/**
+	 * Build the index over the first n circles of the arrays, which are used as is and should not be modified
+	 * @param x the x coordinates of the centers
+	 * @param y the y coordinates of the centers
+	 * @param r the radii
+	 * @param n the number of circles
+	 */
+	public CircleIndex(double[] x, double[] y, double[] r, int n) {
+		this.n = n;
+		this.x = x;
+		this.y = y;
+		this.r = r;
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		double sumRadius = 0;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxX = Math.max(maxX, x[i]);
+			maxY = Math.max(maxY, y[i]);
+			sumRadius += r[i];
+		}
+		if (n == 0) {
+			minX = minY = maxX = maxY = 0;
+		}
+		this.minX = minX;
+		this.minY = minY;
+
+		// Cells the size of an average circle keep both the number of cells and of circles per cell small,
+		// but there are never more than 2n + 1 cells for sparse circles: (w/s + 1)(h/s + 1) <= wh/s^2 + (w + h)/s + 1
+		double w = maxX - minX;
+		double h = maxY - minY;
+		double cellSize = Math.max(1.0, n == 0 ? 1.0 : 2.0 * sumRadius / n);
+		if (n > 0) cellSize = Math.max(cellSize, Math.max(Math.sqrt(w * h / n), (w + h) / n));
+		this.cellSize = cellSize;
+		this.cellsX = (int) (w / cellSize) + 1;
+		this.cellsY = (int) (h / cellSize) + 1;
+
+		int large = 0;
+		for (int i = 0; i < n; i++) {
+			if (isLarge(i)) large++;
+		}
+		this.largeItems = new int[large];
+		this.cellStart = new int[cellsX * cellsY + 1];
+		this.cellItems = new int[n - large];
+		large = 0;
+		for (int i = 0; i < n; i++) {
+			if (isLarge(i)) {
+				largeItems[large++] = i;
+			} else {
+				cellStart[cellOf(i) + 1]++;
+				maxRadius = Math.max(maxRadius, r[i]);
+			}
+		}
+		for (int c = 0; c < cellsX * cellsY; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		int[] next = Arrays.copyOf(cellStart, cellsX * cellsY);
+		for (int i = 0; i < n; i++) {
+			if (!isLarge(i)) cellItems[next[cellOf(i)]++] = i;
+		}
+	}
+
+	/**
+	 * @return true if the circle is kept apart from the grid, being larger than a cell
+	 */
+	private boolean isLarge(int i) {
+		return r[i] > cellSize;
+	}
+
+	private int cellOf(int i) {
+		int cx = (int) ((x[i] - minX) / cellSize);
+		int cy = (int) ((y[i] - minY) / cellSize);
+		return cy * cellsX + cx;
+	}
+
+	/**
+	 * @return the number of circles given to the index
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Find the circles whose centers are closer than their radius plus radius plus tolerance from the given center,
+	 * that is the circles overlapping the given circle grown by the tolerance
+	 * @param cx the x coordinate of the center
+	 * @param cy the y coordinate of the center
+	 * @param radius the radius of the circle
+	 * @param tolerance the extra distance allowed between the circles
+	 * @return the indices of the circles found, in increasing order
+	 */
+	public int[] findOverlapping(double cx, double cy, double radius, double tolerance) {
+		double reach = radius + maxRadius + tolerance;
+		int x0 = Math.max(0, (int) Math.floor((cx - reach - minX) / cellSize));
+		int y0 = Math.max(0, (int) Math.floor((cy - reach - minY) / cellSize));
+		int x1 = Math.min(cellsX - 1, (int) Math.floor((cx + reach - minX) / cellSize));
+		int y1 = Math.min(cellsY - 1, (int) Math.floor((cy + reach - minY) / cellSize));
+
+		int count = 0;
+		for (int gy = y0; gy <= y1; gy++) {
+			for (int gx = x0; gx <= x1; gx++) {
+				int c = gy * cellsX + gx;
+				for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+					count = addIfOverlapping(cellItems[k], cx, cy, radius, tolerance, count);
+				}
+			}
+		}
+		for (int i : largeItems) {
+			count = addIfOverlapping(i, cx, cy, radius, tolerance, count);
+		}
+
+		int[] result = Arrays.copyOf(found, count);
+		Arrays.sort(result);
+		return result;
+	}
+
+	private int addIfOverlapping(int i, double cx, double cy, double radius, double tolerance, int count) {
+		double dx = x[i] - cx;
+		double dy = y[i] - cy;
+		if (Math.sqrt(dx * dx + dy * dy) < radius + r[i] + tolerance) {
+			if (count == found.length) found = Arrays.copyOf(found, 2 * count);
+			found[count++] = i;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,245 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.gui.OvalRoi;
+import ij.gui.Roi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Circles kept as columns of numbers, a few tens of bytes per circle, instead of one named {@link OvalRoi} each.
+ * The ROIs are only made when asked for, with the same names, positions and properties as when they are found.
+ *
+ * Coordinates are in pixels of the image, the center of the top left pixel being at 0.5, 0.5 like for the ROIs.
+ */
+public class CircleTable {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final boolean appendPositionToName;
+
+	private double[] x = new double[INITIAL_CAPACITY];
+	private double[] y = new double[INITIAL_CAPACITY];
+	private double[] r = new double[INITIAL_CAPACITY];
+	private int[] slice = new int[INITIAL_CAPACITY];
+	private int[] label = new int[INITIAL_CAPACITY];
+	private int[] iteration = new int[INITIAL_CAPACITY];
+	private int[] selection = new int[INITIAL_CAPACITY];
+	private int size;
+
+	/**
+	 * Make an empty table, with circles named like without {@link MaxInscribedCircles.Builder#appendPositionToName(boolean)}
+	 */
+	public CircleTable() {
+		this(false);
+	}
+
+	/**
+	 * Make an empty table
+	 * @param appendPositionToName whether to append the slice to the names of the ROIs
+	 */
+	public CircleTable(boolean appendPositionToName) {
+		this.appendPositionToName = appendPositionToName;
+	}
+
+	/**
+	 * Add a circle, on no slice, label or selection
+	 * @param x the x coordinate of the center
+	 * @param y the y coordinate of the center
+	 * @param r the radius
+	 * @return the index of the circle
+	 */
+	int add(double x, double y, double r) {
+		if (size == this.x.length) grow();
+		this.x[size] = x;
+		this.y[size] = y;
+		this.r[size] = r;
+		this.iteration[size] = size;
+		this.selection[size] = -1;
+		return size++;
+	}
+
+	/**
+	 * Add a circle from its ROI, on no slice, label or selection
+	 * @return the index of the circle
+	 */
+	int add(Roi circle) {
+		double radius = circle.getFloatWidth() / 2.0D;
+		return add(circle.getXBase() + radius, circle.getYBase() + radius, radius);
+	}
+
+	/**
+	 * Add all the circles of another table, keeping their slice, label, iteration and selection
+	 */
+	void addAll(CircleTable table) {
+		while (size + table.size > x.length) grow();
+		System.arraycopy(table.x, 0, x, size, table.size);
+		System.arraycopy(table.y, 0, y, size, table.size);
+		System.arraycopy(table.r, 0, r, size, table.size);
+		System.arraycopy(table.slice, 0, slice, size, table.size);
+		System.arraycopy(table.label, 0, label, size, table.size);
+		System.arraycopy(table.iteration, 0, iteration, size, table.size);
+		System.arraycopy(table.selection, 0, selection, size, table.size);
+		size += table.size;
+	}
+
+	/**
+	 * Move the circles from the first one on to their place in the full image, and put them on their slice and label
+	 */
+	void place(int from, int slice, int label, int offsetX, int offsetY) {
+		for (int i = from; i < size; i++) {
+			this.slice[i] = slice;
+			this.label[i] = label;
+			x[i] += offsetX;
+			y[i] += offsetY;
+		}
+	}
+
+	/**
+	 * Tag all the circles with the selection of a set they belong to
+	 */
+	void setSelection(int index) {
+		Arrays.fill(selection, 0, size, index);
+	}
+
+	private void grow() {
+		int capacity = 2 * x.length;
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		r = Arrays.copyOf(r, capacity);
+		slice = Arrays.copyOf(slice, capacity);
+		label = Arrays.copyOf(label, capacity);
+		iteration = Arrays.copyOf(iteration, capacity);
+		selection = Arrays.copyOf(selection, capacity);
+	}
+
+	/**
+	 * @return the number of circles
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i the index of the circle
+	 * @return the x coordinate of its center
+	 */
+	public double getX(int i) {
+		return x[check(i)];
+	}
+
+	/**
+	 * @param i the index of the circle
+	 * @return the y coordinate of its center
+	 */
+	public double getY(int i) {
+		return y[check(i)];
+	}
+
+	/**
+	 * @param i the index of the circle
+	 * @return its radius
+	 */
+	public double getRadius(int i) {
+		return r[check(i)];
+	}
+
+	/**
+	 * @param i the index of the circle
+	 * @return its slice, 1-based, or 0 if it was not found by {@link MaxInscribedCircles#process()}
+	 */
+	public int getSlice(int i) {
+		return slice[check(i)];
+	}
+
+	/**
+	 * @param i the index of the circle
+	 * @return the label of its object, or 0 if this is not a label image
+	 */
+	public int getLabel(int i) {
+		return label[check(i)];
+	}
+
+	/**
+	 * @param i the index of the circle
+	 * @return the order it was found in within its slice, object or selection, 0 for the largest circle
+	 */
+	public int getIteration(int i) {
+		return iteration[check(i)];
+	}
+
+	/**
+	 * @param i the index of the circle
+	 * @return the index of the selection of the set it belongs to, or -1 if no set of selections was given
+	 */
+	public int getSelection(int i) {
+		return selection[check(i)];
+	}
+
+	private int check(int i) {
+		if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Circle " + i + " of " + size);
+		return i;
+	}
+
+	/**
+	 * @param i the index of the circle
+	 * @return the name of its ROI, with its diameter, label and slice
+	 */
+	public String getName(int i) {
+		check(i);
+		String name = String.format("Circle-r_%.3f", r[i] * 2.0D);
+		if (label[i] > 0) name += "-L_" + label[i];
+		if (appendPositionToName && slice[i] > 0) name += "-P_" + slice[i];
+		return name;
+	}
+
+	/**
+	 * Make the ROI of a circle
+	 * @param i the index of the circle
+	 * @return a new circle, named with its diameter, label and slice, positioned on its slice
+	 */
+	public Roi getRoi(int i) {
+		double diameter = getRadius(i) * 2.0D;
+		Roi circ = new OvalRoi(x[i] - r[i], y[i] - r[i], diameter, diameter);
+		circ.setName(getName(i));
+		circ.setStrokeWidth(1.0F);
+		if (slice[i] > 0) circ.setPosition(slice[i]);
+		if (label[i] > 0) circ.setProperty(MaxInscribedCircles.LABEL_PROPERTY, String.valueOf(label[i]));
+		if (selection[i] >= 0) circ.setProperty(MaxInscribedCircles.SELECTION_PROPERTY, String.valueOf(selection[i]));
+		return circ;
+	}
+
+	/**
+	 * Make the ROIs of all the circles at once
+	 * @return a new list of new circles, in the order of the table
+	 */
+	public List<Roi> getRois() {
+		List<Roi> rois = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			rois.add(getRoi(i));
+		}
+		return rois;
+	}
+}
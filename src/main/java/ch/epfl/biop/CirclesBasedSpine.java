@@ -24,18 +24,15 @@ package ch.epfl.biop;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.gui.Line;
-import ij.gui.OvalRoi;
 import ij.gui.Overlay;
 import ij.gui.PolygonRoi;
 import ij.gui.Roi;
 import ij.measure.ResultsTable;
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
 import java.awt.geom.Point2D;
 
 public class CirclesBasedSpine {
@@ -47,7 +44,19 @@ public class CirclesBasedSpine {
     private Boolean isShowCircles;
     private double minSimilarity = 0.5D;
     private double closenessTolerance = 10.0D;
+    private boolean isLineInCircles = false;
     private List<Roi> circles = null;
+    private CircleTable circleTable = null;
+    // The mask is packed once, to test lines against it without reading the image
+    private PackedMask mask;
+
+    // Graph of the circles: centers and widths, and for each circle the indices of the adjacent ones.
+    // Only the circles the walk reaches need their adjacent circles, which are found once, the first time
+    private Point2D[] centers;
+    private double[] widths;
+    private int[] positions;
+    private CircleIndex index;
+    private int[][] adjacent;
 
     public CirclesBasedSpine(CirclesBasedSpine.Settings settings) {
         this.imp = settings.image;
@@ -55,66 +64,121 @@ public class CirclesBasedSpine {
         this.isShowCircles = settings.isShowCircles;
         this.minSimilarity = settings.minSimilarity;
         this.closenessTolerance = settings.closenessTolerance;
+        this.isLineInCircles = settings.isLineInCircles;
         this.circles = settings.circles;
+        this.circleTable = settings.circleTable;
     }
 
     public PolygonRoi getSpine() {
-        if (this.circles.isEmpty()) {
+        if (this.circleTable == null && this.circles.isEmpty()) {
             // If there is no circles, they are computed
             this.circles = MaxInscribedCircles.findCircles(this.imp, this.minCircleDiameter, false);
         }
 
-        Roi circle;
         if (this.isShowCircles) {
             // If isShowCircles they are added to this.ov
-            Iterator<Roi> it = this.circles.iterator();
-
-            while(it.hasNext()) {
-                circle = it.next();
+            for (Roi circle : this.circleTable != null ? this.circleTable.getRois() : this.circles) {
                 this.ov.add(circle);
             }
         }
 
+        this.buildGraph();
+
         // The first circle is the largest
-        circle = this.circles.get(0);
+        int circle = 0;
 
         // Do not compute spine if there is no adjacent circle
-        List<Roi> adjCircles = this.getAdjacentCircles(this.circles, circle, imp);
-        if (adjCircles.size() < 1) {
+        if (this.getAdjacent(circle).length < 1) {
             IJ.log("Error: No Adjacent Circles found. Consider decreasing 'Minimum Circle Diameter' or increasing 'Closeness Tolerance'");
             return null;
         }
 
         // Get the largest circle adjacent to circle
-        Roi circleB = Collections.max(adjCircles, Comparator.comparing((c) -> c.getFloatWidth() ));
+        int circleB = -1;
+        for (int c : this.getAdjacent(circle)) {
+            if (circleB < 0 || this.widths[c] > this.widths[circleB]) circleB = c;
+        }
 
         // A and B are the centroids or circle and circleB
-        Point2D pointA = this.getCentroid(circle);
-        Point2D pointB = this.getCentroid(circleB);
+        Point2D pointA = this.centers[circle];
+        Point2D pointB = this.centers[circleB];
         // Add a line to this.ov which link the 2 circles
-        this.ov.add(this.makeLine(circle, circleB, new Color(128, 255, 128)));
+        this.ov.add(this.makeLine(circle, pointB, new Color(128, 255, 128)));
+        // Circles already on the spine are not walked through again, the input list is left as is
+        boolean[] isVisited = new boolean[this.centers.length];
         // Iterate the spine (from circle (excluded) using vector B->A)
-        List<Point2D> spineB = this.iterateSpine(this.circles, circleB, circle);
+        List<Point2D> spineB = this.iterateSpine(circleB, circle, isVisited);
         // Reorder the spine to get extremity -> B -> A
         Collections.reverse(spineB);
         spineB.add(pointA);
         spineB.add(pointB);
         // Iterate the spine (from circleB excluded using A->B)
         // and add it to spineB
-        spineB.addAll(this.iterateSpine(this.circles, circle, circleB));
+        spineB.addAll(this.iterateSpine(circle, circleB, isVisited));
         float[] xPoints = this.toFloatArray(spineB.stream().mapToDouble(m -> m.getX()).toArray());
         float[] yPoints = this.toFloatArray(spineB.stream().mapToDouble(m -> m.getY()).toArray());
         // Create a polygon and set name "Spine"
         this.spine = new PolygonRoi(xPoints, yPoints, 6);
-        int pos = circle.getPosition();
         this.spine.setName("Spine");
         return this.spine;
     }
 
-    private Point2D getCentroid(Roi circle) {
-        double[] c = circle.getContourCentroid();
-        Point2D centroid = new Point2D.Double(c[0], c[1]);
-        return centroid;
+    /**
+     * Build the nodes of the graph of the circles. Centers are the centers of the circles of a table, or the centroids
+     * of the contours of the circles of a list
+     */
+    private void buildGraph() {
+        int n = this.circleTable != null ? this.circleTable.size() : this.circles.size();
+        this.centers = new Point2D[n];
+        this.widths = new double[n];
+        this.positions = new int[n];
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] r = new double[n];
+        for (int i = 0; i < n; i++) {
+            if (this.circleTable != null) {
+                x[i] = this.circleTable.getX(i);
+                y[i] = this.circleTable.getY(i);
+                r[i] = this.circleTable.getRadius(i);
+                this.widths[i] = r[i] * 2.0D;
+                this.positions[i] = this.circleTable.getSlice(i);
+            } else {
+                Roi c = this.circles.get(i);
+                double[] centroid = c.getContourCentroid();
+                x[i] = centroid[0];
+                y[i] = centroid[1];
+                this.widths[i] = c.getFloatWidth();
+                r[i] = this.widths[i] / 2.0D;
+                this.positions[i] = c.getPosition();
+            }
+            this.centers[i] = new Point2D.Double(x[i], y[i]);
+        }
+
+        this.index = new CircleIndex(x, y, r, n);
+        this.adjacent = new int[n][];
+        this.mask = new PackedMask(this.imp.getProcessor(), 255.0F);
+    }
+
+    /**
+     * Two circles are adjacent when they are closer than the closeness tolerance and the line between their centers is in the mask
+     * @return the indices of the circles adjacent to a circle, in the order of the list
+     */
+    private int[] getAdjacent(int i) {
+        if (this.adjacent[i] == null) {
+            Point2D c0 = this.centers[i];
+            int[] close = this.index.findOverlapping(c0.getX(), c0.getY(), this.widths[i] / 2.0D, this.closenessTolerance);
+            int count = 0;
+            for (int j : close) {
+                double distance = this.centers[j].distance(c0);
+                // Overlapping circles cover the line between their centers, and they are in the mask
+                boolean isCovered = this.isLineInCircles && distance <= (this.widths[i] + this.widths[j]) / 2.0D;
+                if (distance > 0 && (isCovered || this.allLineInMask(c0, this.centers[j]))) {
+                    close[count++] = j;
+                }
+            }
+            this.adjacent[i] = Arrays.copyOf(close, count);
+        }
+        return this.adjacent[i];
     }
 
     float[] toFloatArray(double[] arr) {
@@ -132,42 +196,38 @@ public class CirclesBasedSpine {
         }
     }
 
-    List<Point2D> iterateSpine(List<Roi> circles, Roi circleA, Roi circleB) {
-        Boolean done = false;
+    List<Point2D> iterateSpine(int circleA, int circleB, boolean[] isVisited) {
         ArrayList<Point2D> spinePoints = new ArrayList<Point2D>();
 
-        while(!done) {
-            circles.remove(circleA);
+        while (true) {
+            isVisited[circleA] = true;
             // vectorA is A->B
             Point2D vectorA = this.getVector(circleA, circleB);
-            Roi finalCircleB = circleB;
-            // Find a circle adjacent to circleB which is not A
-            // Which is compatible with similarity
-            List<Roi> theCircles = (List<Roi>)this.getAdjacentCircles(circles, circleB, imp).stream().filter((Roi c) -> {
-                Point2D vectorB = this.getVector(finalCircleB, c);
-                return this.similarity(vectorA, vectorB) > this.minSimilarity;
-            }).collect(Collectors.toList());
-            if (!theCircles.isEmpty()) {
-                // put in circleC the largest
-                Roi circleC = (Roi) Collections.max(theCircles, Comparator.comparing((Roi c) -> c.getFloatWidth()));
+            // Find the largest circle adjacent to circleB which is not visited
+            // and which is compatible with similarity
+            int circleC = -1;
+            for (int c : this.getAdjacent(circleB)) {
+                if (isVisited[c] || this.similarity(vectorA, this.getVector(circleB, c)) <= this.minSimilarity) continue;
+                if (circleC < 0 || this.widths[c] > this.widths[circleC]) circleC = c;
+            }
+            if (circleC >= 0) {
                 // Add to this.ov the line which link circleB to circleC
-                Line line = this.makeLine(circleB, circleC, new Color(128, 255, 128));
-                this.ov.add(line);
+                this.ov.add(this.makeLine(circleB, this.centers[circleC], new Color(128, 255, 128)));
                 // Add to the spine circleC center
-                spinePoints.add(this.getCentroid(circleC));
-                circles.remove(circleB);
+                spinePoints.add(this.centers[circleC]);
+                isVisited[circleB] = true;
                 // Go one with B-C instead of A-B
                 circleA = circleB;
                 circleB = circleC;
             } else {
                 // No more compatible circle were found
-                done = true;
                 // Make a line to go to the extremity of mask
                 Line line = this.makeEndLine(circleB, vectorA);
                 // add this line to this.ov
                 this.ov.add(line);
                 // add the extremity point to the spinePoints
                 spinePoints.add(new Point2D.Double((double)line.getFloatPolygon(0).xpoints[1], (double)line.getFloatPolygon(0).ypoints[1]));
+                break;
             }
         }
         // set this.ov as overlay
@@ -178,7 +238,7 @@ public class CirclesBasedSpine {
     ResultsTable getSpineResults() {
         ResultsTable rt = ResultsTable.getResultsTable() == null ? new ResultsTable() : ResultsTable.getResultsTable();
         double length = this.spine.getLength();
-        double width = ((Roi)this.circles.get(0)).getFloatWidth();
+        double width = this.widths[0];
         rt.incrementCounter();
         rt.addLabel(this.imp.getTitle());
         rt.addValue("Length", length);
@@ -194,76 +254,47 @@ public class CirclesBasedSpine {
         return nRoi;
     }
 
-    List<Roi> getAdjacentCircles(List<Roi> circles, Roi circle, ImagePlus imp) {
-        double r0 = circle.getFloatWidth() / 2.0D;
-        Point2D c0 = this.getCentroid(circle);
-        List<Roi> adjacent = (List<Roi>)circles.stream().filter((c) -> {
-            double r1 = c.getFloatWidth() / 2.0D;
-            Point2D c1 = this.getCentroid(c);
-            return c1.distance(c0) < r1 + r0 + this.closenessTolerance && c1.distance(c0) > 0 && this.allLineInMask(c0, c1, imp);
-        }).collect(Collectors.toList());
-        return adjacent;
-    }
-
-    Point2D getVector(Roi circleA, Roi circleB) {
-        Point2D A = this.getCentroid(circleA);
-        Point2D B = this.getCentroid(circleB);
+    Point2D getVector(int circleA, int circleB) {
+        Point2D A = this.centers[circleA];
+        Point2D B = this.centers[circleB];
 
         Point2D.Double C = new Point2D.Double(B.getX() - A.getX(), B.getY() - A.getY());
         return C;
     }
 
-    Line makeLine(Roi circleA, Roi circleB, Color color) {
-        Point2D ca = this.getCentroid(circleA);
-        Point2D cb = this.getCentroid(circleB);
+    Line makeLine(int circleA, Point2D cb, Color color) {
+        Point2D ca = this.centers[circleA];
         Line line = new Line(ca.getX(), ca.getY(), cb.getX(), cb.getY());
         line.setStrokeColor(color);
         line.setStrokeWidth(2.0F);
-        line.setPosition(circleA.getPosition());
+        line.setPosition(this.positions[circleA]);
         line.setName("SpinePart");
         return line;
     }
 
-    Line makeEndLine(Roi circle, Point2D vector) {
-        Point2D c1 = this.getCentroid(circle);
-        double r1 = circle.getFloatWidth() / 2.0D;
+    Line makeEndLine(int circle, Point2D vector) {
+        Point2D c1 = this.centers[circle];
+        double r1 = this.widths[circle] / 2.0D;
 
         // magnitude is the length of the vector:
         double magnitude = vector.distance(0,0);
 
-        // c2 is 1 pixel before the extremity of the circle in the direction of vector
-        Point2D c2 = new Point2D.Double(c1.getX() + (r1 - 1.0D) * vector.getX() / magnitude, c1.getY() + (r1 - 1.0D) * vector.getY() / magnitude );
-        // c2temp is the extremity of the circle in the direction of vector
-        Point2D c2temp = new Point2D.Double(c1.getX() + r1 * vector.getX() / magnitude, c1.getY() + r1 * vector.getY() / magnitude );
-
-
-        // check if the pixel close to c2temp is inMask
-        Boolean inMask = this.imp.getProcessor().getf((int)Math.round(c2temp.getX()), (int)Math.round(c2temp.getY())) == 255.0F;
-        // while it is inMask increase by one pixel in vector direction
-        for(int i = 1; inMask; ++i) {
-            c2 = c2temp;
-            c2temp = new Point2D.Double(c1.getX() + ( r1 + (double) i ) * vector.getX() / magnitude, c1.getY() + (r1 +(double) i) * vector.getY() / magnitude );
-            inMask = this.imp.getProcessor().getf((int)Math.round(c2temp.getX()), (int)Math.round(c2temp.getY())) == 255.0F;
-        }
-        // At this step the pixel close to c2 is in mask but c2temp is not.
-        // create a circle c with centroid c2 radius 10
-        Roi c = new OvalRoi((int)Math.round(c2.getX()) - 10, (int)Math.round(c2.getY()) - 10, 20, 20);
-        // return a line between circle and c
-        return this.makeLine(circle, c, new Color(255, 0, 0));
+        // Number of pixels from the extremity of the circle in the direction of vector that are in the mask
+        int steps = this.mask.getExitStep(c1.getX(), c1.getY(), vector.getX(), vector.getY(), r1);
+        // c2 is the last of them, or 1 pixel before the extremity of the circle if there is none
+        Point2D c2 = new Point2D.Double(c1.getX() + (r1 + (double) (steps - 1)) * vector.getX() / magnitude, c1.getY() + (r1 + (double) (steps - 1)) * vector.getY() / magnitude );
+        // At this step the pixel close to c2 is in mask but the next one is not.
+        // return a line between circle and the pixel corner closest to c2
+        return this.makeLine(circle, new Point2D.Double(Math.round(c2.getX()), Math.round(c2.getY())), new Color(255, 0, 0));
     }
 
     double similarity(Point2D p1, Point2D p2) {
         return (p1.getX() * p2.getX() + p1.getY() * p2.getY()) / (Math.sqrt(p1.getX() * p1.getX() + p1.getY() * p1.getY()) * Math.sqrt(p2.getX() * p2.getX() + p2.getY() * p2.getY()));
     }
 
-    boolean allLineInMask(Point2D c0, Point2D c1, ImagePlus imp) {
-        double[] values = imp.getProcessor().getLine(c0.getX(), c0.getY(), c1.getX(), c1.getY());
-        for (int i = 0; i < values.length; ++i) {
-            if (values[i] != 255.0F) {
-                return false;
-            }
-        }
-        return true;
+    // Points along the line are sampled like ImageProcessor.getLine, pixels outside of the image are not in the mask
+    boolean allLineInMask(Point2D c0, Point2D c1) {
+        return this.mask.containsSegment(c0.getX(), c0.getY(), c1.getX(), c1.getY());
     }
 
     public static class Settings {
@@ -272,7 +303,9 @@ public class CirclesBasedSpine {
         private Boolean isShowCircles = false;
         private double minSimilarity = 0.5D;
         private double closenessTolerance = 10.0D;
+        private boolean isLineInCircles = false;
         private List<Roi> circles = new ArrayList<Roi>();
+        private CircleTable circleTable = null;
 
         public Settings(ImagePlus image) {
             this.image = image;
@@ -298,11 +331,23 @@ public class CirclesBasedSpine {
             return this;
         }
 
+        // Consider the line between overlapping circles in the mask without checking its pixels
+        public CirclesBasedSpine.Settings lineInCircles(boolean lineInCircles) {
+            this.isLineInCircles = lineInCircles;
+            return this;
+        }
+
         public CirclesBasedSpine.Settings circles(List<Roi> circles) {
             this.circles = circles;
             return this;
         }
 
+        // The circles as columns of numbers, used instead of the list of circles
+        public CirclesBasedSpine.Settings circles(CircleTable circles) {
+            this.circleTable = circles;
+            return this;
+        }
+
         public CirclesBasedSpine build() {
             return new CirclesBasedSpine(this);
         }
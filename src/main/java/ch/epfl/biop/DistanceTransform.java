@@ -0,0 +1,40 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Computes the Euclidean distance map of a binary mask.
+ * Non-zero pixels are foreground, and their value is the distance to the closest zero pixel.
+ * Pixels outside of the image are not considered to be background.
+ */
+public interface DistanceTransform {
+
+	/**
+	 * Compute the distance map of a mask
+	 * @param mask the binary mask, left untouched
+	 * @param output an array of at least width * height values to write the distances to, or null to create one
+	 * @return the distance map, row by row. This is output if it was large enough
+	 */
+	float[] compute(ImageProcessor mask, float[] output);
+}
@@ -0,0 +1,45 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import fiji.process3d.EDT;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/**
+ * The distance transform used historically by this plugin: fiji.process3d.EDT run on a single slice stack.
+ * Kept as a reference to compare results and speed against {@link SeparableDistanceTransform}.
+ */
+public class FijiDistanceTransform implements DistanceTransform {
+
+	@Override
+	public float[] compute(ImageProcessor mask, float[] output) {
+		int n = mask.getWidth() * mask.getHeight();
+		if (output == null || output.length < n) output = new float[n];
+
+		ImageStack stack = new ImageStack(mask.getWidth(), mask.getHeight());
+		stack.addSlice(mask);
+		float[] distances = (float[]) new EDT().compute(stack).getProcessor().getPixels();
+		System.arraycopy(distances, 0, output, 0, n);
+		return output;
+	}
+}
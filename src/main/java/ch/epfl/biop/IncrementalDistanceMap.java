@@ -0,0 +1,205 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.gui.Roi;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+
+/**
+ * Euclidean distance map of a binary mask that is kept up to date while circles are cleared from the mask.
+ * Non-zero pixels are foreground, their value is the distance to the closest zero pixel.
+ *
+ * Clearing pixels can only make distances smaller, and only for pixels that are closer to a cleared pixel than
+ * to any previous background pixel. These all lie within the current largest distance of the cleared pixels,
+ * so only that region is recomputed, using the cleared pixels as the only sites, and merged into the map.
+ */
+class IncrementalDistanceMap {
+
+	// Side of the blocks used to keep track of the largest distance without scanning the whole map
+	private static final int BLOCK = 32;
+
+	private final ImageProcessor mask;
+	private final int width;
+	private final int height;
+	private final float[] dist;
+	private final FloatProcessor distanceProcessor;
+
+	private final int blocksX;
+	private final int blocksY;
+	private final float[] blockMax;
+
+	// Buffers for the local updates, grown on demand
+	private int[] localSq = new int[0];
+	private int[] line = new int[0];
+	private SeparableDistanceTransform.Envelope envelope = new SeparableDistanceTransform.Envelope(0);
+
+	/**
+	 * Compute the distance map of the given mask
+	 * @param mask the binary mask, which is modified by {@link #clear(Roi)}
+	 * @param transform the distance transform used for the initial map
+	 */
+	IncrementalDistanceMap(ImageProcessor mask, DistanceTransform transform) {
+		this.mask = mask;
+		this.width = mask.getWidth();
+		this.height = mask.getHeight();
+		this.dist = transform.compute(mask, new float[width * height]);
+		this.distanceProcessor = new FloatProcessor(width, height, dist);
+
+		this.blocksX = (width + BLOCK - 1) / BLOCK;
+		this.blocksY = (height + BLOCK - 1) / BLOCK;
+		this.blockMax = new float[blocksX * blocksY];
+		updateBlockMax(0, 0, width, height);
+	}
+
+	/**
+	 * @return the distance map, which is updated in place by {@link #clear(Roi)}
+	 */
+	FloatProcessor getProcessor() {
+		return distanceProcessor;
+	}
+
+	/**
+	 * Fill the given area of the mask with background and update the distance map accordingly
+	 * @param roi the area to clear
+	 * @return the area of the distance map that was recomputed, or null if no pixel was cleared
+	 */
+	Rectangle clear(Roi roi) {
+		return clear(roi.getBounds(), roi.getMask());
+	}
+
+	/**
+	 * Fill the given area of the mask with background and update the distance map accordingly
+	 * @param bounds the bounds of the area to clear, which can extend outside of the mask
+	 * @param roiMask the pixels to clear within the bounds, or null to clear all of them
+	 * @return the area of the distance map that was recomputed, or null if no pixel was cleared
+	 */
+	Rectangle clear(Rectangle bounds, ImageProcessor roiMask) {
+		Rectangle r = bounds.intersection(new Rectangle(0, 0, width, height));
+		if (r.isEmpty()) return null;
+
+		// Remember the foreground before filling so that we know which pixels were cleared
+		boolean[] before = new boolean[r.width * r.height];
+		for (int y = 0; y < r.height; y++) {
+			for (int x = 0; x < r.width; x++) {
+				before[y * r.width + x] = isForeground((r.y + y) * width + r.x + x);
+			}
+		}
+		fill(mask, bounds, roiMask);
+
+		// Bounding box of the pixels that were cleared
+		int minX = width, minY = height, maxX = -1, maxY = -1;
+		for (int y = 0; y < r.height; y++) {
+			for (int x = 0; x < r.width; x++) {
+				if (before[y * r.width + x] && !isForeground((r.y + y) * width + r.x + x)) {
+					minX = Math.min(minX, r.x + x);
+					maxX = Math.max(maxX, r.x + x);
+					minY = Math.min(minY, r.y + y);
+					maxY = Math.max(maxY, r.y + y);
+				}
+			}
+		}
+		if (maxX < 0) return null;
+
+		// Only pixels closer to the cleared pixels than the current largest distance can change
+		int margin = (int) Math.ceil(Math.min(getMaxDistance(), Math.max(width, height)));
+		int x0 = Math.max(0, minX - margin);
+		int y0 = Math.max(0, minY - margin);
+		int x1 = Math.min(width, maxX + margin + 1);
+		int y1 = Math.min(height, maxY + margin + 1);
+		int w = x1 - x0;
+		int h = y1 - y0;
+
+		if (localSq.length < w * h) localSq = new int[w * h];
+		if (line.length < Math.max(w, h)) {
+			line = new int[Math.max(w, h)];
+			envelope = new SeparableDistanceTransform.Envelope(Math.max(w, h));
+		}
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				int xx = x0 + x;
+				int yy = y0 + y;
+				boolean cleared = xx >= r.x && xx < r.x + r.width && yy >= r.y && yy < r.y + r.height
+						&& before[(yy - r.y) * r.width + xx - r.x] && !isForeground(yy * width + xx);
+				localSq[y * w + x] = cleared ? 0 : SeparableDistanceTransform.INF;
+			}
+		}
+		SeparableDistanceTransform.transform(localSq, w, h, line, envelope);
+
+		// The square root is monotonic, so keeping the smallest float distance is the same as recomputing it
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				int i = (y0 + y) * width + x0 + x;
+				float d = SeparableDistanceTransform.toDistance(localSq[y * w + x]);
+				if (d < dist[i]) dist[i] = d;
+			}
+		}
+		updateBlockMax(x0, y0, x1, y1);
+		return new Rectangle(x0, y0, w, h);
+	}
+
+	/**
+	 * @return the largest distance currently in the map
+	 */
+	float getMaxDistance() {
+		float max = 0;
+		for (float m : blockMax) {
+			if (m > max) max = m;
+		}
+		return max;
+	}
+
+	/**
+	 * Fill pixels of a mask with background, like {@link ImageProcessor#fill(Roi)} with the roi the bounds and pixels come from
+	 * @param mask the mask to fill
+	 * @param bounds the bounds of the area to fill, which can extend outside of the mask
+	 * @param roiMask the pixels to fill within the bounds, or null to fill all of them
+	 */
+	static void fill(ImageProcessor mask, Rectangle bounds, ImageProcessor roiMask) {
+		Rectangle r = bounds.intersection(new Rectangle(0, 0, mask.getWidth(), mask.getHeight()));
+		for (int y = r.y; y < r.y + r.height; y++) {
+			for (int x = r.x; x < r.x + r.width; x++) {
+				if (roiMask == null || roiMask.get(x - bounds.x, y - bounds.y) != 0) mask.set(x, y, 0);
+			}
+		}
+	}
+
+	private boolean isForeground(int index) {
+		return mask.get(index) != 0;
+	}
+
+	private void updateBlockMax(int x0, int y0, int x1, int y1) {
+		for (int by = y0 / BLOCK; by <= (y1 - 1) / BLOCK; by++) {
+			for (int bx = x0 / BLOCK; bx <= (x1 - 1) / BLOCK; bx++) {
+				float max = 0;
+				for (int y = by * BLOCK; y < Math.min(height, (by + 1) * BLOCK); y++) {
+					for (int x = bx * BLOCK; x < Math.min(width, (bx + 1) * BLOCK); x++) {
+						max = Math.max(max, dist[y * width + x]);
+					}
+				}
+				blockMax[by * blocksX + bx] = max;
+			}
+		}
+	}
+}
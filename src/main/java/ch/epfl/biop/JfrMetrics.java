@@ -0,0 +1,133 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Emits the metrics of each slice as a "ch.epfl.biop.MaxInscribedCircles.Slice" Java Flight Recorder event, so that
+ * they show up in any recording without setting a listener.
+ *
+ * The plugin still runs on Java 8, where the JFR API is only there in recent updates, so the event type is made with
+ * the jdk.jfr.EventFactory through reflection instead of subclassing jdk.jfr.Event. Creating an event is skipped when
+ * no recording is enabled for it.
+ */
+class JfrMetrics implements MetricsListener {
+
+	private static final String EVENT_NAME = "ch.epfl.biop.MaxInscribedCircles.Slice";
+
+	/**
+	 * The listener emitting the events, or null if Java Flight Recorder is not available
+	 */
+	static final MetricsListener LISTENER = create();
+
+	private final Object factory;
+	private final Method newEvent;
+	private final Method set;
+	private final Method shouldCommit;
+	private final Method commit;
+
+	private JfrMetrics(Object factory, Method newEvent, Method set, Method shouldCommit, Method commit) {
+		this.factory = factory;
+		this.newEvent = newEvent;
+		this.set = set;
+		this.shouldCommit = shouldCommit;
+		this.commit = commit;
+	}
+
+	private static MetricsListener create() {
+		try {
+			Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+			Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+			Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+			Class<?> event = Class.forName("jdk.jfr.Event");
+			Constructor<?> newAnnotation = annotationElement.getConstructor(Class.class, Object.class);
+			Constructor<?> newField = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+			List<Object> eventAnnotations = Arrays.asList(
+					newAnnotation.newInstance(annotation("jdk.jfr.Name"), EVENT_NAME),
+					newAnnotation.newInstance(annotation("jdk.jfr.Label"), "Max Inscribed Circles Slice"),
+					newAnnotation.newInstance(annotation("jdk.jfr.Category"), new String[]{"BIOP", "Max Inscribed Circles"}),
+					newAnnotation.newInstance(annotation("jdk.jfr.Description"), "Durations and counts of the circle finding of a slice"));
+			List<Object> timespan = new ArrayList<>();
+			timespan.add(newAnnotation.newInstance(annotation("jdk.jfr.Timespan"), "NANOSECONDS"));
+
+			// Fields are set by index, in this order
+			List<Object> fields = new ArrayList<>();
+			fields.add(newField.newInstance(int.class, "slice", new ArrayList<>()));
+			fields.add(newField.newInstance(int.class, "label", new ArrayList<>()));
+			fields.add(newField.newInstance(long.class, "total", timespan));
+			for (SliceMetrics.Phase phase : SliceMetrics.Phase.values()) {
+				fields.add(newField.newInstance(long.class, getFieldName(phase), timespan));
+			}
+			fields.add(newField.newInstance(long.class, "iterations", new ArrayList<>()));
+			fields.add(newField.newInstance(long.class, "candidates", new ArrayList<>()));
+			fields.add(newField.newInstance(long.class, "circles", new ArrayList<>()));
+
+			Object factory = eventFactory.getMethod("create", List.class, List.class).invoke(null, eventAnnotations, fields);
+			return new JfrMetrics(factory, eventFactory.getMethod("newEvent"), event.getMethod("set", int.class, Object.class),
+					event.getMethod("shouldCommit"), event.getMethod("commit"));
+		} catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+			// No Java Flight Recorder in this JVM
+			return null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<? extends Annotation> annotation(String name) throws ClassNotFoundException {
+		return (Class<? extends Annotation>) Class.forName(name);
+	}
+
+	private static String getFieldName(SliceMetrics.Phase phase) {
+		StringBuilder sb = new StringBuilder();
+		for (String word : phase.name().toLowerCase().split("_")) {
+			sb.append(sb.length() == 0 ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+		}
+		return sb.append("Time").toString();
+	}
+
+	@Override
+	public void sliceProcessed(SliceMetrics metrics) {
+		try {
+			Object event = newEvent.invoke(factory);
+			if (!(Boolean) shouldCommit.invoke(event)) return;
+			int k = 0;
+			set.invoke(event, k++, metrics.getSlice());
+			set.invoke(event, k++, metrics.getLabel());
+			set.invoke(event, k++, metrics.getTotalNanos());
+			for (SliceMetrics.Phase phase : SliceMetrics.Phase.values()) {
+				set.invoke(event, k++, metrics.getNanos(phase));
+			}
+			set.invoke(event, k++, metrics.getIterations());
+			set.invoke(event, k++, metrics.getCandidates());
+			set.invoke(event, k, metrics.getCircles());
+			commit.invoke(event);
+		} catch (ReflectiveOperationException e) {
+			// Metrics must never make the circle finding fail
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+
+/**
+ * A mask that is read one area at a time, so that masks too large to be held in a single image can be processed
+ * in tiles, see {@link MaxInscribedCircles#builder(MaskSource)}. Non-zero pixels are foreground.
+ * Areas are read from one thread at a time.
+ */
+public interface MaskSource {
+
+	/**
+	 * @return the width of the mask, in pixels
+	 */
+	int getWidth();
+
+	/**
+	 * @return the height of the mask, in pixels
+	 */
+	int getHeight();
+
+	/**
+	 * Read an area of the mask. When the mask is upsampled 2x, the area is resized with the interpolation method
+	 * of the image returned, like {@link ImageProcessor#resize(int)} does for a whole mask
+	 * @param area the area to read, within the mask
+	 * @return the pixels of the area, in an image of its size
+	 */
+	ImageProcessor read(Rectangle area);
+
+	/**
+	 * @param ip the mask
+	 * @return a source reading the areas of an image, with its interpolation method
+	 */
+	static MaskSource of(ImageProcessor ip) {
+		return new MaskSource() {
+			@Override
+			public int getWidth() {
+				return ip.getWidth();
+			}
+
+			@Override
+			public int getHeight() {
+				return ip.getHeight();
+			}
+
+			@Override
+			public ImageProcessor read(Rectangle area) {
+				ImageProcessor copy = ip.createProcessor(area.width, area.height);
+				for (int y = 0; y < area.height; y++) {
+					for (int x = 0; x < area.width; x++) {
+						copy.set(x, y, ip.get(area.x + x, area.y + y));
+					}
+				}
+				copy.setInterpolationMethod(ip.getInterpolationMethod());
+				return copy;
+			}
+		};
+	}
+}
@@ -26,33 +26,110 @@
 
 package ch.epfl.biop;
 
-import fiji.process3d.EDT;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.gui.OvalRoi;
-import ij.gui.Overlay;
 import ij.gui.Roi;
 import ij.plugin.filter.MaximumFinder;
 import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
 import java.awt.Polygon;
-import java.awt.geom.Point2D.Double;
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class MaxInscribedCircles {
 
+	/**
+	 * How the next largest circle is found in the distance map
+	 */
+	public enum Engine {
+		/**
+		 * Search all maxima of the distance map after each circle, with the MaximumFinder
+		 */
+		MAXIMUM_FINDER,
+		/**
+		 * Keep candidate centers in a priority queue, only updated around each new circle
+		 */
+		PRIORITY_QUEUE,
+		/**
+		 * Compute the circles of an area selection from its edges, without a distance map.
+		 * Masks are processed like with {@link #PRIORITY_QUEUE}
+		 */
+		POLYGON
+	}
+
+	// Shift native resolution results to the pixel conventions of the 2x upsampled distance map
+	static final double NATIVE_CENTER_OFFSET = 0.5D;
+	static final double NATIVE_RADIUS_OFFSET = -0.5D;
+
+	// The directions in which the maxima finder visits the neighbours of a pixel
+	private static final int[] DIR_X_OFFSET = {0, 1, 1, 1, 0, -1, -1, -1};
+	private static final int[] DIR_Y_OFFSET = {-1, -1, 0, 1, 1, 1, 0, -1};
+
+	// Background margin around each object of a label image
+	private static final int LABEL_MARGIN = 1;
+
+	/**
+	 * Name of the {@link Roi} property holding the label of the object a result belongs to, in label image mode
+	 */
+	public static final String LABEL_PROPERTY = "Label";
+
+	// Background margin around each selection of a set
+	private static final int SELECTION_MARGIN = 1;
+
+	/**
+	 * Name of the {@link Roi} property holding the index of the selection a result belongs to, when processing a set of selections
+	 */
+	public static final String SELECTION_PROPERTY = "Selection";
+
 	private ImagePlus imp;
+	// Mask read one tile at a time instead of imp, if any
+	private MaskSource maskSource;
 	private double minimumDiameter;
 	private double spineClosenessTolerance;
 	private double spineMinimumSimilarity;
+	private boolean spineLineInCircles;
 	private boolean getSpine;
 	private boolean useSelectionOnly;
 	private boolean appendPositionToName;
+	private DistanceTransform distanceTransform = new SeparableDistanceTransform();
+	private boolean nativeResolution;
+	private int parallelism = 1;
+	private ExecutorService executor;
+	private boolean isLabelImage;
+	private Engine engine = Engine.MAXIMUM_FINDER;
+	private int tileSize;
+	private int tileHalo;
+	// Executor for the tiles of the slice being processed, if any
+	private ExecutorService tileExecutor;
+	private ResultListener streamListener;
+	private int streamPrefetch;
+	private WarmStart warmStart;
+	private MetricsListener metricsListener;
+	private int maxCircles;
+	private double minRadiusRatio;
+	// Time limit of each slice, object or selection, in nanoseconds
+	private long timeLimit;
+	private ResultCache cache;
+
+	private List<Roi> selections;
 
+	private CircleTable circleTable;
+	// ROIs of the circles, only made when asked for
 	private List<Roi> circles;
 	private List<Roi> spines;
 	private List<Roi> spineParts;
+	private List<Result> selectionResults;
 	MaxInscribedCircles() {
 	}
 
@@ -62,7 +139,18 @@ public class MaxInscribedCircles {
 	 * @return the builder
 	 */
 	public static Builder builder(ImagePlus imp) {
-		return new Builder(imp);
+		return new Builder(imp, null);
+	}
+
+	/**
+	 * Find the circles of a mask too large to be held in a single image, reading it one tile at a time.
+	 * The mask is processed like the first slice of an image, in the tiles set with {@link Builder#tiles(int, int)},
+	 * which are required. Spines, label images, selections, warm start and the cache need the whole mask and are ignored
+	 * @param mask the mask to process
+	 * @return the builder
+	 */
+	public static Builder builder(MaskSource mask) {
+		return new Builder(null, mask);
 	}
 
 	/**
@@ -70,10 +158,21 @@ public class MaxInscribedCircles {
 	 */
 	public void process() {
 
-		circles = new ArrayList<>();
+		circleTable = new CircleTable(appendPositionToName);
+		circles = null;
 		spines = new ArrayList<>();
 		spineParts = new ArrayList<>();
 
+		if (maskSource != null) {
+			Result result = processSource();
+			if (streamListener != null) {
+				streamListener.sliceProcessed(result);
+			} else {
+				circleTable.addAll(result.circleTable);
+			}
+			return;
+		}
+
 		int nSlices = imp.getStackSize();
 
 		// Process stack only if it's not "selectiononly, otherwise process current slice only
@@ -81,66 +180,556 @@ public class MaxInscribedCircles {
 		int end = useSelectionOnly ? imp.getCurrentSlice() : nSlices;
 		Roi roi = useSelectionOnly ?imp.getRoi() : null;
 
-		for (int i = start; i <= end; i++) {
-			IJ.log("Processing Slice " + i + " of " + nSlices);
-			ImagePlus tmpImp = new ImagePlus(imp.getTitle() + " - Slice " + i, imp.getStack().getProcessor(i));
-			tmpImp.setRoi(roi);
-			List<Roi> circles = MaxInscribedCircles.findCircles(tmpImp, minimumDiameter, useSelectionOnly);
+		if (streamListener != null) {
+			processStream(start, end, nSlices, roi);
+			return;
+		}
 
-			// Add the position of the stack
-			for (Roi r : circles) {
-				r.setPosition(i);
-				if (appendPositionToName) r.setName(r.getName() + "-P_" + i);
+		// Slices are independent, and so are the objects of a label image or the selections of a set. Each one becomes a job
+		// Jobs can run at the same time, results are then gathered in slice and label order, or in selection order.
+		// When tiling, the tiles of a slice run at the same time instead
+		boolean isTiled = isTiled(roi);
+		ExecutorService executor = this.executor;
+		boolean isSeveral = selections != null ? selections.size() > 1 : end > start || isLabelImage;
+		boolean isOwnExecutor = executor == null && parallelism > 1 && (isSeveral || isTiled);
+		if (isOwnExecutor) executor = Executors.newFixedThreadPool(parallelism);
+
+		try {
+			List<Result> results = new ArrayList<>();
+			if (warmStart != null) warmStart.reset();
+			boolean isSequential = executor == null || isTiled || warmStart != null;
+			if (isSequential) tileExecutor = executor;
+
+			// Slices are read one at a time on this thread, as virtual stacks cannot be read from several threads at once,
+			// and only once one of the slices being processed is done, so that no more than parallelism slices are in memory
+			Deque<List<Future<Result>>> running = new ArrayDeque<>();
+			int nJobs = selections != null ? selections.size() : end - start + 1;
+			int maxRunning = selections != null ? nJobs : parallelism;
+			for (int k = 0; k < nJobs; k++) {
+				List<Callable<Result>> jobs = getJobs(selections != null ? k : start + k, nSlices, roi);
+				if (isSequential) {
+					for (Callable<Result> job : jobs) {
+						results.add(job.call());
+					}
+					continue;
+				}
+				List<Future<Result>> futures = new ArrayList<>();
+				for (Callable<Result> job : jobs) {
+					futures.add(executor.submit(job));
+				}
+				running.add(futures);
+				if (running.size() >= maxRunning) addResults(running.poll(), results);
+			}
+			while (!running.isEmpty()) {
+				addResults(running.poll(), results);
 			}
 
-			// Display a message if no circle was found
-			if (circles.size() == 0) {
-				IJ.log("No circles found, consider decreasing 'Minimum Circle Diameter'.");
+			if (selections != null) this.selectionResults = results;
+
+			for (Result result : results) {
+				this.circleTable.addAll(result.circleTable);
+				if (result.spine != null) {
+					this.spineParts.addAll(result.spineParts);
+					this.spines.add(result.spine);
+				}
 			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException("Error while finding circles: " + e.getMessage(), e);
+		} finally {
+			tileExecutor = null;
+			if (isOwnExecutor) executor.shutdown();
+		}
+	}
+
+	/**
+	 * Process the slices in order, reading the next ones in the background, and hand the results to the stream
+	 * consumer as soon as they are ready. Only the slices read ahead and being processed are kept in memory
+	 * @param start the first slice, 1-based
+	 * @param end the last slice, included
+	 * @param nSlices the number of slices, for logging
+	 * @param roi the selection to use, or null
+	 */
+	private void processStream(int start, int end, int nSlices, Roi roi) {
+		ImageStack stack = imp.getStack();
+		boolean isTiled = isTiled(roi);
+		ExecutorService executor = this.executor;
+		boolean isOwnExecutor = executor == null && parallelism > 1;
+		if (isOwnExecutor) executor = Executors.newFixedThreadPool(parallelism);
+		// Slices are read by a single thread, as virtual stacks read them from disk one at a time
+		ExecutorService reader = Executors.newSingleThreadExecutor();
 
-			this.circles.addAll(circles);
+		// When tiling, the tiles of a slice run at the same time instead of the slices
+		int maxRunning = executor == null || isTiled || warmStart != null ? 1 : parallelism;
+		Deque<Future<ImageProcessor>> reads = new ArrayDeque<>();
+		Deque<Future<List<Result>>> running = new ArrayDeque<>();
 
-			// Display a message if no circle was found
-			if (getSpine && circles.size() == 1) {
-				IJ.log("A single circle was found. Spine cannot be computed, consider decreasing 'Minimum Circle Diameter'.");
+		try {
+			if (warmStart != null) warmStart.reset();
+			tileExecutor = isTiled ? executor : null;
+			int next = start;
+			for (int i = start; i <= end; i++) {
+				while (next <= end && next <= i + streamPrefetch) {
+					final int slice = next++;
+					reads.add(reader.submit(() -> stack.getProcessor(slice)));
+				}
+				final int slice = i;
+				final ImageProcessor ip = getResult(reads.poll());
+				Callable<List<Result>> job = () -> processSliceResults(slice, nSlices, roi, ip);
+				if (maxRunning == 1) {
+					deliver(job.call());
+				} else {
+					running.add(executor.submit(job));
+					if (running.size() >= maxRunning) deliver(getResult(running.poll()));
+				}
 			}
+			while (!running.isEmpty()) {
+				deliver(getResult(running.poll()));
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException("Error while finding circles: " + e.getMessage(), e);
+		} finally {
+			tileExecutor = null;
+			reader.shutdownNow();
+			if (isOwnExecutor) executor.shutdown();
+		}
+	}
 
-			// Only get spine if checkbox is ticked and there is at least 2 circles
-			if (getSpine && circles.size() > 1) {
-				// Define the parameters
-				CirclesBasedSpine sbs = (new CirclesBasedSpine.Settings(tmpImp)).circles(circles).closenessTolerance(spineClosenessTolerance).minSimilarity(spineMinimumSimilarity).showCircles(false).build();
-				// Get the spine
-				Roi spine = sbs.getSpine();
+	/**
+	 * Make the jobs finding the circles of a selection of the set, or of a slice, which is read here:
+	 * one job per object of a slice of a label image
+	 * @param i the index of the selection, or the slice, 1-based
+	 * @param nSlices the number of slices, for logging
+	 * @param roi the selection to use, or null
+	 */
+	private List<Callable<Result>> getJobs(int i, int nSlices, Roi roi) {
+		if (selections != null) return Collections.singletonList(() -> processSelection(i, selections.get(i)));
 
-				// If one is found rename and add it to the Roi Manager
-				if (spine != null) {
-					spine.setPosition(i);
-					if (appendPositionToName) spine.setName(spine.getName() + "-P_" + i);
+		ImageProcessor ip = imp.getStack().getProcessor(i);
+		if (!isLabelImage) return Collections.singletonList(() -> processSlice(i, nSlices, roi, ip));
 
-					// Get the overlay and add it back as well
-					Overlay ov = tmpImp.getOverlay();
-					for (Roi r : ov) {
-						if (appendPositionToName) r.setName(r.getName() + "-P_" + i);
-						r.setPosition(i);
-						this.spineParts.add(r);
+		IJ.log("Processing Slice " + i + " of " + nSlices);
+		List<Callable<Result>> jobs = new ArrayList<>();
+		for (Map.Entry<Integer, Rectangle> object : getLabelBounds(ip).entrySet()) {
+			jobs.add(() -> processLabel(i, ip, object.getKey(), object.getValue()));
+		}
+		return jobs;
+	}
+
+	private static void addResults(List<Future<Result>> futures, List<Result> results) {
+		for (Future<Result> future : futures) {
+			results.add(getResult(future));
+		}
+	}
+
+	/**
+	 * Find the circles and spines of a slice, or of each object of a slice of a label image
+	 */
+	private List<Result> processSliceResults(int i, int nSlices, Roi roi, ImageProcessor ip) {
+		if (!isLabelImage) return Collections.singletonList(processSlice(i, nSlices, roi, ip));
+
+		IJ.log("Processing Slice " + i + " of " + nSlices);
+		List<Result> results = new ArrayList<>();
+		for (Map.Entry<Integer, Rectangle> object : getLabelBounds(ip).entrySet()) {
+			results.add(processLabel(i, ip, object.getKey(), object.getValue()));
+		}
+		return results;
+	}
+
+	private void deliver(List<Result> results) {
+		for (Result result : results) {
+			streamListener.sliceProcessed(result);
+		}
+	}
+
+	/**
+	 * @return whether the slices are processed in tiles, which is only the case for the whole mask
+	 */
+	private boolean isTiled(Roi roi) {
+		return tileSize > 0 && selections == null && !isLabelImage && (roi == null || !roi.isArea());
+	}
+
+	private static <T> T getResult(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while finding circles", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Error while finding circles: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Find the circles of the mask source, in tiles, as the first slice
+	 * @return the circles, positioned and named
+	 */
+	private Result processSource() {
+		IJ.log("Processing a mask of " + maskSource.getWidth() + " x " + maskSource.getHeight() + " pixels in tiles");
+		long start = System.nanoTime();
+		SliceMetrics metrics = new SliceMetrics(1, 0);
+		Consumer<Roi> onFound = streamListener == null ? null : r -> {
+			place(r, 1, 0, 0, 0);
+			streamListener.circleFound(r);
+		};
+
+		ExecutorService executor = this.executor;
+		boolean isOwnExecutor = executor == null && parallelism > 1;
+		if (isOwnExecutor) executor = Executors.newFixedThreadPool(parallelism);
+		Result result = new Result();
+		try {
+			tileExecutor = executor;
+			result.circleTable = findTiledTable(maskSource, metrics, onFound, start);
+		} finally {
+			tileExecutor = null;
+			if (isOwnExecutor) executor.shutdown();
+		}
+		if (result.circleTable.size() == 0) {
+			IJ.log("No circles found, consider decreasing 'Minimum Circle Diameter'.");
+		}
+
+		result.slice = 1;
+		result.circleTable.place(0, 1, 0, 0, 0);
+		metrics.setTotalNanos(System.nanoTime() - start);
+		if (metricsListener != null) metricsListener.sliceProcessed(metrics);
+		if (JfrMetrics.LISTENER != null) JfrMetrics.LISTENER.sliceProcessed(metrics);
+		return result;
+	}
+
+	/**
+	 * Find the circles and spine of a single slice of the image
+	 * @param i the slice, 1-based
+	 * @param nSlices the number of slices, for logging
+	 * @param roi the selection to use, or null
+	 * @param ip the slice
+	 * @return the circles, spine and spine parts of this slice, positioned and named
+	 */
+	private Result processSlice(int i, int nSlices, Roi roi, ImageProcessor ip) {
+		IJ.log("Processing Slice " + i + " of " + nSlices);
+		ImagePlus tmpImp = new ImagePlus(imp.getTitle() + " - Slice " + i, ip);
+		tmpImp.setRoi(roi);
+		return processImage(tmpImp, i, 0, 0, 0);
+	}
+
+	/**
+	 * Find the circles and spine of one selection of a set, working on a mask of its bounding box only
+	 * @param index the index of the selection in the set
+	 * @param selection the selection
+	 * @return the circles, spine and spine parts of this selection, positioned and named
+	 */
+	private Result processSelection(int index, Roi selection) {
+		int i = selection.getPosition() > 0 ? selection.getPosition() : imp.getCurrentSlice();
+		if (!selection.isArea()) {
+			IJ.log("Selection " + index + " is not an area, skipping it");
+			return new Result();
+		}
+
+		// Rasterize the selection with a margin of background, for the spine
+		Rectangle bounds = selection.getBounds();
+		ByteProcessor mask = new ByteProcessor(bounds.width + 2 * SELECTION_MARGIN, bounds.height + 2 * SELECTION_MARGIN);
+		Roi shifted = (Roi) selection.clone();
+		shifted.setLocation(selection.getXBase() - bounds.x + SELECTION_MARGIN, selection.getYBase() - bounds.y + SELECTION_MARGIN);
+		mask.setValue(255);
+		mask.fill(shifted);
+
+		// Circles are found in the selection of the mask, which is resized then padded exactly like when using
+		// the selection of the image. The polygon engine finds them from its edges
+		ImagePlus tmpImp = new ImagePlus(imp.getTitle() + " - Selection " + index, mask);
+		tmpImp.setRoi(shifted);
+		Result result = processImage(tmpImp, i, 0, bounds.x - SELECTION_MARGIN, bounds.y - SELECTION_MARGIN);
+		result.circleTable.setSelection(index);
+		for (Roi r : result.getSpineRois()) {
+			r.setProperty(SELECTION_PROPERTY, String.valueOf(index));
+		}
+		return result;
+	}
+
+	/**
+	 * Find the circles and spine of a single object of a label image, working on its bounding box only
+	 * @param i the slice, 1-based
+	 * @param labels the label image of the slice
+	 * @param label the label of the object
+	 * @param bounds the bounding box of the object, including a background margin
+	 * @return the circles, spine and spine parts of this object, positioned and named
+	 */
+	private Result processLabel(int i, ImageProcessor labels, int label, Rectangle bounds) {
+		ByteProcessor mask = new ByteProcessor(bounds.width, bounds.height);
+		for (int y = 0; y < bounds.height; y++) {
+			for (int x = 0; x < bounds.width; x++) {
+				if ((int) labels.getf(bounds.x + x, bounds.y + y) == label) mask.set(x, y, 255);
+			}
+		}
+		ImagePlus tmpImp = new ImagePlus(imp.getTitle() + " - Slice " + i + " - Label " + label, mask);
+		return processImage(tmpImp, i, label, bounds.x, bounds.y);
+	}
+
+	/**
+	 * Get the bounding box of each object of a label image, grown by {@link #LABEL_MARGIN} pixels within the image.
+	 * The margin only contains other labels or background, so the distance map of an object is the same on its
+	 * bounding box as on the whole image
+	 * @param labels the label image, 0 is background
+	 * @return the bounding box of each label, sorted by label
+	 */
+	static SortedMap<Integer, Rectangle> getLabelBounds(ImageProcessor labels) {
+		// Smallest and largest x and y of each label. Neighbouring pixels mostly share their label,
+		// so the extent of the last label is kept at hand and the map is only looked up when the label changes
+		Map<Integer, int[]> extents = new HashMap<>();
+		int width = labels.getWidth();
+		int height = labels.getHeight();
+		int lastLabel = 0;
+		int[] last = null;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int label = (int) labels.getf(x, y);
+				if (label == 0) continue;
+				if (label != lastLabel) {
+					lastLabel = label;
+					last = extents.get(label);
+					if (last == null) {
+						last = new int[]{x, y, x, y};
+						extents.put(label, last);
 					}
+				}
+				if (x < last[0]) last[0] = x;
+				if (x > last[2]) last[2] = x;
+				last[3] = y;
+			}
+		}
+		SortedMap<Integer, Rectangle> bounds = new TreeMap<>();
+		Rectangle image = new Rectangle(0, 0, width, height);
+		for (Map.Entry<Integer, int[]> e : extents.entrySet()) {
+			int[] ex = e.getValue();
+			Rectangle r = new Rectangle(ex[0], ex[1], ex[2] - ex[0] + 1, ex[3] - ex[1] + 1);
+			r.grow(LABEL_MARGIN, LABEL_MARGIN);
+			bounds.put(e.getKey(), r.intersection(image));
+		}
+		return bounds;
+	}
 
-					this.spines.add(spine);
+	/**
+	 * Find the circles and spine of a mask, then move them to their place in the full image and name them
+	 * @param tmpImp the mask, with the selection to use if any
+	 * @param i the slice the mask comes from, 1-based
+	 * @param label the label of the object, or 0 if this is not a label image
+	 * @param offsetX the x position of the mask in the full image
+	 * @param offsetY the y position of the mask in the full image
+	 * @return the circles, spine and spine parts, positioned and named
+	 */
+	private Result processImage(ImagePlus tmpImp, int i, int label, int offsetX, int offsetY) {
+		long start = System.nanoTime();
+		SliceMetrics metrics = new SliceMetrics(i, label);
+		// Streamed circles get their final name and place as soon as they are found
+		Consumer<Roi> onFound = streamListener == null ? null : r -> {
+			place(r, i, label, offsetX, offsetY);
+			streamListener.circleFound(r);
+		};
 
-				} else {
-					IJ.log("No spine found");
+		// Objects of a label image or of a set of selections are too many to log messages for each of them
+		boolean isLogged = label == 0 && selections == null;
+
+		// Results are cached in the coordinates of the mask, so that identical masks share them wherever they are
+		Result result = null;
+		String key = null;
+		if (cache != null) {
+			key = cache.getKey(tmpImp, getCacheSettings());
+			result = cache.get(key, appendPositionToName);
+			metrics.lap(SliceMetrics.Phase.CACHE, start);
+		}
+		if (result != null) {
+			metrics.addCircles(result.circleTable.size());
+			if (onFound != null) {
+				for (int k = 0; k < result.circleTable.size(); k++) {
+					onFound.accept(result.circleTable.getRoi(k));
+				}
+			}
+		} else {
+			result = findResult(tmpImp, metrics, onFound, isLogged);
+			if (key != null) {
+				long t = System.nanoTime();
+				cache.put(key, result);
+				metrics.lap(SliceMetrics.Phase.CACHE, t);
+			}
+		}
+		CircleTable circles = result.circleTable;
+
+		// Display a message if no circle was found
+		if (circles.size() == 0 && isLogged) {
+			IJ.log("No circles found, consider decreasing 'Minimum Circle Diameter'.");
+		}
+
+		// Display a message if no circle was found
+		if (getSpine && circles.size() == 1 && isLogged) {
+			IJ.log("A single circle was found. Spine cannot be computed, consider decreasing 'Minimum Circle Diameter'.");
+		}
+
+		result.slice = i;
+		circles.place(0, i, label, offsetX, offsetY);
+		if (result.spine != null) place(result.spine, i, label, offsetX, offsetY);
+		for (Roi r : result.spineParts) {
+			place(r, i, label, offsetX, offsetY);
+		}
+
+		metrics.setTotalNanos(System.nanoTime() - start);
+		if (metricsListener != null) metricsListener.sliceProcessed(metrics);
+		if (JfrMetrics.LISTENER != null) JfrMetrics.LISTENER.sliceProcessed(metrics);
+		return result;
+	}
+
+	/**
+	 * Find the circles and spine of a mask
+	 * @param tmpImp the mask, with the selection to use if any
+	 * @param metrics the metrics to add the durations and counts to
+	 * @param onFound called with the ROI of each circle as soon as it is found, or null to not make them
+	 * @param isLogged whether to log when there is no spine
+	 * @return the circles, spine and spine parts, in the coordinates of the mask
+	 */
+	private Result findResult(ImagePlus tmpImp, SliceMetrics metrics, Consumer<Roi> onFound, boolean isLogged) {
+		CircleTable circles;
+		if (warmStart != null) {
+			circles = new CircleTable(appendPositionToName);
+			for (Roi r : warmStart.findCircles(this, tmpImp, metrics)) {
+				circles.add(r);
+				if (onFound != null) onFound.accept(r);
+			}
+		} else {
+			circles = findSliceTable(tmpImp, null, metrics, onFound);
+		}
+		Result result = new Result();
+		result.circleTable = circles;
+
+		// Only get spine if checkbox is ticked and there is at least 2 circles
+		if (getSpine && circles.size() > 1) {
+			long spineStart = System.nanoTime();
+			// The spine works in the coordinates of the mask, like the circles before they are placed
+			// Define the parameters
+			CirclesBasedSpine sbs = (new CirclesBasedSpine.Settings(tmpImp)).circles(circles).closenessTolerance(spineClosenessTolerance).minSimilarity(spineMinimumSimilarity).lineInCircles(spineLineInCircles).showCircles(false).build();
+			// Get the spine
+			Roi spine = sbs.getSpine();
+
+			// If one is found keep it and its colored segments
+			if (spine != null) {
+				result.spine = spine;
+				for (Roi r : tmpImp.getOverlay()) {
+					result.spineParts.add(r);
 				}
+			} else if (isLogged) {
+				IJ.log("No spine found");
 			}
+			metrics.lap(SliceMetrics.Phase.SPINE, spineStart);
+		}
+		return result;
+	}
+
+	/**
+	 * @return all the settings the results of a mask depend on, for the cache
+	 */
+	private String getCacheSettings() {
+		return String.format(Locale.ROOT, "minimumDiameter=%s,useSelectionOnly=%b,getSpine=%b,spineClosenessTolerance=%s,spineMinimumSimilarity=%s,"
+						+ "spineLineInCircles=%b,nativeResolution=%b,distanceTransform=%s,engine=%s,tiles=%d/%d,labelImage=%b,selections=%b,"
+						+ "maximumCircles=%d,minimumRadiusRatio=%s",
+				minimumDiameter, useSelectionOnly, getSpine, spineClosenessTolerance, spineMinimumSimilarity,
+				spineLineInCircles, nativeResolution, distanceTransform.getClass().getName(), engine, tileSize, tileHalo, isLabelImage, selections != null,
+				maxCircles, minRadiusRatio);
+	}
+
+	/**
+	 * Name a result with its label and position, position it on its slice, move it to its place in the full image and tag it with its label
+	 */
+	private void place(Roi r, int i, int label, int offsetX, int offsetY) {
+		r.setPosition(i);
+		if (label > 0) r.setName(r.getName() + "-L_" + label);
+		if (appendPositionToName) r.setName(r.getName() + "-P_" + i);
+		if (offsetX != 0 || offsetY != 0) r.setLocation(r.getXBase() + offsetX, r.getYBase() + offsetY);
+		if (label > 0) r.setProperty(LABEL_PROPERTY, String.valueOf(label));
+	}
+
+	/**
+	 * Circles, spine and spine parts found in one slice, in one object of a label image or in one selection of a set
+	 */
+	public static class Result {
+		private int slice;
+		private CircleTable circleTable = new CircleTable();
+		private List<Roi> circles;
+		private Roi spine = null;
+		private final List<Roi> spineParts = new ArrayList<>();
+
+		Result() {
+		}
+
+		/**
+		 * @param circleTable the circles
+		 * @param spine the spine, or null if there is none
+		 * @param spineParts the colored segments of the spine
+		 */
+		Result(CircleTable circleTable, Roi spine, List<Roi> spineParts) {
+			this.circleTable = circleTable;
+			this.spine = spine;
+			this.spineParts.addAll(spineParts);
+		}
+
+		/**
+		 * @return the slice the results belong to, 1-based
+		 */
+		public int getSlice() {
+			return slice;
+		}
+
+		/**
+		 * @return the circles found, largest first, made from the table the first time
+		 */
+		public List<Roi> getCircles() {
+			if (circles == null) circles = circleTable.getRois();
+			return circles;
+		}
+
+		/**
+		 * @return the circles found, largest first, as a table
+		 */
+		public CircleTable getCircleTable() {
+			return circleTable;
+		}
+
+		/**
+		 * @return the spine found, or null if there is none
+		 */
+		public Roi getSpine() {
+			return spine;
+		}
+
+		/**
+		 * @return the colored segments of the spine, empty if there is no spine
+		 */
+		public List<Roi> getSpineParts() {
+			return spineParts;
+		}
+
+		private List<Roi> getSpineRois() {
+			List<Roi> all = new ArrayList<>(spineParts);
+			if (spine != null) all.add(spine);
+			return all;
 		}
 	}
 
 	/**
 	 * Get the circles found after process()
+	 * The ROIs are made from the table the first time, which can take long for millions of circles
 	 * @return a list of circles that were found
 	 */
 	public List<Roi> getCircles() {
+		if (circles == null && circleTable != null) circles = circleTable.getRois();
 		return circles;
 	}
+
+	/**
+	 * Get the circles found after process(), without making their ROIs
+	 * @return the centers, radii, slices and labels of the circles that were found
+	 */
+	public CircleTable getCircleTable() {
+		return circleTable;
+	}
 	/**
 	 * Get the spines found after process()
 	 * @return the spine or spines found if it's a stack
@@ -148,6 +737,14 @@ public class MaxInscribedCircles {
 	public List<Roi> getSpines() {
 		return spines;
 	}
+	/**
+	 * Get the results of each selection after process(), when a set of selections was given to the builder
+	 * @return one result per selection, in the order of the selections, or null if no selections were given
+	 */
+	public List<Result> getSelectionResults() {
+		return selectionResults;
+	}
+
 	/**
 	 * Get the spine parts found after process()
 	 * This is purely for aesthetic reasons
@@ -157,10 +754,77 @@ public class MaxInscribedCircles {
 		return spineParts;
 	}
 
+	/**
+	 * Find the largest inscribed circles of the current slice or selection, using the default distance transform
+	 * @param imp the image containing the mask or selection
+	 * @param minD the minimum diameter of the circles, 0 to only get the largest circle
+	 * @param isSelectionOnly whether to use the selection of imp instead of its mask
+	 * @return the circles, largest first
+	 */
 	public static List<Roi> findCircles(ImagePlus imp, double minD, boolean isSelectionOnly) {
+		return findCircles(imp, minD, isSelectionOnly, new SeparableDistanceTransform());
+	}
+
+	/**
+	 * Find the largest inscribed circles of the current slice or selection
+	 * @param imp the image containing the mask or selection
+	 * @param minD the minimum diameter of the circles, 0 to only get the largest circle
+	 * @param isSelectionOnly whether to use the selection of imp instead of its mask
+	 * @param distanceTransform the distance transform to compute the distance map with
+	 * @return the circles, largest first
+	 */
+	public static List<Roi> findCircles(ImagePlus imp, double minD, boolean isSelectionOnly, DistanceTransform distanceTransform) {
+		MaxInscribedCircles mic = new MaxInscribedCircles();
+		mic.minimumDiameter = minD;
+		mic.useSelectionOnly = isSelectionOnly;
+		mic.distanceTransform = distanceTransform;
+		return mic.findSliceCircles(imp);
+	}
+
+	/**
+	 * Find the largest inscribed circles of the current slice or selection of imp, with the settings of this instance
+	 * @param imp the image containing the mask or selection
+	 * @return the circles, largest first
+	 */
+	List<Roi> findSliceCircles(ImagePlus imp) {
+		return findSliceCircles(imp, null, new SliceMetrics(imp.getCurrentSlice(), 0), null);
+	}
+
+	/**
+	 * Find the largest inscribed circles of the current slice or selection of imp, around circles that are already placed
+	 * @param imp the image containing the mask or selection
+	 * @param filled circles to fill before searching, in the coordinates of imp, or null
+	 * @param metrics the metrics to add the durations and counts to
+	 * @param onFound called with each circle as soon as it is found, or null
+	 * @return the circles, largest first, without the filled ones
+	 */
+	List<Roi> findSliceCircles(ImagePlus imp, List<Roi> filled, SliceMetrics metrics, Consumer<Roi> onFound) {
+		return findSliceTable(imp, filled, metrics, onFound).getRois();
+	}
+
+	/**
+	 * Find the largest inscribed circles of the current slice or selection of imp, around circles that are already placed
+	 * @param imp the image containing the mask or selection
+	 * @param filled circles to fill before searching, in the coordinates of imp, or null
+	 * @param metrics the metrics to add the durations and counts to
+	 * @param onFound called with the ROI of each circle as soon as it is found, or null to not make them
+	 * @return the circles, largest first, without the filled ones, in the coordinates of imp
+	 */
+	private CircleTable findSliceTable(ImagePlus imp, List<Roi> filled, SliceMetrics metrics, Consumer<Roi> onFound) {
 		IJ.showStatus("Finding Largest Inscribed Circles based on Distance Map...");
-		List<Roi> allrois = new ArrayList<>();
+		long start = System.nanoTime();
+		long t = start;
+		CircleTable found = new CircleTable(appendPositionToName);
 		Roi sel = imp.getRoi();
+		double minD = minimumDiameter;
+
+		// Selections have no mask to rasterize with the polygon engine, their edges are used directly
+		if (engine == Engine.POLYGON && sel != null && sel.isArea() && (useSelectionOnly || selections != null)) {
+			return findPolygonCircles(sel, metrics, onFound, start);
+		}
+
+		// The distance map is computed on a 2x upsampled mask, unless working at native resolution
+		int scale = nativeResolution ? 1 : 2;
 
 		ImageProcessor ip;
 		int offsetX;
@@ -169,111 +833,411 @@ public class MaxInscribedCircles {
 			offsetX = sel.getBounds().x;
 			offsetY = sel.getBounds().y;
 			ImageProcessor iptmp;
-			if (isSelectionOnly) {
-				iptmp = sel.getMask().resize(sel.getPolygon().getBounds().width * 2);
+			if (useSelectionOnly) {
+				iptmp = nativeResolution ? sel.getMask() : sel.getMask().resize(sel.getPolygon().getBounds().width * 2);
 			} else {
-				iptmp = imp.getProcessor().resize(sel.getPolygon().getBounds().width * 2);
+				iptmp = nativeResolution ? imp.getProcessor().crop() : imp.getProcessor().resize(sel.getPolygon().getBounds().width * 2);
 				sel.setLocation(offsetX, offsetY);
 			}
 
-			ip = new ByteProcessor(iptmp.getWidth() + 4, iptmp.getHeight() + 4);
-			ip.copyBits(iptmp, 2, 2, 3);
+			// Pad by one pixel of background so that the selection border is background too
+			ip = new ByteProcessor(iptmp.getWidth() + 2 * scale, iptmp.getHeight() + 2 * scale);
+			ip.copyBits(iptmp, scale, scale, 3);
 			--offsetX;
 			--offsetY;
+		} else if (tileSize > 0 && selections == null && !isLabelImage) {
+			// Large masks are processed in tiles, never holding their whole distance map
+			return findTiledTable(MaskSource.of(imp.getProcessor()), metrics, onFound, t);
 		} else {
-			ip = imp.getProcessor().resize(imp.getWidth() * 2);
+			ip = nativeResolution ? imp.getProcessor().duplicate() : imp.getProcessor().resize(imp.getWidth() * 2);
 			offsetX = 0;
 			offsetY = 0;
 		}
 
-		ImageStack tmpstk = new ImageStack(ip.getWidth(), ip.getHeight());
-		tmpstk.addSlice(ip);
-		EDT edt = new EDT();
-		boolean done = false;
-
-		while (!done) {
-			MaximumFinder mf = new MaximumFinder();
-			ImageProcessor dist_map_ip = edt.compute(tmpstk).getProcessor();
-			Polygon points = mf.getMaxima(dist_map_ip, 1.0D, false);
-			ArrayList<Double> hits = getSortedPoints(points, minD, dist_map_ip);
-			done = true;
-
-			for (int k = 0; k < hits.size(); ++k) {
-				boolean is_draw = true;
-				Double p = hits.get(k);
-				double r = dist_map_ip.getInterpolatedValue(p.x, p.y);
-				ArrayList<Double> neigh = findNeighbors(p, hits, dist_map_ip);
-				if (neigh.size() > 1) {
-					for (Double pp : neigh) {
-						double r2 = dist_map_ip.getInterpolatedValue(pp.x, pp.y);
-						if (r < r2) {
-							is_draw = false;
-							break;
-						}
-					}
-				}
+		if (filled != null) {
+			for (Roi r : filled) {
+				Rectangle2D.Double b = r.getFloatBounds();
+				Roi circ = new OvalRoi((b.x - offsetX) * scale, (b.y - offsetY) * scale, b.width * scale, b.height * scale);
+				IncrementalDistanceMap.fill(ip, circ.getBounds(), circ.getMask());
+			}
+		}
+		t = metrics.lap(SliceMetrics.Phase.RESIZE, t);
 
-				if (is_draw) {
-					double posx = p.x - r;
-					double posy = p.y - r;
-					Roi circ = new OvalRoi(posx, posy, r * 2.0D, r * 2.0D);
-					ip.fill(circ);
-					posx = (p.x - r) / 2.0D;
-					posy = (p.y - r) / 2.0D;
-					circ = new OvalRoi(posx, posy, r, r);
-					circ.setName(String.format("Circle-r_%.3f", r));
-					circ.setStrokeWidth(1.0F);
-					circ.setLocation(posx + (double) offsetX, posy + (double) offsetY);
-					allrois.add(circ);
-					done = false;
-				}
+		if (!hasBackground(ip)) {
+			// Outside of the image is not background, so nothing would bound the circles
+			IJ.log("The mask has no background, no circles can be inscribed in it");
+			IJ.showStatus("Done...");
+			return found;
+		}
 
-				if (minD == 0.0D) {
-					return allrois;
-				}
+		if (minD == 0.0D && engine == Engine.MAXIMUM_FINDER && distanceTransform instanceof SeparableDistanceTransform) {
+			// Only the largest circle is needed, it is found while computing the distance map
+			double[] max = findLargestMaximum(ip, nativeResolution);
+			metrics.lap(SliceMetrics.Phase.DISTANCE_MAP, t);
+			metrics.addIteration(0);
+			if (max != null) {
+				double r = nativeResolution ? max[2] + NATIVE_RADIUS_OFFSET : max[2];
+				double c = nativeResolution ? NATIVE_CENTER_OFFSET : 0.0D;
+				addCircle(found, max[0] + c, max[1] + c, r, scale, offsetX, offsetY, onFound);
+				metrics.addCircles(1);
 			}
+			IJ.showStatus("Done...");
+			return found;
 		}
 
+		// The distance map is computed once, then only updated around the circles that get filled
+		IncrementalDistanceMap distanceMap = new IncrementalDistanceMap(ip, distanceTransform);
+		t = metrics.lap(SliceMetrics.Phase.DISTANCE_MAP, t);
+		ImageProcessor dist_map_ip = distanceMap.getProcessor();
+		MaximumFinder mf = new MaximumFinder();
+		CircleCandidates candidates = new CircleCandidates();
+		PriorityQueuePacking queue = engine != Engine.MAXIMUM_FINDER ? new PriorityQueuePacking(distanceMap, minD * scale / 2.0D) : null;
+		t = metrics.lap(SliceMetrics.Phase.MAXIMA, t);
+		double largestRadius = 0;
+
+		while (true) {
+			double cx;
+			double cy;
+			double r;
+			if (queue != null) {
+				int pixel = queue.next();
+				t = metrics.lap(SliceMetrics.Phase.MAXIMA, t);
+				metrics.addIteration(0);
+				if (pixel < 0) break;
+				cx = pixel % ip.getWidth();
+				cy = pixel / ip.getWidth();
+				r = dist_map_ip.getf(pixel);
+			} else {
+				Polygon points = mf.getMaxima(dist_map_ip, 1.0D, false);
+				t = metrics.lap(SliceMetrics.Phase.MAXIMA, t);
+				metrics.addIteration(points.npoints);
+				candidates.collect(points, minD * scale / 2.0D, dist_map_ip);
+
+				// Each pass accepts the largest candidate only, which cannot overlap a larger one
+				int k = candidates.getLargest();
+				t = metrics.lap(SliceMetrics.Phase.CANDIDATES, t);
+				if (k < 0) break;
+
+				cx = candidates.x[k];
+				cy = candidates.y[k];
+				r = candidates.r[k];
+			}
+			if (nativeResolution) {
+				double[] refined = refineMaximum(dist_map_ip, (int) cx, (int) cy);
+				cx = refined[0] + NATIVE_CENTER_OFFSET;
+				cy = refined[1] + NATIVE_CENTER_OFFSET;
+				r = refined[2] + NATIVE_RADIUS_OFFSET;
+			}
+			// Circles are found largest first, so the next ones would all be too small as well
+			if (found.size() > 0 && r < minRadiusRatio * largestRadius) break;
+			if (found.size() == 0) largestRadius = r;
+			double posx = cx - r;
+			double posy = cy - r;
+			Roi circ = new OvalRoi(posx, posy, r * 2.0D, r * 2.0D);
+			if (queue != null) {
+				queue.clear(circ);
+			} else {
+				distanceMap.clear(circ);
+			}
+			addCircle(found, cx, cy, r, scale, offsetX, offsetY, onFound);
+			metrics.addCircles(1);
+			t = metrics.lap(SliceMetrics.Phase.FILL, t);
+
+			// Stop before searching the next circle once a limit is reached
+			if (minD == 0.0D || (maxCircles > 0 && found.size() >= maxCircles)) {
+				break;
+			}
+			if (timeLimit > 0 && System.nanoTime() - start >= timeLimit) {
+				break;
+			}
+		}
+		if (queue != null) metrics.addCandidates(queue.getCandidateCount());
+
 		IJ.showStatus("Done...");
-		return allrois;
+		return found;
 	}
 
-	private static ArrayList<Double> getSortedPoints(Polygon points, double minD, final ImageProcessor ip) {
-		ArrayList<Double> hits = new ArrayList<>(points.npoints);
-		List<Double> tmpList = new ArrayList<>(points.npoints);
+	/**
+	 * Find the largest inscribed circles of a mask in tiles, see {@link TiledCircleFinder}
+	 * @param mask the mask, read one tile at a time
+	 * @param metrics the metrics to add the duration and counts to
+	 * @param onFound called with each circle as soon as it is found, or null
+	 * @param t when the search started
+	 * @return the circles, largest first
+	 */
+	private CircleTable findTiledTable(MaskSource mask, SliceMetrics metrics, Consumer<Roi> onFound, long t) {
+		int scale = nativeResolution ? 1 : 2;
+		double minD = minimumDiameter;
+		CircleTable found = new CircleTable(appendPositionToName);
+		TiledCircleFinder finder = new TiledCircleFinder(mask, tileSize, tileHalo, scale, nativeResolution,
+				minD * scale / 2.0D, distanceTransform, tileExecutor, parallelism);
+		for (double[] c : finder.findCircles(minD == 0.0D ? 1 : maxCircles, minRadiusRatio, timeLimit)) {
+			addCircle(found, c[0], c[1], c[2], scale, 0, 0, onFound);
+		}
+		metrics.lap(SliceMetrics.Phase.TILES, t);
+		metrics.addCircles(found.size());
+		IJ.showStatus("Done...");
+		return found;
+	}
 
-		int ind;
-		for (ind = 0; ind < points.npoints; ++ind) {
-			double r = ip.getInterpolatedValue( points.xpoints[ind], points.ypoints[ind]);
-			if (r > minD) {
-				hits.add(new Double( points.xpoints[ind], points.ypoints[ind]));
+	/**
+	 * Find the largest inscribed circles of an area selection from its edges, see {@link PolygonPacking}
+	 * @param sel the selection, which can have holes
+	 * @param metrics the metrics to add the duration and counts to
+	 * @param onFound called with each circle as soon as it is found, or null
+	 * @param start when the slice started, for the time limit
+	 * @return the circles, largest first
+	 */
+	private CircleTable findPolygonCircles(Roi sel, SliceMetrics metrics, Consumer<Roi> onFound, long start) {
+		CircleTable found = new CircleTable(appendPositionToName);
+		PolygonPacking packing = new PolygonPacking(sel, minimumDiameter / 2.0D);
+		double largestRadius = 0;
+		while (true) {
+			double[] c = packing.next();
+			metrics.addIteration(0);
+			if (c == null) break;
+			// Circles are found largest first, so the next ones would all be too small as well
+			if (found.size() > 0 && c[2] < minRadiusRatio * largestRadius) break;
+			if (found.size() == 0) largestRadius = c[2];
+			packing.place(c[0], c[1], c[2]);
+			addCircle(found, c[0], c[1], c[2], 1, 0, 0, onFound);
+			metrics.addCircles(1);
+
+			// Stop before searching the next circle once a limit is reached
+			if (minimumDiameter == 0.0D || (maxCircles > 0 && found.size() >= maxCircles)) {
+				break;
+			}
+			if (timeLimit > 0 && System.nanoTime() - start >= timeLimit) {
+				break;
 			}
 		}
+		metrics.lap(SliceMetrics.Phase.POLYGON, start);
 
-		hits.sort((p1, p2) -> java.lang.Double.compare(ip.getInterpolatedValue(p2.x, p2.y), ip.getInterpolatedValue(p1.x, p1.y)));
-		ind = 0;
+		IJ.showStatus("Done...");
+		return found;
+	}
 
-		for (int i = 1; i < hits.size(); ++i) {
-			Double p = hits.get(i);
-			if (ip.getInterpolatedValue(p.x, p.y) <= ip.getInterpolatedValue(hits.get(0).x, hits.get(0).y)) {
-				ind = i;
-				break;
+	/**
+	 * Add a circle of the distance map to the circles found
+	 * @param table the circles found
+	 * @param cx the x coordinate of the center, in pixels of the distance map
+	 * @param cy the y coordinate of the center, in pixels of the distance map
+	 * @param r the radius, in pixels of the distance map
+	 * @param scale the upsampling of the distance map
+	 * @param offsetX the x position of the distance map in the image, in pixels of the image
+	 * @param offsetY the y position of the distance map in the image, in pixels of the image
+	 * @param onFound called with the ROI of the circle, or null to not make it
+	 */
+	private static void addCircle(CircleTable table, double cx, double cy, double r, int scale, int offsetX, int offsetY, Consumer<Roi> onFound) {
+		int index = table.add(cx / scale + (double) offsetX, cy / scale + (double) offsetY, r / scale);
+		if (onFound != null) onFound.accept(table.getRoi(index));
+	}
+
+	/**
+	 * Make the circle to return from a circle of the distance map
+	 * @param cx the x coordinate of the center, in pixels of the distance map
+	 * @param cy the y coordinate of the center, in pixels of the distance map
+	 * @param r the radius, in pixels of the distance map
+	 * @param scale the upsampling of the distance map
+	 * @param offsetX the x position of the distance map in the image, in pixels of the image
+	 * @param offsetY the y position of the distance map in the image, in pixels of the image
+	 * @return the named circle, in pixels of the image
+	 */
+	private static Roi toCircle(double cx, double cy, double r, int scale, int offsetX, int offsetY) {
+		double posx = (cx - r) / scale;
+		double posy = (cy - r) / scale;
+		double diameter = r * 2.0D / scale;
+		Roi circ = new OvalRoi(posx, posy, diameter, diameter);
+		circ.setName(String.format("Circle-r_%.3f", diameter));
+		circ.setStrokeWidth(1.0F);
+		circ.setLocation(posx + (double) offsetX, posy + (double) offsetY);
+		return circ;
+	}
+
+	/**
+	 * Find the largest inscribed circle of a mask at its native resolution, without building an image or searching
+	 * all maxima of the distance map: the largest distance is found while computing the distance map, on the bounding
+	 * box of the selection only. When several pixels are equally far from the background, the circle is centered on the pixel
+	 * the maxima finder picks. This is the circle that the builder finds at native resolution with a minimum diameter
+	 * of 0, which uses the same search.
+	 * @param mask the mask, non-zero pixels are foreground, or null to use the selection only
+	 * @param roi the area selection to find the circle in, or null for the whole mask. Outside of it is background
+	 * @param subPixel whether to refine the center and radius by fitting parabolas through the largest distance and its neighbours
+	 * @return the largest circle, or null if there is no foreground, or no background in the whole mask
+	 */
+	public static Roi findLargestCircle(ImageProcessor mask, Roi roi, boolean subPixel) {
+		if (roi != null && !roi.isArea()) roi = null;
+		if (mask == null && roi == null) throw new IllegalArgumentException("Need a mask or an area selection");
+		ImageProcessor ip;
+		int offsetX = 0;
+		int offsetY = 0;
+		if (roi == null) {
+			ip = mask;
+		} else {
+			// Pad by one pixel of background so that the selection border is background too
+			Rectangle bounds = roi.getBounds();
+			ImageProcessor roiMask = roi.getMask();
+			ip = new ByteProcessor(bounds.width + 2, bounds.height + 2);
+			for (int y = 0; y < bounds.height; y++) {
+				for (int x = 0; x < bounds.width; x++) {
+					int mx = bounds.x + x;
+					int my = bounds.y + y;
+					boolean isMask = mask == null || (mx >= 0 && my >= 0 && mx < mask.getWidth() && my < mask.getHeight() && mask.get(mx, my) != 0);
+					if (isMask && (roiMask == null || roiMask.get(x, y) != 0)) ip.set(x + 1, y + 1, 255);
+				}
 			}
+			offsetX = bounds.x - 1;
+			offsetY = bounds.y - 1;
 		}
 
-		tmpList.addAll(hits);
-		if (ind > 0) {
-			tmpList = hits.subList(0, ind);
+		double[] max = findLargestMaximum(ip, subPixel);
+		if (max == null) return null;
+		return toCircle(max[0] + NATIVE_CENTER_OFFSET, max[1] + NATIVE_CENTER_OFFSET, max[2] + NATIVE_RADIUS_OFFSET, 1, offsetX, offsetY);
+	}
+
+	/**
+	 * Find the largest distance of the distance map of a mask in a single pass
+	 * @param mask the mask, non-zero pixels are foreground
+	 * @param refine whether to refine the position and value of the largest distance, like {@link #refineMaximum(ImageProcessor, int, int)}
+	 * @return the x, y and value of the largest distance, or null if there is no foreground or no background
+	 */
+	static double[] findLargestMaximum(ImageProcessor mask, boolean refine) {
+		int w = mask.getWidth();
+		int h = mask.getHeight();
+		int[] sq = new int[w * h];
+		int[] maxima = SeparableDistanceTransform.transformToMaxima(mask, sq);
+		if (maxima.length == 0 || sq[maxima[0]] == SeparableDistanceTransform.INF) return null;
+		int i = getMaximumPoint(sq, w, h, maxima[maxima.length - 1]);
+
+		int x = i % w;
+		int y = i / w;
+		// Same float distances as the distance map
+		double v = SeparableDistanceTransform.toDistance(sq[i]);
+		if (!refine) return new double[]{x, y, v};
+		double[] rx = x > 0 && x < w - 1 ? parabolaPeak(SeparableDistanceTransform.toDistance(sq[i - 1]), v, SeparableDistanceTransform.toDistance(sq[i + 1])) : new double[]{0, 0};
+		double[] ry = y > 0 && y < h - 1 ? parabolaPeak(SeparableDistanceTransform.toDistance(sq[i - w]), v, SeparableDistanceTransform.toDistance(sq[i + w])) : new double[]{0, 0};
+		return new double[]{x + rx[0], y + ry[0], v + rx[1] + ry[1]};
+	}
+
+	/**
+	 * Find the pixel that {@link MaximumFinder#getMaxima(ImageProcessor, double, boolean)} gives first for the distance map
+	 * with a tolerance of 1. It starts from the last pixel of largest distance in row order and visits, in the same order,
+	 * the 8-connected pixels around it that are less than 1 lower. The maximum is the one of the visited pixels of largest
+	 * distance that is closest to their center of mass, the first one visited if several are as close.
+	 * @param sq the squared distance map
+	 * @param w the width of the image
+	 * @param h the height of the image
+	 * @param start the index of the last pixel of largest distance
+	 * @return the index of the maximum
+	 */
+	private static int getMaximumPoint(int[] sq, int w, int h, int start) {
+		float v0 = SeparableDistanceTransform.toDistance(sq[start]);
+		float lowest = v0 - 1.0F;
+		int[] list = new int[16];
+		Set<Integer> isListed = new HashSet<>();
+		list[0] = start;
+		isListed.add(start);
+		int count = 1;
+		double sumX = start % w;
+		double sumY = start / w;
+		int nEqual = 1;
+		for (int k = 0; k < count; k++) {
+			int x = list[k] % w;
+			int y = list[k] / w;
+			for (int d = 0; d < 8; d++) {
+				int x2 = x + DIR_X_OFFSET[d];
+				int y2 = y + DIR_Y_OFFSET[d];
+				if (x2 < 0 || y2 < 0 || x2 >= w || y2 >= h) continue;
+				int i = y2 * w + x2;
+				float v = SeparableDistanceTransform.toDistance(sq[i]);
+				if (v < lowest || !isListed.add(i)) continue;
+				if (count == list.length) list = Arrays.copyOf(list, 2 * count);
+				list[count++] = i;
+				if (v == v0) {
+					sumX += x2;
+					sumY += y2;
+					nEqual++;
+				}
+			}
 		}
 
-		return new ArrayList<>(tmpList);
+		double cx = sumX / nEqual;
+		double cy = sumY / nEqual;
+		int best = -1;
+		double bestDistance = 0;
+		for (int k = 0; k < count; k++) {
+			if (sq[list[k]] != sq[start]) continue;
+			double dx = list[k] % w - cx;
+			double dy = list[k] / w - cy;
+			double distance = dx * dx + dy * dy;
+			if (best < 0 || distance < bestDistance) {
+				best = list[k];
+				bestDistance = distance;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return whether a mask has at least one background pixel
+	 */
+	static boolean hasBackground(ImageProcessor mask) {
+		for (int i = 0; i < mask.getPixelCount(); i++) {
+			if (mask.get(i) == 0) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Refine the position and value of a maximum of the distance map by fitting a parabola
+	 * through the maximum and its two neighbours, along x and along y
+	 * @param ip the distance map
+	 * @param x the x coordinate of the maximum
+	 * @param y the y coordinate of the maximum
+	 * @return the refined x, y and value of the maximum
+	 */
+	static double[] refineMaximum(ImageProcessor ip, int x, int y) {
+		return refineMaximum(ip, x, y, 0, 0);
+	}
+
+	/**
+	 * Refine a maximum of the distance map of a part of a larger mask, like {@link #refineMaximum(ImageProcessor, int, int)}
+	 * @param offsetX the x position of the distance map in the mask
+	 * @param offsetY the y position of the distance map in the mask
+	 * @return the refined x and y in the mask, rounded as if refined on the whole mask, and the refined value
+	 */
+	static double[] refineMaximum(ImageProcessor ip, int x, int y, int offsetX, int offsetY) {
+		double v = ip.getf(x, y);
+		double[] rx = x > 0 && x < ip.getWidth() - 1 ? parabolaPeak(ip.getf(x - 1, y), v, ip.getf(x + 1, y)) : new double[]{0, 0};
+		double[] ry = y > 0 && y < ip.getHeight() - 1 ? parabolaPeak(ip.getf(x, y - 1), v, ip.getf(x, y + 1)) : new double[]{0, 0};
+		return new double[]{offsetX + x + rx[0], offsetY + y + ry[0], v + rx[1] + ry[1]};
 	}
 
-	public static ArrayList<Double> findNeighbors(Double p, ArrayList<Double> hits, ImageProcessor ip) {
-		ArrayList<Double> neighbors = new ArrayList<>();
+	/**
+	 * @return the offset of the peak of the parabola through 3 samples, within half a pixel, and how much higher it is than the center sample
+	 */
+	private static double[] parabolaPeak(double left, double center, double right) {
+		double curvature = left - 2 * center + right;
+		if (curvature >= 0) return new double[]{0, 0};
+		double offset = Math.max(-0.5D, Math.min(0.5D, 0.5D * (left - right) / curvature));
+		return new double[]{offset, -0.25D * (left - right) * offset};
+	}
+
+	/**
+	 * Find the points whose circles overlap the circle of a point, the radius of a circle being the distance map at its center.
+	 * Each call compares the point with all the others, use a {@link CircleIndex} to find the neighbours of many circles
+	 * @param p the center of the circle
+	 * @param hits the centers of the circles to compare it with
+	 * @param ip the distance map
+	 * @return the points of hits whose circles overlap the circle of p, including p itself when it is among them
+	 * @deprecated the circles no longer use it, see {@link CircleIndex#findOverlapping(double, double, double, double)}
+	 */
+	@Deprecated
+	public static ArrayList<Point2D.Double> findNeighbors(Point2D.Double p, ArrayList<Point2D.Double> hits, ImageProcessor ip) {
+		ArrayList<Point2D.Double> neighbors = new ArrayList<>();
 		double r = ip.getInterpolatedValue(p.x, p.y);
 
-		for (Double k : hits) {
+		for (Point2D.Double k : hits) {
 			double dist = p.distance(k);
 			double r2 = ip.getInterpolatedValue(k.x, k.y);
 			if (dist < r + r2) {
@@ -286,16 +1250,37 @@ public class MaxInscribedCircles {
 
 	public static class Builder {
 		private final ImagePlus imp;
+		private final MaskSource maskSource;
 		private double minimumDiameter = 10;
 		private double spineClosenessTolerance = 10;
 		private double spineMinimumSimilarity = 0.5;
+		private boolean spineLineInCircles = false;
 		private boolean useSelectionOnly = false;
 		private boolean getSpine = false;
 
 		private boolean appendPositionToName = true;
+		private DistanceTransform distanceTransform = new SeparableDistanceTransform();
+		private boolean nativeResolution = false;
+		private int parallelism = 1;
+		private ExecutorService executor = null;
+		private boolean isLabelImage = false;
+		private List<Roi> selections = null;
+		private Engine engine = Engine.MAXIMUM_FINDER;
+		private int tileSize = 0;
+		private int tileHalo = 0;
+		private ResultListener streamListener = null;
+		private int streamPrefetch = 0;
+		private double warmStartFraction = -1;
+		private int warmStartMargin = 0;
+		private MetricsListener metricsListener = null;
+		private int maxCircles = 0;
+		private double minRadiusRatio = 0;
+		private long timeLimit = 0;
+		private ResultCache cache = null;
 
-		Builder(ImagePlus imp) {
+		Builder(ImagePlus imp, MaskSource maskSource) {
 			this.imp = imp;
+			this.maskSource = maskSource;
 		}
 
 		/**
@@ -318,7 +1303,7 @@ public class MaxInscribedCircles {
 		 * @return this builder
 		 */
 		public Builder useSelectionOnly(boolean useSelectionOnly) {
-			if (this.imp.getRoi() == null) {
+			if (this.imp == null || this.imp.getRoi() == null) {
 				IJ.log("No selection found, using mask instead");
 				useSelectionOnly = false;
 			}
@@ -361,6 +1346,19 @@ public class MaxInscribedCircles {
 			return this;
 		}
 
+		/**
+		 * Consider that two overlapping or touching circles are joined by a line in the mask without checking its pixels,
+		 * as the circles themselves are in the mask. This is faster with many circles, but pairs whose line crosses
+		 * a background pixel at the edge of the circles are kept
+		 *
+		 * @param lineInCircles whether to trust the circles for the lines between overlapping ones (default: false)
+		 * @return this builder
+		 */
+		public Builder spineLineInCircles(boolean lineInCircles) {
+			this.spineLineInCircles = lineInCircles;
+			return this;
+		}
+
 		/**
 		 * working from the largest circle, the closeness and similarity values, compute a spine going through the circles
 		 *
@@ -372,15 +1370,349 @@ public class MaxInscribedCircles {
 			return this;
 		}
 
+		/**
+		 * Set the distance transform used to compute the distance map of the mask
+		 * The default is a {@link SeparableDistanceTransform}. Use a {@link FijiDistanceTransform} to get
+		 * the transform used by previous versions, for comparison.
+		 *
+		 * @param distanceTransform the distance transform implementation
+		 * @return this builder
+		 */
+		public Builder distanceTransform(DistanceTransform distanceTransform) {
+			if (distanceTransform == null)
+				throw new IllegalArgumentException("Distance transform cannot be null");
+			this.distanceTransform = distanceTransform;
+			return this;
+		}
+
+		/**
+		 * Find circles at the native resolution of the mask instead of upsampling it 2x, which uses 4x less memory.
+		 * The centers and radii are refined to sub-pixel precision by fitting a parabola through the distance map
+		 * around each maximum, and use the same pixel conventions as the 2x mode so that both can be compared.
+		 * The circles are close to those of the 2x mode but not the same. On the synthetic masks of the tests, the
+		 * largest circle has a radius within 0.5 pixel of the 2x one (0.3 pixel on average), and its center is within
+		 * 1.2 pixel of a circle of the 2x mode, which is not always the largest when two circles are about as large.
+		 * The following circles depend on the ones already filled, so they can differ more and a few circles more
+		 * or less can be found.
+		 *
+		 * @param nativeResolution true to work at native resolution (default: false)
+		 * @return this builder
+		 */
+		public Builder nativeResolution(boolean nativeResolution) {
+			this.nativeResolution = nativeResolution;
+			return this;
+		}
+
+		/**
+		 * Set how many slices of a stack are processed at the same time.
+		 * Results are returned in slice order whatever the parallelism.
+		 * Slices are read when a thread is free for them, so at most this many slices are in memory at once.
+		 *
+		 * @param parallelism number of slices to process at the same time (default: 1)
+		 * @return this builder
+		 */
+		public Builder parallelism(int parallelism) {
+			if (parallelism < 1)
+				throw new IllegalArgumentException("Parallelism must be at least 1");
+			this.parallelism = parallelism;
+			return this;
+		}
+
+		/**
+		 * Process the slices of a stack on the given executor instead of a pool created for each call to process().
+		 * The executor is not shut down by {@link MaxInscribedCircles}. {@link #parallelism(int)} still sets how many
+		 * slices are handed to it at a time, so set it to the number of threads of the executor.
+		 *
+		 * @param executor the executor to run slices on, or null to use {@link #parallelism(int)}
+		 * @return this builder
+		 */
+		public Builder executor(ExecutorService executor) {
+			this.executor = executor;
+			return this;
+		}
+
+		/**
+		 * Process the image as a label image (8, 16 or 32-bit) where each non-zero value is a separate object.
+		 * Each object is processed on its own bounding box, in parallel if {@link #parallelism(int)} or
+		 * {@link #executor(ExecutorService)} are set. Results are sorted by slice then label, their name
+		 * gets the label appended as "-L_label", and they hold it as the {@link #LABEL_PROPERTY} property.
+		 * The selection is ignored in this mode.
+		 *
+		 * @param isLabelImage true to process the image as a label image (default: false)
+		 * @return this builder
+		 */
+		public Builder labelImage(boolean isLabelImage) {
+			this.isLabelImage = isLabelImage;
+			return this;
+		}
+
+		/**
+		 * Process each of the given selections instead of the image, each one on a mask of its own bounds.
+		 * Circles are found in the shape of each selection, as with {@link #useSelectionOnly(boolean)},
+		 * and the position of a selection is the slice its results are set to (the current slice if 0).
+		 * Selections are processed in parallel if {@link #parallelism(int)} or {@link #executor(ExecutorService)} are set,
+		 * and {@link MaxInscribedCircles#getSelectionResults()} gives the results of each selection, in the same order.
+		 * Results hold the index of their selection as the {@link #SELECTION_PROPERTY} property.
+		 *
+		 * @param selections the selections to process, for example from the RoiManager
+		 * @return this builder
+		 */
+		public Builder selections(List<Roi> selections) {
+			this.selections = selections == null ? null : new ArrayList<>(selections);
+			return this;
+		}
+
+		/**
+		 * Process each of the given selections instead of the image, see {@link #selections(List)}
+		 *
+		 * @param selections the selections to process, for example from the RoiManager
+		 * @return this builder
+		 */
+		public Builder selections(Roi[] selections) {
+			return selections(selections == null ? null : Arrays.asList(selections));
+		}
+
+		/**
+		 * Set how the next largest circle is found.
+		 * {@link Engine#MAXIMUM_FINDER} searches the whole distance map for maxima after each circle, as in previous versions.
+		 * {@link Engine#PRIORITY_QUEUE} collects the candidate centers once and only revisits those around each new circle,
+		 * which is much faster with many circles. Both place the largest circle first, but when several circles are equally
+		 * large they may be picked in a different order, so results can differ slightly.
+		 * {@link Engine#POLYGON} computes the circles of the selection, or of each selection of a set, from its edges, so that
+		 * the time depends on the number of vertices and circles instead of the area, and circles are not bound to pixels.
+		 * Masks are processed like with {@link Engine#PRIORITY_QUEUE}.
+		 *
+		 * @param engine the engine to use (default: MAXIMUM_FINDER)
+		 * @return this builder
+		 */
+		public Builder engine(Engine engine) {
+			if (engine == null)
+				throw new IllegalArgumentException("Engine cannot be null");
+			this.engine = engine;
+			return this;
+		}
+
+		/**
+		 * Process the mask in square tiles instead of all at once, so that the distance map of a whole-slide mask
+		 * is never held in memory: only the tiles being processed are, {@link #parallelism(int)} at a time, along with
+		 * the distance maps of the last {@link #parallelism(int)} tiles processed, which are updated instead of rebuilt.
+		 * The mask itself is read one tile at a time when it comes from a {@link MaskSource}, see
+		 * {@link MaxInscribedCircles#builder(MaskSource)}.
+		 * Each tile works on its area grown by the halo. As long as the halo is larger than the radius of the
+		 * largest circle, the circles are the same as with {@link Engine#PRIORITY_QUEUE} on the whole mask,
+		 * whatever the tile size; a message is logged otherwise. Tiles are only used on the whole mask, not with
+		 * selections or label images, and always work like {@link Engine#PRIORITY_QUEUE}.
+		 *
+		 * @param tileSize the side of the tiles in pixels, or 0 to process the mask all at once (default: 0)
+		 * @param halo the margin around each tile in pixels, larger than the radius of the largest circle
+		 * @return this builder
+		 */
+		public Builder tiles(int tileSize, int halo) {
+			if (tileSize < 0)
+				throw new IllegalArgumentException("Tile size cannot be negative");
+			if (tileSize > 0 && halo < 1)
+				throw new IllegalArgumentException("Tile halo must be at least 1 pixel");
+			this.tileSize = tileSize;
+			this.tileHalo = halo;
+			return this;
+		}
+
+		/**
+		 * Hand the results to the consumer as soon as each slice is done instead of keeping them, for stacks that are
+		 * too long to hold all their slices or results in memory, like virtual stacks read from disk.
+		 * Slices are read in the background up to prefetch slices ahead, and processed {@link #parallelism(int)} at a time.
+		 * The consumer is called on the thread calling process(), in slice order, with one result per slice or per
+		 * object of a label image. {@link MaxInscribedCircles#getCircles()}, getSpines() and getSpineParts() stay empty.
+		 * A set of selections is not streamed.
+		 *
+		 * @param consumer the consumer of the results, or null to keep them until process() returns (default: null)
+		 * @param prefetch how many slices to read ahead of the one being processed
+		 * @return this builder
+		 */
+		public Builder stream(Consumer<Result> consumer, int prefetch) {
+			return stream(consumer == null ? null : new ResultListener() {
+				@Override
+				public void circleFound(Roi circle) {
+				}
+
+				@Override
+				public void sliceProcessed(Result result) {
+					consumer.accept(result);
+				}
+			}, prefetch);
+		}
+
+		/**
+		 * Hand each circle to the listener as soon as it is found, and the results of each slice as soon as it is done,
+		 * instead of keeping them, like {@link #stream(Consumer, int)}. The search waits for the listener, so that
+		 * results never pile up: at most prefetch slices are read ahead and {@link #parallelism(int)} slices are searched at a time.
+		 *
+		 * @param listener the listener of the circles and results, or null to keep them until process() returns (default: null)
+		 * @param prefetch how many slices to read ahead of the one being processed
+		 * @return this builder
+		 */
+		public Builder stream(ResultListener listener, int prefetch) {
+			if (prefetch < 0)
+				throw new IllegalArgumentException("Prefetch cannot be negative");
+			this.streamListener = listener;
+			this.streamPrefetch = prefetch;
+			return this;
+		}
+
+		/**
+		 * Start each slice from the circles of the previous one, for time-lapse masks that change little between frames.
+		 * The circles of the previous frame that are away from the pixels that changed are kept. New circles are only
+		 * searched in the changed area and where circles were removed, grown by the margin, around the kept circles.
+		 * Circles can then differ a little from solving each frame on its own, mostly in their order and next to the
+		 * changed area. A frame is solved on its own when too much of it changed, as well as the first one.
+		 * Slices are processed one after the other in this mode. It is ignored for label images, sets of selections and tiles.
+		 *
+		 * @param maxChangedFraction the largest fraction of changed pixels for which to start from the previous frame, or a negative value to never do it (default: -1)
+		 * @param margin how far from the changed pixels circles are removed and searched again, in pixels. It should be larger than the radius of the largest circles that can change
+		 * @return this builder
+		 */
+		public Builder warmStart(double maxChangedFraction, int margin) {
+			if (maxChangedFraction > 1)
+				throw new IllegalArgumentException("Changed fraction cannot be larger than 1");
+			if (margin < 0)
+				throw new IllegalArgumentException("Margin cannot be negative");
+			this.warmStartFraction = maxChangedFraction;
+			this.warmStartMargin = margin;
+			return this;
+		}
+
+		/**
+		 * Get the durations of the phases of each slice, the number of iterations and candidates and the circles accepted.
+		 * The same metrics are also emitted as Java Flight Recorder events named
+		 * "ch.epfl.biop.MaxInscribedCircles.Slice" when the JVM has it, whether a listener is set or not.
+		 *
+		 * @param metricsListener called once per slice, object of a label image or selection of a set, possibly from several threads, or null (default: null)
+		 * @return this builder
+		 */
+		public Builder metricsListener(MetricsListener metricsListener) {
+			this.metricsListener = metricsListener;
+			return this;
+		}
+
+		/**
+		 * Stop once the largest circles up to this count are found, in each slice, object of a label image or selection
+		 *
+		 * @param maxCircles the largest number of circles, or 0 for no limit (default: 0)
+		 * @return this builder
+		 */
+		public Builder maximumCircles(int maxCircles) {
+			if (maxCircles < 0)
+				throw new IllegalArgumentException("Maximum number of circles cannot be negative");
+			this.maxCircles = maxCircles;
+			return this;
+		}
+
+		/**
+		 * Stop once circles get smaller than a ratio of the largest circle, in each slice, object of a label image or selection.
+		 * This stops on top of the minimum diameter
+		 *
+		 * @param minRadiusRatio the smallest radius of the circles relative to the largest one, between 0 and 1, or 0 for no limit (default: 0)
+		 * @return this builder
+		 */
+		public Builder minimumRadiusRatio(double minRadiusRatio) {
+			if (minRadiusRatio < 0 || minRadiusRatio > 1)
+				throw new IllegalArgumentException("Radius ratio must be between 0 and 1");
+			this.minRadiusRatio = minRadiusRatio;
+			return this;
+		}
+
+		/**
+		 * Stop looking for more circles once this time is spent on a slice, object of a label image or selection, and keep
+		 * the circles found so far. The largest circle is always found, and the distance map is not interrupted
+		 *
+		 * @param timeLimit the time limit in milliseconds, or 0 for no limit (default: 0)
+		 * @return this builder
+		 */
+		public Builder timeLimit(long timeLimit) {
+			if (timeLimit < 0)
+				throw new IllegalArgumentException("Time limit cannot be negative");
+			this.timeLimit = timeLimit;
+			return this;
+		}
+
+		/**
+		 * Keep the results of each slice, object of a label image or selection on disk, and read them back when the same
+		 * mask is processed again with the same settings, see {@link ResultCache}. The cache is ignored with a time limit
+		 * and with warm start, as their results depend on more than the mask and the settings
+		 *
+		 * @param cache the cache, which can be shared, or null to always search the circles (default: null)
+		 * @return this builder
+		 */
+		public Builder cache(ResultCache cache) {
+			this.cache = cache;
+			return this;
+		}
+
 		public MaxInscribedCircles build() {
 			MaxInscribedCircles mic = new MaxInscribedCircles();
 			mic.imp = this.imp;
+			mic.maskSource = this.maskSource;
 			mic.minimumDiameter = this.minimumDiameter;
 			mic.spineClosenessTolerance = this.spineClosenessTolerance;
 			mic.spineMinimumSimilarity = this.spineMinimumSimilarity;
+			mic.spineLineInCircles = this.spineLineInCircles;
 			mic.getSpine = this.getSpine;
 			mic.useSelectionOnly = this.useSelectionOnly;
 			mic.appendPositionToName = this.appendPositionToName;
+			mic.distanceTransform = this.distanceTransform;
+			mic.nativeResolution = this.nativeResolution;
+			mic.parallelism = this.parallelism;
+			mic.executor = this.executor;
+			mic.isLabelImage = this.isLabelImage;
+			mic.selections = this.selections;
+			mic.engine = this.engine;
+			mic.tileSize = this.tileSize;
+			mic.tileHalo = this.tileHalo;
+			mic.streamListener = this.streamListener;
+			mic.streamPrefetch = this.streamPrefetch;
+			mic.metricsListener = this.metricsListener;
+			mic.maxCircles = this.maxCircles;
+			mic.minRadiusRatio = this.minRadiusRatio;
+			mic.timeLimit = TimeUnit.MILLISECONDS.toNanos(this.timeLimit);
+			mic.cache = this.cache;
+			if (this.selections != null && this.streamListener != null) {
+				IJ.log("Streaming is ignored for a set of selections");
+				mic.streamListener = null;
+			}
+			if (this.warmStartFraction >= 0) {
+				if (this.isLabelImage || this.selections != null || this.tileSize > 0) {
+					IJ.log("Warm start is ignored for label images, sets of selections and tiles");
+				} else if (this.maxCircles > 0 || this.minRadiusRatio > 0 || this.timeLimit > 0) {
+					IJ.log("Warm start is ignored with limits on the circles");
+				} else if (this.minimumDiameter > 0) {
+					// There is nothing to keep when only the largest circle is searched
+					mic.warmStart = new WarmStart(this.warmStartFraction, this.warmStartMargin);
+				}
+			}
+			if (mic.cache != null && (mic.timeLimit > 0 || mic.warmStart != null)) {
+				IJ.log("The cache is ignored with a time limit and with warm start");
+				mic.cache = null;
+			}
+			if (this.tileSize > 0 && this.engine == Engine.MAXIMUM_FINDER && !this.isLabelImage && this.selections == null) {
+				// Tiles are only the same as the whole mask with the priority queue
+				IJ.log("Tiles work like the priority queue engine, the maximum finder engine is ignored for them");
+			}
+			if (this.isLabelImage && this.useSelectionOnly) {
+				IJ.log("Selection is ignored for label images");
+				mic.useSelectionOnly = false;
+			}
+			if (this.maskSource != null) {
+				if (this.tileSize == 0)
+					throw new IllegalArgumentException("A mask source is processed in tiles, set them with tiles()");
+				if (this.getSpine || this.isLabelImage || this.selections != null || mic.warmStart != null || mic.cache != null) {
+					IJ.log("Spines, label images, selections, warm start and the cache are ignored for a mask source");
+				}
+				mic.getSpine = false;
+				mic.isLabelImage = false;
+				mic.selections = null;
+				mic.warmStart = null;
+				mic.cache = null;
+			}
 			return mic;
 
 		}
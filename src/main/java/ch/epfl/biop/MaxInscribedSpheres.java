@@ -0,0 +1,209 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.OvalRoi;
+import ij.gui.Roi;
+import ij.measure.Calibration;
+import ij.measure.ResultsTable;
+import ij.process.ImageProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Largest inscribed spheres of a 3D mask, the 3D counterpart of {@link MaxInscribedCircles}.
+ * The stack of the image is the z-stack of the mask, non-zero voxels are foreground, and its calibration
+ * gives the size of the voxels. Spheres are found largest first, each one filling the mask before the next
+ * one is searched, until they get smaller than the minimum diameter.
+ */
+public class MaxInscribedSpheres {
+
+	/**
+	 * Name of the {@link Roi} property holding the number of the sphere a cross-section belongs to
+	 */
+	public static final String SPHERE_PROPERTY = "Sphere";
+
+	private ImagePlus imp;
+	private double minimumDiameter;
+	private int parallelism;
+
+	private ResultsTable spheres;
+	private List<Roi> crossSections;
+
+	MaxInscribedSpheres() {
+	}
+
+	/**
+	 * Calling the Sphere Finder using a Builder Pattern
+	 * @param imp the z-stack to process
+	 * @return the builder
+	 */
+	public static Builder builder(ImagePlus imp) {
+		return new Builder(imp);
+	}
+
+	/**
+	 * Perform the sphere finding
+	 * @throws IllegalArgumentException if the mask has foreground but no background, as outside of the volume is not
+	 * background and nothing would bound the spheres
+	 */
+	public void process() {
+		IJ.showStatus("Finding Largest Inscribed Spheres based on Distance Map...");
+		int width = imp.getWidth();
+		int height = imp.getHeight();
+		int depth = imp.getStackSize();
+		Calibration cal = imp.getCalibration();
+		double wx = cal.pixelWidth;
+		double wy = cal.pixelHeight;
+		double wz = cal.pixelDepth;
+
+		ImageStack stack = imp.getStack();
+		byte[] mask = new byte[width * height * depth];
+		for (int z = 0; z < depth; z++) {
+			ImageProcessor ip = stack.getProcessor(z + 1);
+			for (int i = 0; i < width * height; i++) {
+				if (ip.get(i) != 0) mask[z * width * height + i] = 1;
+			}
+		}
+
+		// The distance map is split by blocks of slices, then the spheres are found one after the other
+		ForkJoinPool pool = parallelism > 0 ? new ForkJoinPool(parallelism) : ForkJoinPool.commonPool();
+		List<double[]> found = new ArrayList<>();
+		try {
+			SpherePacking packing = new SpherePacking(mask, width, height, depth, wx, wy, wz, minimumDiameter / 2.0D, pool);
+			while (true) {
+				int voxel = packing.next();
+				if (voxel < 0) break;
+				double r = packing.getDistance(voxel);
+				found.add(new double[]{voxel % width, (voxel / width) % height, voxel / (width * height), r});
+				packing.clear(voxel, r);
+
+				if (minimumDiameter == 0.0D) break;
+			}
+		} finally {
+			if (pool != ForkJoinPool.commonPool()) pool.shutdown();
+		}
+
+		spheres = new ResultsTable();
+		crossSections = new ArrayList<>();
+		for (int k = 0; k < found.size(); k++) {
+			double[] s = found.get(k);
+			// Centers are given at the center of their voxel, like the circles
+			double cx = s[0] + 0.5D;
+			double cy = s[1] + 0.5D;
+			double r = s[3];
+			spheres.incrementCounter();
+			spheres.addValue("Sphere", k + 1);
+			spheres.addValue("X", cx);
+			spheres.addValue("Y", cy);
+			spheres.addValue("Slice", s[2] + 1);
+			spheres.addValue("Radius", r);
+			spheres.addValue("Diameter", 2.0D * r);
+
+			for (int z = 0; z < depth; z++) {
+				double dz = (z - s[2]) * wz;
+				if (Math.abs(dz) >= r) continue;
+				// The cross-section is an ellipse in pixels when pixels are not square
+				double rz = Math.sqrt(r * r - dz * dz);
+				Roi section = new OvalRoi(cx - rz / wx, cy - rz / wy, 2.0D * rz / wx, 2.0D * rz / wy);
+				section.setName(String.format("Sphere-%d-r_%.3f", k + 1, 2.0D * r));
+				section.setStrokeWidth(1.0F);
+				section.setPosition(z + 1);
+				section.setProperty(SPHERE_PROPERTY, String.valueOf(k + 1));
+				crossSections.add(section);
+			}
+		}
+
+		if (found.isEmpty()) {
+			IJ.log("No spheres found, consider decreasing 'Minimum Sphere Diameter'.");
+		}
+		IJ.showStatus("Done...");
+	}
+
+	/**
+	 * Get the spheres found after process(), largest first.
+	 * Columns are the number of the sphere, the X and Y of its center in pixels, its Slice (1-based),
+	 * and its Radius and Diameter in the units of the calibration
+	 * @return the table of spheres
+	 */
+	public ResultsTable getSpheres() {
+		return spheres;
+	}
+
+	/**
+	 * Get the cross-sections of the spheres with each slice after process(), sphere by sphere.
+	 * They are positioned on their slice and hold the number of their sphere as the {@link #SPHERE_PROPERTY} property
+	 * @return the circles, or ellipses if the pixels are not square
+	 */
+	public List<Roi> getCrossSections() {
+		return crossSections;
+	}
+
+	public static class Builder {
+		private final ImagePlus imp;
+		private double minimumDiameter = 10;
+		private int parallelism = 0;
+
+		Builder(ImagePlus imp) {
+			this.imp = imp;
+		}
+
+		/**
+		 * Set the minimum diameter of the spheres to be found, in the units of the calibration
+		 *
+		 * @param minimumDiameter smallest diameter of the spheres to be found, 0 to only get the largest one
+		 * @return this builder
+		 */
+		public Builder minimumDiameter(double minimumDiameter) {
+			if (minimumDiameter == 0)
+				IJ.log("Minimum diameter is 0, returning largest sphere only");
+			this.minimumDiameter = minimumDiameter;
+			return this;
+		}
+
+		/**
+		 * Set how many threads compute the distance map, and the updates around the largest spheres
+		 *
+		 * @param parallelism number of threads, or 0 to use the common pool (default: 0)
+		 * @return this builder
+		 */
+		public Builder parallelism(int parallelism) {
+			if (parallelism < 0)
+				throw new IllegalArgumentException("Parallelism cannot be negative");
+			this.parallelism = parallelism;
+			return this;
+		}
+
+		public MaxInscribedSpheres build() {
+			MaxInscribedSpheres mis = new MaxInscribedSpheres();
+			mis.imp = this.imp;
+			mis.minimumDiameter = this.minimumDiameter;
+			mis.parallelism = this.parallelism;
+			return mis;
+		}
+	}
+}
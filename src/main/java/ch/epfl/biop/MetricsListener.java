@@ -0,0 +1,38 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+/**
+ * Receives how long each phase of the circle finding took, and what it found, once per slice.
+ * Objects of a label image and selections of a set each get their own metrics.
+ *
+ * Slices can be processed at the same time, so the listener can be called from several threads at once.
+ */
+@FunctionalInterface
+public interface MetricsListener {
+
+	/**
+	 * Called when a slice, object or selection is done, on the thread that processed it
+	 * @param metrics the durations and counts of the slice
+	 */
+	void sliceProcessed(SliceMetrics metrics);
+}
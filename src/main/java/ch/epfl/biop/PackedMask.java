@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Mask packed one bit per pixel, row by row, to test segments and rays against it without reading the image.
+ * Pixels outside of the mask are not in it.
+ */
+class PackedMask {
+
+	private final int width;
+	private final int height;
+	private final int wordsPerRow;
+	private final long[] bits;
+
+	/**
+	 * @param ip the image, whose pixels equal to value are in the mask
+	 * @param value the value of the pixels in the mask
+	 */
+	PackedMask(ImageProcessor ip, float value) {
+		this.width = ip.getWidth();
+		this.height = ip.getHeight();
+		this.wordsPerRow = (width + 63) >>> 6;
+		this.bits = new long[wordsPerRow * height];
+		if (ip instanceof ByteProcessor && value == (int) value) {
+			// Masks are byte images, whose pixels are read directly
+			byte[] pixels = (byte[]) ip.getPixels();
+			byte b = (byte) (int) value;
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					if (pixels[y * width + x] == b) bits[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+				}
+			}
+		} else {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					if (ip.getf(x, y) == value) bits[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the pixel is in the mask, false if not or if it is outside of the image
+	 */
+	boolean contains(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) return false;
+		return (bits[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	/**
+	 * Check that a segment is in the mask, sampling it like {@link ImageProcessor#getLine(double, double, double, double)}:
+	 * about one point per pixel of length, both ends included, each one rounded to its pixel
+	 * @return true if all the points of the segment are in the mask
+	 */
+	boolean containsSegment(double x1, double y1, double x2, double y2) {
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		int n = (int) Math.round(Math.sqrt(dx * dx + dy * dy));
+		double xinc = n > 0 ? dx / n : 0;
+		double yinc = n > 0 ? dy / n : 0;
+		// Same special case as getLine, which then leaves out the end
+		if (!((xinc == 0 && n == height) || (yinc == 0 && n == width))) n++;
+		double rx = x1;
+		double ry = y1;
+		for (int i = 0; i < n; i++) {
+			if (!contains((int) Math.round(rx), (int) Math.round(ry))) return false;
+			rx += xinc;
+			ry += yinc;
+		}
+		return true;
+	}
+
+	/**
+	 * Walk along a ray one pixel of length at a time, from a distance start of its origin, until it leaves the mask
+	 * @param x the x coordinate of the origin
+	 * @param y the y coordinate of the origin
+	 * @param dx the x coordinate of the direction, which does not need to be normalized
+	 * @param dy the y coordinate of the direction
+	 * @param start the distance from the origin of the first point
+	 * @return the number of points in the mask before the first one outside of it, starting at start
+	 */
+	int getExitStep(double x, double y, double dx, double dy, double start) {
+		double length = Math.sqrt(dx * dx + dy * dy);
+		// The mask is finite, so the ray leaves it after at most its diagonal
+		int max = (int) Math.ceil(Math.sqrt((double) width * width + (double) height * height)) + 1;
+		for (int i = 0; i <= max; i++) {
+			double px = x + (start + i) * dx / length;
+			double py = y + (start + i) * dy / length;
+			if (!contains((int) Math.round(px), (int) Math.round(py))) return i;
+		}
+		return max + 1;
+	}
+}
@@ -0,0 +1,315 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.gui.Roi;
+import ij.gui.ShapeRoi;
+import ij.process.FloatPolygon;
+
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Greedy largest-first circle packing of a selection, computed from its edges instead of a distance map, so that the
+ * cost depends on the number of vertices and circles rather than on the area, and circles do not depend on the pixel grid.
+ *
+ * The largest circle that fits is centered on the point farthest from the edges and from the circles already placed.
+ * It is found by splitting the bounding box into square cells, the distance at the center of a cell bounding the
+ * distances within it, and only splitting the cells that can hold a farther point (Garcia-Castellanos and Lombardo,
+ * Poles of inaccessibility, and the polylabel algorithm). Distances only shrink as circles are placed, so the cells are
+ * kept from one circle to the next, and their bounds are only recomputed when they reach the top of the queue.
+ */
+class PolygonPacking {
+
+	// Each circle touches the edges or other circles, but can be this much smaller than the largest one that fits, in pixels.
+	// Finer values mostly cost time along ridges where many centers are equally far from the edges
+	static final double PRECISION = 0.05;
+	// Largest distance between the curves of a shape selection and their edges, in pixels
+	private static final double FLATNESS = 0.01;
+	// Number of buckets the circles are sorted into along the longest side of the bounding box
+	private static final int BUCKETS = 32;
+
+	private static final double SQRT2 = Math.sqrt(2);
+
+	// Edges of the selection, holes included
+	private final double[] x1;
+	private final double[] y1;
+	private final double[] x2;
+	private final double[] y2;
+	private final int edgeCount;
+
+	private final List<double[]> circles = new ArrayList<>();
+	private final double minRadius;
+
+	// Indices of the circles overlapping each bucket of the bounding box
+	private final double originX;
+	private final double originY;
+	private final double bucketSize;
+	private final int bucketsX;
+	private final int bucketsY;
+	private final int[][] buckets;
+	private final int[] bucketCounts;
+
+	// Cells by decreasing bound on the distance of their points
+	private final PriorityQueue<Cell> cells = new PriorityQueue<>();
+
+	/**
+	 * @param roi the area selection to pack, which can have holes
+	 * @param minRadius the smallest radius of the circles to find, excluded
+	 */
+	PolygonPacking(Roi roi, double minRadius) {
+		this.minRadius = minRadius;
+		List<double[]> edges = getEdges(roi);
+		edgeCount = edges.size();
+		x1 = new double[edgeCount];
+		y1 = new double[edgeCount];
+		x2 = new double[edgeCount];
+		y2 = new double[edgeCount];
+		for (int k = 0; k < edgeCount; k++) {
+			double[] e = edges.get(k);
+			x1[k] = e[0];
+			y1[k] = e[1];
+			x2[k] = e[2];
+			y2[k] = e[3];
+		}
+
+		Rectangle2D.Double bounds = roi.getFloatBounds();
+		originX = bounds.x;
+		originY = bounds.y;
+		bucketSize = Math.max(PRECISION, Math.max(bounds.width, bounds.height) / BUCKETS);
+		bucketsX = Math.max(1, (int) Math.ceil(bounds.width / bucketSize));
+		bucketsY = Math.max(1, (int) Math.ceil(bounds.height / bucketSize));
+		buckets = new int[bucketsX * bucketsY][];
+		bucketCounts = new int[bucketsX * bucketsY];
+
+		// Cover the bounding box with square cells as large as its smallest side
+		double size = Math.min(bounds.width, bounds.height);
+		if (size <= 0) return;
+		for (double y = bounds.y; y < bounds.y + bounds.height; y += size) {
+			for (double x = bounds.x; x < bounds.x + bounds.width; x += size) {
+				add(new Cell(x + size / 2.0D, y + size / 2.0D, size / 2.0D));
+			}
+		}
+	}
+
+	/**
+	 * Get the largest circle that can currently be placed
+	 * @return the center x, center y and radius of the circle, or null if no circle is larger than the minimum radius
+	 */
+	double[] next() {
+		Cell best = null;
+		List<Cell> done = new ArrayList<>();
+		while (!cells.isEmpty()) {
+			Cell cell = cells.poll();
+			double distance = getDistance(cell.x, cell.y);
+			if (distance < cell.distance) {
+				// Circles were placed since the bound was computed
+				add(new Cell(cell.x, cell.y, cell.h, distance));
+				continue;
+			}
+			if (best == null || cell.distance > best.distance) best = cell;
+			if (cell.max - best.distance <= PRECISION) {
+				// No cell can hold a point farther than the best one
+				done.add(cell);
+				break;
+			}
+			// Split the cell, its center is still a candidate
+			double h = cell.h / 2.0D;
+			add(new Cell(cell.x - h, cell.y - h, h));
+			add(new Cell(cell.x + h, cell.y - h, h));
+			add(new Cell(cell.x - h, cell.y + h, h));
+			add(new Cell(cell.x + h, cell.y + h, h));
+			if (cell == best) done.add(new Cell(cell.x, cell.y, 0, cell.distance));
+		}
+		cells.addAll(done);
+		if (best == null || best.distance <= minRadius) return null;
+		return new double[]{best.x, best.y, best.distance};
+	}
+
+	/**
+	 * Place a circle, so that the next ones do not overlap it
+	 */
+	void place(double x, double y, double r) {
+		int index = circles.size();
+		circles.add(new double[]{x, y, r});
+		for (int by = getBucketY(y - r); by <= getBucketY(y + r); by++) {
+			for (int bx = getBucketX(x - r); bx <= getBucketX(x + r); bx++) {
+				int b = by * bucketsX + bx;
+				if (buckets[b] == null) {
+					buckets[b] = new int[4];
+				} else if (bucketCounts[b] == buckets[b].length) {
+					buckets[b] = Arrays.copyOf(buckets[b], 2 * bucketCounts[b]);
+				}
+				buckets[b][bucketCounts[b]++] = index;
+			}
+		}
+	}
+
+	private int getBucketX(double x) {
+		return Math.max(0, Math.min(bucketsX - 1, (int) Math.floor((x - originX) / bucketSize)));
+	}
+
+	private int getBucketY(double y) {
+		return Math.max(0, Math.min(bucketsY - 1, (int) Math.floor((y - originY) / bucketSize)));
+	}
+
+	/**
+	 * Keep a cell unless none of its points can ever be the center of a large enough circle, as distances only shrink
+	 */
+	private void add(Cell cell) {
+		if (cell.max > minRadius) cells.add(cell);
+	}
+
+	/**
+	 * @return the distance from a point to the closest edge or circle, negative outside of the selection or inside a circle
+	 */
+	double getDistance(double x, double y) {
+		boolean isInside = false;
+		double minSq = Double.MAX_VALUE;
+		for (int k = 0; k < edgeCount; k++) {
+			double ax = x1[k];
+			double ay = y1[k];
+			double bx = x2[k];
+			double by = y2[k];
+			// Crossings of a ray going right, even-odd rule
+			if ((ay > y) != (by > y) && x < (bx - ax) * (y - ay) / (by - ay) + ax) isInside = !isInside;
+			minSq = Math.min(minSq, getSegmentDistanceSq(x, y, ax, ay, bx, by));
+		}
+		// Outside of the selection, the circles can only make the distance smaller, which is never needed
+		if (!isInside) return -Math.sqrt(minSq);
+		double distance = Math.sqrt(minSq);
+
+		// Search the buckets ring by ring around the point, until they are all farther than the closest edge or circle
+		int cx = getBucketX(x);
+		int cy = getBucketY(y);
+		int rings = Math.max(bucketsX, bucketsY);
+		for (int k = 0; k < rings && (k - 1) * bucketSize < distance; k++) {
+			for (int by = Math.max(0, cy - k); by <= Math.min(bucketsY - 1, cy + k); by++) {
+				// Whole rows at the top and bottom of the ring, only both ends in between
+				boolean isRow = by == cy - k || by == cy + k;
+				for (int bx = Math.max(0, cx - k); bx <= Math.min(bucketsX - 1, cx + k); bx++) {
+					if (!isRow && bx != cx - k && bx != cx + k) continue;
+					distance = getCircleDistance(x, y, by * bucketsX + bx, distance);
+				}
+			}
+		}
+		return distance;
+	}
+
+	private double getCircleDistance(double x, double y, int bucket, double distance) {
+		for (int n = 0; n < bucketCounts[bucket]; n++) {
+			double[] c = circles.get(buckets[bucket][n]);
+			double dx = x - c[0];
+			double dy = y - c[1];
+			distance = Math.min(distance, Math.sqrt(dx * dx + dy * dy) - c[2]);
+		}
+		return distance;
+	}
+
+	private static double getSegmentDistanceSq(double px, double py, double ax, double ay, double bx, double by) {
+		double dx = bx - ax;
+		double dy = by - ay;
+		double lengthSq = dx * dx + dy * dy;
+		double t = lengthSq == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSq));
+		double ex = ax + t * dx - px;
+		double ey = ay + t * dy - py;
+		return ex * ex + ey * ey;
+	}
+
+	/**
+	 * @return the edges of the selection as x1, y1, x2, y2, curves being flattened
+	 */
+	private static List<double[]> getEdges(Roi roi) {
+		List<double[]> edges = new ArrayList<>();
+		if (roi instanceof ShapeRoi) {
+			PathIterator it = ((ShapeRoi) roi).getShape().getPathIterator(null, FLATNESS);
+			double[] p = new double[6];
+			double startX = 0, startY = 0, lastX = 0, lastY = 0;
+			for (; !it.isDone(); it.next()) {
+				int type = it.currentSegment(p);
+				if (type == PathIterator.SEG_MOVETO) {
+					if (lastX != startX || lastY != startY) edges.add(new double[]{lastX, lastY, startX, startY});
+					startX = lastX = p[0];
+					startY = lastY = p[1];
+				} else if (type == PathIterator.SEG_LINETO) {
+					edges.add(new double[]{lastX, lastY, p[0], p[1]});
+					lastX = p[0];
+					lastY = p[1];
+				} else if (type == PathIterator.SEG_CLOSE) {
+					edges.add(new double[]{lastX, lastY, startX, startY});
+					lastX = startX;
+					lastY = startY;
+				}
+			}
+			if (lastX != startX || lastY != startY) edges.add(new double[]{lastX, lastY, startX, startY});
+			// The shape is relative to the bounds of the selection
+			Rectangle2D.Double bounds = roi.getFloatBounds();
+			for (double[] e : edges) {
+				e[0] += bounds.x;
+				e[1] += bounds.y;
+				e[2] += bounds.x;
+				e[3] += bounds.y;
+			}
+		} else {
+			FloatPolygon polygon = roi.getFloatPolygon();
+			for (int k = 0; k < polygon.npoints; k++) {
+				int next = (k + 1) % polygon.npoints;
+				edges.add(new double[]{polygon.xpoints[k], polygon.ypoints[k], polygon.xpoints[next], polygon.ypoints[next]});
+			}
+		}
+		return edges;
+	}
+
+	/**
+	 * Square cell, with the distance at its center and a bound on the distance of its points
+	 */
+	private class Cell implements Comparable<Cell> {
+		private final double x;
+		private final double y;
+		private final double h;
+		private final double distance;
+		private final double max;
+
+		Cell(double x, double y, double h) {
+			this(x, y, h, getDistance(x, y));
+		}
+
+		Cell(double x, double y, double h, double distance) {
+			this.x = x;
+			this.y = y;
+			this.h = h;
+			this.distance = distance;
+			this.max = distance + h * SQRT2;
+		}
+
+		@Override
+		public int compareTo(Cell o) {
+			if (max != o.max) return Double.compare(o.max, max);
+			if (y != o.y) return Double.compare(y, o.y);
+			return Double.compare(x, o.x);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.gui.Roi;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+
+/**
+ * Greedy largest-first circle packing driven by a max-heap of candidate centers instead of a maxima search per circle.
+ *
+ * The largest distance of the map is always at a pixel that is at least as large as its 8 neighbours,
+ * so all such pixels are put in the heap, keyed by their distance. Distances only shrink as circles are cleared, so
+ * the key of an entry is never smaller than the current distance of its pixel: when the top entry is up to date, it is
+ * the largest distance of the map. Outdated entries are put back with their current distance if they are still
+ * candidates. After each circle, only the pixels of the recomputed area of the map can become new candidates.
+ */
+class PriorityQueuePacking {
+
+	private final IncrementalDistanceMap distanceMap;
+	private final float[] dist;
+	private final int width;
+	private final int height;
+	private final double minRadius;
+	private final Rectangle area;
+
+	private final CandidateHeap heap = new CandidateHeap();
+	// Number of candidates put in the heap, for the metrics
+	private long candidateCount;
+
+	/**
+	 * @param distanceMap the distance map, which is updated through {@link #clear(Roi)}
+	 * @param minRadius the smallest radius of the circles to find, excluded
+	 */
+	PriorityQueuePacking(IncrementalDistanceMap distanceMap, double minRadius) {
+		this(distanceMap, minRadius, null);
+	}
+
+	/**
+	 * @param distanceMap the distance map, which is updated through {@link #clear(Roi)}
+	 * @param minRadius the smallest radius of the circles to find, excluded
+	 * @param area the area of the distance map where circles can be centered, or null for the whole map
+	 */
+	PriorityQueuePacking(IncrementalDistanceMap distanceMap, double minRadius, Rectangle area) {
+		this.distanceMap = distanceMap;
+		FloatProcessor fp = distanceMap.getProcessor();
+		this.dist = (float[]) fp.getPixels();
+		this.width = fp.getWidth();
+		this.height = fp.getHeight();
+		this.minRadius = minRadius;
+		this.area = area == null ? new Rectangle(0, 0, width, height) : area.intersection(new Rectangle(0, 0, width, height));
+		addCandidates(this.area);
+	}
+
+	/**
+	 * Get the center of the largest circle that can currently be placed
+	 * @return the index of the pixel with the largest distance, or -1 if no distance is larger than the minimum radius
+	 */
+	int next() {
+		while (!heap.isEmpty()) {
+			float key = heap.topKey();
+			int pixel = heap.topPixel();
+			heap.pop();
+			if (key == dist[pixel]) return pixel;
+			// The distance shrunk since the pixel was added, keep it if it is still a candidate
+			if (isCandidate(pixel % width, pixel / width)) heap.push(dist[pixel], pixel);
+		}
+		return -1;
+	}
+
+	/**
+	 * Put back a pixel returned by {@link #next()} that was not used
+	 * @param pixel the index of the pixel
+	 */
+	void putBack(int pixel) {
+		heap.push(dist[pixel], pixel);
+	}
+
+	/**
+	 * Clear a circle from the mask, update the distance map and add the new candidates around it
+	 * @param roi the circle to clear
+	 */
+	void clear(Roi roi) {
+		clear(roi.getBounds(), roi.getMask());
+	}
+
+	/**
+	 * Clear a circle from the mask, update the distance map and add the new candidates around it
+	 * @param bounds the bounds of the circle, which can extend outside of the mask
+	 * @param roiMask the pixels of the circle within its bounds
+	 */
+	void clear(Rectangle bounds, ImageProcessor roiMask) {
+		Rectangle updated = distanceMap.clear(bounds, roiMask);
+		if (updated == null) return;
+		// The neighbours of the updated pixels may have become local maxima as well
+		updated.grow(1, 1);
+		addCandidates(updated.intersection(area));
+	}
+
+	/**
+	 * @return how many candidate centers were found, when building the heap and around the cleared circles
+	 */
+	long getCandidateCount() {
+		return candidateCount;
+	}
+
+	private void addCandidates(Rectangle r) {
+		for (int y = r.y; y < r.y + r.height; y++) {
+			for (int x = r.x; x < r.x + r.width; x++) {
+				if (isCandidate(x, y)) {
+					heap.push(dist[y * width + x], y * width + x);
+					candidateCount++;
+				}
+			}
+		}
+	}
+
+	private boolean isCandidate(int x, int y) {
+		float d = dist[y * width + x];
+		if (d <= minRadius) return false;
+		for (int yy = Math.max(0, y - 1); yy <= Math.min(height - 1, y + 1); yy++) {
+			for (int xx = Math.max(0, x - 1); xx <= Math.min(width - 1, x + 1); xx++) {
+				if (dist[yy * width + xx] > d) return false;
+			}
+		}
+		return true;
+	}
+}
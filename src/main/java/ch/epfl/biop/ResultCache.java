@@ -0,0 +1,391 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.Line;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.gui.ShapeRoi;
+import ij.process.FloatPolygon;
+import ij.process.ImageProcessor;
+
+import java.awt.Color;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the results of each slice, object of a label image or selection on disk, so that processing the same mask
+ * with the same settings again reads them back instead of searching the circles, see {@link MaxInscribedCircles.Builder#cache(ResultCache)}.
+ *
+ * Results are stored in one file per mask, named by a SHA-256 hash of its pixels, of its selection and of the settings.
+ * Identical masks share their file, whatever the image, slice or position they come from. Once the files take more
+ * than the size limit, the least recently used ones are deleted. The order of use is kept in the modification times
+ * of the files, so that it carries over to the next runs.
+ *
+ * One cache can be used by several {@link MaxInscribedCircles} at the same time. Failing to read or write the cache
+ * is logged, and the results are searched like without it.
+ */
+public class ResultCache {
+
+	/**
+	 * Version of the results, part of each hash: changing how circles or spines are found must increase it,
+	 * so that results of older versions are never read back
+	 */
+	static final int VERSION = 1;
+
+	private static final String EXTENSION = ".mic";
+
+	private final Path folder;
+	private final long maxBytes;
+
+	// Size of each file by hash, least recently used first
+	private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75F, true);
+	private long totalBytes;
+
+	/**
+	 * Open a cache folder, creating it if needed
+	 * @param folder the folder the results are stored in
+	 * @param maxBytes the largest size of the stored results, in bytes
+	 * @throws IOException if the folder cannot be created or listed
+	 */
+	public ResultCache(Path folder, long maxBytes) throws IOException {
+		if (maxBytes <= 0) throw new IllegalArgumentException("Cache size must be positive");
+		this.folder = folder;
+		this.maxBytes = maxBytes;
+		Files.createDirectories(folder);
+
+		List<Path> paths;
+		try (Stream<Path> s = Files.list(folder)) {
+			paths = s.filter(p -> p.getFileName().toString().endsWith(EXTENSION)).collect(Collectors.toList());
+		}
+		Map<Path, FileTime> times = new LinkedHashMap<>();
+		for (Path p : paths) {
+			times.put(p, Files.getLastModifiedTime(p));
+		}
+		paths.sort(Comparator.comparing(times::get));
+		for (Path p : paths) {
+			String name = p.getFileName().toString();
+			long size = Files.size(p);
+			files.put(name.substring(0, name.length() - EXTENSION.length()), size);
+			totalBytes += size;
+		}
+		evict();
+	}
+
+	/**
+	 * @return the folder the results are stored in
+	 */
+	public Path getFolder() {
+		return folder;
+	}
+
+	/**
+	 * @return the size of the stored results, in bytes
+	 */
+	public synchronized long getSize() {
+		return totalBytes;
+	}
+
+	/**
+	 * Get the hash of a mask, its selection and the settings it is processed with
+	 * @param mask the mask, with its selection if any
+	 * @param settings all the settings the results depend on
+	 * @return the hash, in hexadecimal
+	 */
+	String getKey(ImagePlus mask, String settings) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+		ImageProcessor ip = mask.getProcessor();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(VERSION);
+			out.writeUTF(settings);
+			out.writeInt(ip.getWidth());
+			out.writeInt(ip.getHeight());
+			out.writeInt(ip.getBitDepth());
+			writeShape(out, mask.getRoi());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		md.update(bytes.toByteArray());
+		updatePixels(md, ip.getPixels());
+
+		StringBuilder key = new StringBuilder();
+		for (byte b : md.digest()) {
+			key.append(String.format("%02x", b));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Write the outline of a selection, which is all that matters of it to find circles
+	 */
+	private static void writeShape(DataOutputStream out, Roi roi) throws IOException {
+		if (roi == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(roi.getType());
+		Rectangle2D.Double bounds = roi.getFloatBounds();
+		out.writeDouble(bounds.x);
+		out.writeDouble(bounds.y);
+		out.writeDouble(bounds.width);
+		out.writeDouble(bounds.height);
+		if (roi instanceof ShapeRoi) {
+			double[] p = new double[6];
+			for (PathIterator it = ((ShapeRoi) roi).getShape().getPathIterator(null); !it.isDone(); it.next()) {
+				out.writeInt(it.currentSegment(p));
+				for (double v : p) {
+					out.writeDouble(v);
+				}
+			}
+		} else if (roi.getType() == Roi.RECTANGLE) {
+			out.writeInt(roi.getCornerDiameter());
+		} else {
+			FloatPolygon polygon = roi.getFloatPolygon();
+			for (int k = 0; k < polygon.npoints; k++) {
+				out.writeFloat(polygon.xpoints[k]);
+				out.writeFloat(polygon.ypoints[k]);
+			}
+		}
+	}
+
+	private static void updatePixels(MessageDigest md, Object pixels) {
+		if (pixels instanceof byte[]) {
+			md.update((byte[]) pixels);
+		} else if (pixels instanceof short[]) {
+			short[] p = (short[]) pixels;
+			ByteBuffer buffer = ByteBuffer.allocate(2 * p.length);
+			buffer.asShortBuffer().put(p);
+			md.update(buffer.array());
+		} else if (pixels instanceof float[]) {
+			float[] p = (float[]) pixels;
+			ByteBuffer buffer = ByteBuffer.allocate(4 * p.length);
+			buffer.asFloatBuffer().put(p);
+			md.update(buffer.array());
+		} else if (pixels instanceof int[]) {
+			int[] p = (int[]) pixels;
+			ByteBuffer buffer = ByteBuffer.allocate(4 * p.length);
+			buffer.asIntBuffer().put(p);
+			md.update(buffer.array());
+		}
+	}
+
+	/**
+	 * Read back the results of a mask
+	 * @param key the hash of the mask, see {@link #getKey(ImagePlus, String)}
+	 * @param appendPositionToName whether to append the slice to the names of the circles
+	 * @return the results, in the coordinates of the mask and not placed yet, or null if they are not in the cache
+	 */
+	MaxInscribedCircles.Result get(String key, boolean appendPositionToName) {
+		synchronized (this) {
+			// Marks it as the most recently used
+			if (files.get(key) == null) return null;
+		}
+		Path path = getPath(key);
+		try {
+			byte[] data = Files.readAllBytes(path);
+			Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+			return decode(data, appendPositionToName);
+		} catch (NoSuchFileException e) {
+			// Deleted by another process
+			remove(key);
+			return null;
+		} catch (IOException e) {
+			IJ.log("Cannot read " + path + " from the cache: " + e.getMessage());
+			remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * Store the results of a mask, then delete the least recently used results if the cache is too large
+	 * @param key the hash of the mask, see {@link #getKey(ImagePlus, String)}
+	 * @param result the results, in the coordinates of the mask and not placed yet
+	 */
+	void put(String key, MaxInscribedCircles.Result result) {
+		Path path = getPath(key);
+		try {
+			byte[] data = encode(result);
+			// Written aside and moved, so that other processes never read half a file
+			Path tmp = Files.createTempFile(folder, key, ".tmp");
+			try {
+				Files.write(tmp, data);
+				Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+			synchronized (this) {
+				Long previous = files.put(key, (long) data.length);
+				totalBytes += data.length - (previous == null ? 0 : previous);
+				evict();
+			}
+		} catch (IOException e) {
+			IJ.log("Cannot write " + path + " to the cache: " + e.getMessage());
+		}
+	}
+
+	private synchronized void remove(String key) {
+		Long size = files.remove(key);
+		if (size != null) totalBytes -= size;
+	}
+
+	/**
+	 * Delete the least recently used results until the cache is small enough
+	 */
+	private synchronized void evict() {
+		Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> entry = it.next();
+			try {
+				Files.deleteIfExists(getPath(entry.getKey()));
+			} catch (NoSuchFileException e) {
+				// Already deleted by another process
+			} catch (IOException e) {
+				IJ.log("Cannot delete " + getPath(entry.getKey()) + " from the cache: " + e.getMessage());
+			}
+			totalBytes -= entry.getValue();
+			it.remove();
+		}
+	}
+
+	private Path getPath(String key) {
+		return folder.resolve(key + EXTENSION);
+	}
+
+	/**
+	 * @return the centers and radii of the circles, then the spine and its parts. ROI files would round the ends of the parts to floats
+	 */
+	private static byte[] encode(MaxInscribedCircles.Result result) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(VERSION);
+			CircleTable circles = result.getCircleTable();
+			out.writeInt(circles.size());
+			for (int i = 0; i < circles.size(); i++) {
+				out.writeDouble(circles.getX(i));
+				out.writeDouble(circles.getY(i));
+				out.writeDouble(circles.getRadius(i));
+			}
+			List<Roi> rois = new ArrayList<>();
+			if (result.getSpine() != null) rois.add(result.getSpine());
+			rois.addAll(result.getSpineParts());
+			out.writeInt(rois.size());
+			for (Roi roi : rois) {
+				writeLine(out, roi);
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	private static MaxInscribedCircles.Result decode(byte[] data, boolean appendPositionToName) throws IOException {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+			if (in.readInt() != VERSION) throw new IOException("Unknown version");
+			CircleTable circles = new CircleTable(appendPositionToName);
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				circles.add(in.readDouble(), in.readDouble(), in.readDouble());
+			}
+			List<Roi> rois = new ArrayList<>();
+			int count = in.readInt();
+			for (int k = 0; k < count; k++) {
+				rois.add(readLine(in));
+			}
+			Roi spine = rois.isEmpty() ? null : rois.get(0);
+			return new MaxInscribedCircles.Result(circles, spine, rois.isEmpty() ? rois : rois.subList(1, rois.size()));
+		}
+	}
+
+	/**
+	 * Write a spine, a polyline, or one of its parts, a straight line, with its name and stroke
+	 */
+	private static void writeLine(DataOutputStream out, Roi roi) throws IOException {
+		out.writeUTF(roi.getName() == null ? "" : roi.getName());
+		out.writeInt(roi.getStrokeColor() == null ? 0 : roi.getStrokeColor().getRGB());
+		out.writeFloat(roi.getStrokeWidth());
+		if (roi instanceof Line) {
+			Line line = (Line) roi;
+			out.writeInt(-1);
+			out.writeDouble(line.x1d);
+			out.writeDouble(line.y1d);
+			out.writeDouble(line.x2d);
+			out.writeDouble(line.y2d);
+		} else {
+			FloatPolygon polygon = roi.getFloatPolygon();
+			out.writeInt(polygon.npoints);
+			for (int k = 0; k < polygon.npoints; k++) {
+				out.writeFloat(polygon.xpoints[k]);
+				out.writeFloat(polygon.ypoints[k]);
+			}
+		}
+	}
+
+	private static Roi readLine(DataInputStream in) throws IOException {
+		String name = in.readUTF();
+		int color = in.readInt();
+		float strokeWidth = in.readFloat();
+		int n = in.readInt();
+		Roi roi;
+		if (n < 0) {
+			roi = new Line(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+		} else {
+			float[] x = new float[n];
+			float[] y = new float[n];
+			for (int k = 0; k < n; k++) {
+				x[k] = in.readFloat();
+				y[k] = in.readFloat();
+			}
+			roi = new PolygonRoi(x, y, Roi.POLYLINE);
+		}
+		if (!name.isEmpty()) roi.setName(name);
+		if (color != 0) roi.setStrokeColor(new Color(color, true));
+		roi.setStrokeWidth(strokeWidth);
+		return roi;
+	}
+}
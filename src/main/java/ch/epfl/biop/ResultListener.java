@@ -0,0 +1,48 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.gui.Roi;
+
+/**
+ * Receives the circles as they are found and the results of each slice as soon as it is done, while
+ * {@link MaxInscribedCircles#process()} runs, see {@link MaxInscribedCircles.Builder#stream(ResultListener, int)}.
+ *
+ * Both methods are called synchronously: the search waits for them to return, so a slow listener slows the search down
+ * instead of results piling up in memory.
+ */
+public interface ResultListener {
+
+	/**
+	 * Called for each circle right after it is found, largest first within a slice. The circle is already named,
+	 * positioned on its slice and placed in the image. Slices can be searched at the same time, so this can be called
+	 * from several threads at once, in no particular order across slices
+	 * @param circle the circle
+	 */
+	void circleFound(Roi circle);
+
+	/**
+	 * Called on the thread calling process(), in slice order, with the circles and spine of a slice or of an object of a label image
+	 * @param result the result of the slice
+	 */
+	void sliceProcessed(MaxInscribedCircles.Result result);
+}
@@ -0,0 +1,125 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.gui.Roi;
+import ij.io.RoiEncoder;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes circles and spines to files in one go, instead of adding them one by one to the ROI Manager,
+ * which takes longer than finding them when there are many
+ */
+public class ResultWriter {
+
+	private ResultWriter() {
+	}
+
+	/**
+	 * Write the circles and spines found by process() as name_rois.zip and name_circles.csv
+	 * @param mic the processed circle finder
+	 * @param folder the folder to write to, which must exist
+	 * @param name the start of the names of the files
+	 * @throws IOException if a file cannot be written
+	 */
+	public static void write(MaxInscribedCircles mic, Path folder, String name) throws IOException {
+		writeRois(mic.getCircleTable(), mic.getSpines(), folder.resolve(name + "_rois.zip"));
+		writeTable(mic.getCircleTable(), mic.getSpines(), folder.resolve(name + "_circles.csv"));
+	}
+
+	/**
+	 * Write the ROIs in a zip file, like the ROI Manager does, numbering them to keep names unique
+	 * @param rois the ROIs to write
+	 * @param path the zip file
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void writeRois(List<Roi> rois, Path path) throws IOException {
+		writeRois(new CircleTable(), rois, path);
+	}
+
+	/**
+	 * Write the circles then the spines in a zip file, like the ROI Manager does, numbering them to keep names unique.
+	 * The ROI of each circle is only made while it is written.
+	 * @param circles the circles to write
+	 * @param spines the spines to write
+	 * @param path the zip file
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void writeRois(CircleTable circles, List<Roi> spines, Path path) throws IOException {
+		try (OutputStream os = Files.newOutputStream(path);
+			 ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(os));
+			 DataOutputStream out = new DataOutputStream(zos)) {
+			RoiEncoder encoder = new RoiEncoder(out);
+			for (int i = 0; i < circles.size(); i++) {
+				writeRoi(zos, out, encoder, i + 1, circles.getRoi(i));
+			}
+			for (int k = 0; k < spines.size(); k++) {
+				writeRoi(zos, out, encoder, circles.size() + k + 1, spines.get(k));
+			}
+		}
+	}
+
+	private static void writeRoi(ZipOutputStream zos, DataOutputStream out, RoiEncoder encoder, int number, Roi roi) throws IOException {
+		zos.putNextEntry(new ZipEntry(String.format("%04d-%s.roi", number, roi.getName())));
+		encoder.write(roi);
+		out.flush();
+	}
+
+	/**
+	 * Write one row per circle and per spine, with the center and diameter of the circles and the length of the spines
+	 * @param circles the circles
+	 * @param spines the spines
+	 * @param path the CSV file
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void writeTable(CircleTable circles, List<Roi> spines, Path path) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+			out.println("Type,Name,Slice,Label,X,Y,Diameter,Length");
+			for (int i = 0; i < circles.size(); i++) {
+				int label = circles.getLabel(i);
+				out.println(String.format(Locale.ROOT, "Circle,%s,%d,%s,%.3f,%.3f,%.3f,",
+						circles.getName(i), circles.getSlice(i), label > 0 ? String.valueOf(label) : "",
+						circles.getX(i), circles.getY(i), circles.getRadius(i) * 2.0D));
+			}
+			for (Roi r : spines) {
+				out.println(String.format(Locale.ROOT, "Spine,%s,%d,%s,,,,%.3f", r.getName(), r.getPosition(), getLabel(r), r.getLength()));
+			}
+		}
+	}
+
+	private static String getLabel(Roi r) {
+		String label = r.getProperty(MaxInscribedCircles.LABEL_PROPERTY);
+		return label == null ? "" : label;
+	}
+}
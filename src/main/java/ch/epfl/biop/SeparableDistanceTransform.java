@@ -0,0 +1,240 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.process.ImageProcessor;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Exact 2D Euclidean distance transform, computed as a pass over the rows followed by a pass over the columns,
+ * using the lower envelope of parabolas (Felzenszwalb and Huttenlocher, Distance Transforms of Sampled Functions).
+ * Each pass is split into blocks of lines that run on a fork-join pool.
+ */
+public class SeparableDistanceTransform implements DistanceTransform {
+
+	// Marks pixels with no site in the squared distance images
+	static final int INF = Integer.MAX_VALUE;
+
+	private static final int LINES_PER_TASK = 32;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Distance transform running on the common fork-join pool
+	 */
+	public SeparableDistanceTransform() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param pool the pool to split the row and column passes on
+	 */
+	public SeparableDistanceTransform(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	@Override
+	public float[] compute(ImageProcessor mask, float[] output) {
+		final int w = mask.getWidth();
+		final int h = mask.getHeight();
+		if (output == null || output.length < w * h) output = new float[w * h];
+
+		// Squared distances need to be kept as integers to stay exact on large images
+		final int[] sq = new int[w * h];
+		final float[] distances = output;
+
+		pool.invoke(new Lines(0, h, (from, to) -> {
+			int[] f = new int[w];
+			Envelope envelope = new Envelope(w);
+			for (int y = from; y < to; y++) {
+				for (int x = 0; x < w; x++) f[x] = mask.get(y * w + x) != 0 ? INF : 0;
+				envelope.transform(f, w);
+				System.arraycopy(envelope.d, 0, sq, y * w, w);
+			}
+		}));
+
+		pool.invoke(new Lines(0, w, (from, to) -> {
+			int[] f = new int[h];
+			Envelope envelope = new Envelope(h);
+			for (int x = from; x < to; x++) {
+				for (int y = 0; y < h; y++) f[y] = sq[y * w + x];
+				envelope.transform(f, h);
+				for (int y = 0; y < h; y++) distances[y * w + x] = toDistance(envelope.d[y]);
+			}
+		}));
+
+		return output;
+	}
+
+	/**
+	 * Convert a squared distance to the float distance. Pixels are only left without a site when the whole image has
+	 * no background, which callers reject before packing circles, or in the windows of local updates, where the
+	 * largest value leaves the distances already known unchanged
+	 */
+	static float toDistance(int sq) {
+		return sq == INF ? Float.MAX_VALUE : (float) Math.sqrt(sq);
+	}
+
+	/**
+	 * Squared distance map of a mask on the calling thread, finding its largest value during the column pass
+	 * instead of searching it afterwards
+	 * @param mask the mask, non-zero pixels are foreground
+	 * @param sq an array of at least width * height values to write the squared distances to, row by row
+	 * @return the indices of all the pixels with the largest squared distance, sorted, or none if there is no foreground
+	 */
+	static int[] transformToMaxima(ImageProcessor mask, int[] sq) {
+		int w = mask.getWidth();
+		int h = mask.getHeight();
+		int[] f = new int[Math.max(w, h)];
+		Envelope envelope = new Envelope(Math.max(w, h));
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) f[x] = mask.get(y * w + x) != 0 ? INF : 0;
+			envelope.transform(f, w);
+			System.arraycopy(envelope.d, 0, sq, y * w, w);
+		}
+
+		int max = 1;
+		int[] maxima = new int[16];
+		int count = 0;
+		for (int x = 0; x < w; x++) {
+			for (int y = 0; y < h; y++) f[y] = sq[y * w + x];
+			envelope.transform(f, h);
+			for (int y = 0; y < h; y++) {
+				int d = envelope.d[y];
+				sq[y * w + x] = d;
+				if (d < max) continue;
+				if (d > max) {
+					max = d;
+					count = 0;
+				}
+				if (count == maxima.length) maxima = Arrays.copyOf(maxima, 2 * count);
+				maxima[count++] = y * w + x;
+			}
+		}
+		// Columns are scanned one after the other
+		int[] sorted = Arrays.copyOf(maxima, count);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Squared distance transform of a w x h image in place, on the calling thread.
+	 * Sites have value 0 and all other pixels {@link #INF}.
+	 * @param data the image, row by row
+	 * @param envelope buffers for lines at least max(w, h) long
+	 */
+	static void transform(int[] data, int w, int h, int[] f, Envelope envelope) {
+		for (int y = 0; y < h; y++) {
+			System.arraycopy(data, y * w, f, 0, w);
+			envelope.transform(f, w);
+			System.arraycopy(envelope.d, 0, data, y * w, w);
+		}
+		for (int x = 0; x < w; x++) {
+			for (int y = 0; y < h; y++) f[y] = data[y * w + x];
+			envelope.transform(f, h);
+			for (int y = 0; y < h; y++) data[y * w + x] = envelope.d[y];
+		}
+	}
+
+	/**
+	 * Buffers and result of the one dimensional squared distance transform
+	 */
+	static class Envelope {
+		final int[] d;
+		private final int[] v;
+		private final double[] z;
+
+		Envelope(int n) {
+			d = new int[n];
+			v = new int[n];
+			z = new double[n + 1];
+		}
+
+		/**
+		 * One dimensional squared distance transform, result is in {@link #d}
+		 * @param f input squared distances, {@link #INF} where there is no site
+		 * @param n number of samples
+		 */
+		void transform(int[] f, int n) {
+			int k = -1;
+			for (int q = 0; q < n; q++) {
+				if (f[q] == INF) continue;
+				double s = 0;
+				while (k >= 0) {
+					int p = v[k];
+					s = ((f[q] + (double) q * q) - (f[p] + (double) p * p)) / (2.0 * (q - p));
+					if (s > z[k]) break;
+					k--;
+				}
+				k++;
+				v[k] = q;
+				z[k] = k == 0 ? Double.NEGATIVE_INFINITY : s;
+				z[k + 1] = Double.POSITIVE_INFINITY;
+			}
+
+			if (k < 0) {
+				for (int q = 0; q < n; q++) d[q] = INF;
+				return;
+			}
+
+			int j = 0;
+			for (int q = 0; q < n; q++) {
+				while (z[j + 1] < q) j++;
+				long dq = q - v[j];
+				long value = dq * dq + f[v[j]];
+				d[q] = value >= INF ? INF : (int) value;
+			}
+		}
+	}
+
+	private interface LineRange {
+		void run(int from, int to);
+	}
+
+	/**
+	 * Splits a range of lines in blocks of {@link #LINES_PER_TASK}
+	 */
+	private static class Lines extends RecursiveAction {
+		private final int from;
+		private final int to;
+		private final LineRange range;
+
+		Lines(int from, int to, LineRange range) {
+			this.from = from;
+			this.to = to;
+			this.range = range;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= LINES_PER_TASK) {
+				range.run(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Lines(from, mid, range), new Lines(mid, to, range));
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Exact 3D Euclidean distance transform with anisotropic voxels, computed as passes along x, y and z
+ * using the lower envelope of parabolas, like {@link SeparableDistanceTransform}.
+ * The x and y passes are split in blocks of slices, the z pass in blocks of rows, that run on a fork-join pool.
+ */
+class SeparableDistanceTransform3D {
+
+	// Marks voxels with no site in the squared distance volumes
+	static final float INF = Float.POSITIVE_INFINITY;
+
+	private static final int LINES_PER_TASK = 4;
+
+	private final ForkJoinPool pool;
+	private final double wx2;
+	private final double wy2;
+	private final double wz2;
+
+	/**
+	 * @param pool the pool to split the passes on
+	 * @param wx the size of a voxel along x
+	 * @param wy the size of a voxel along y
+	 * @param wz the size of a voxel along z
+	 */
+	SeparableDistanceTransform3D(ForkJoinPool pool, double wx, double wy, double wz) {
+		this.pool = pool;
+		this.wx2 = wx * wx;
+		this.wy2 = wy * wy;
+		this.wz2 = wz * wz;
+	}
+
+	/**
+	 * Squared distance transform of a w x h x d volume in place.
+	 * Sites have value 0 and all other voxels {@link #INF}.
+	 * @param data the volume, slice by slice and row by row
+	 * @param parallel whether to split the passes on the pool, or run them on the calling thread
+	 */
+	void transform(float[] data, int w, int h, int d, boolean parallel) {
+		final int slice = w * h;
+		run(parallel, d, (from, to) -> {
+			Envelope envelope = new Envelope(Math.max(w, h));
+			for (int z = from; z < to; z++) {
+				for (int y = 0; y < h; y++) {
+					int offset = z * slice + y * w;
+					for (int x = 0; x < w; x++) envelope.f[x] = data[offset + x];
+					envelope.transform(w, wx2);
+					for (int x = 0; x < w; x++) data[offset + x] = (float) envelope.d[x];
+				}
+				for (int x = 0; x < w; x++) {
+					int offset = z * slice + x;
+					for (int y = 0; y < h; y++) envelope.f[y] = data[offset + y * w];
+					envelope.transform(h, wy2);
+					for (int y = 0; y < h; y++) data[offset + y * w] = (float) envelope.d[y];
+				}
+			}
+		});
+		if (d == 1) return;
+		run(parallel, h, (from, to) -> {
+			Envelope envelope = new Envelope(d);
+			for (int y = from; y < to; y++) {
+				for (int x = 0; x < w; x++) {
+					int offset = y * w + x;
+					for (int z = 0; z < d; z++) envelope.f[z] = data[offset + z * slice];
+					envelope.transform(d, wz2);
+					for (int z = 0; z < d; z++) data[offset + z * slice] = (float) envelope.d[z];
+				}
+			}
+		});
+	}
+
+	private void run(boolean parallel, int n, LineRange range) {
+		if (parallel) {
+			pool.invoke(new Lines(0, n, range));
+		} else {
+			range.run(0, n);
+		}
+	}
+
+	/**
+	 * Buffers and result of the one dimensional squared distance transform with a weight
+	 */
+	private static class Envelope {
+		private final double[] f;
+		private final double[] d;
+		private final int[] v;
+		private final double[] z;
+
+		Envelope(int n) {
+			f = new double[n];
+			d = new double[n];
+			v = new int[n];
+			z = new double[n + 1];
+		}
+
+		/**
+		 * One dimensional squared distance transform of {@link #f}, result is in {@link #d}
+		 * @param n number of samples
+		 * @param w2 squared size of a sample
+		 */
+		void transform(int n, double w2) {
+			int k = -1;
+			for (int q = 0; q < n; q++) {
+				if (f[q] == INF) continue;
+				double s = 0;
+				while (k >= 0) {
+					int p = v[k];
+					s = ((f[q] + w2 * q * q) - (f[p] + w2 * p * p)) / (2.0 * w2 * (q - p));
+					if (s > z[k]) break;
+					k--;
+				}
+				k++;
+				v[k] = q;
+				z[k] = k == 0 ? Double.NEGATIVE_INFINITY : s;
+				z[k + 1] = Double.POSITIVE_INFINITY;
+			}
+
+			if (k < 0) {
+				for (int q = 0; q < n; q++) d[q] = INF;
+				return;
+			}
+
+			int j = 0;
+			for (int q = 0; q < n; q++) {
+				while (z[j + 1] < q) j++;
+				double dq = q - v[j];
+				d[q] = w2 * dq * dq + f[v[j]];
+			}
+		}
+	}
+
+	private interface LineRange {
+		void run(int from, int to);
+	}
+
+	/**
+	 * Splits a range of lines in blocks of {@link #LINES_PER_TASK}
+	 */
+	private static class Lines extends RecursiveAction {
+		private final int from;
+		private final int to;
+		private final LineRange range;
+
+		Lines(int from, int to, LineRange range) {
+			this.from = from;
+			this.to = to;
+			this.range = range;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= LINES_PER_TASK) {
+				range.run(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Lines(from, mid, range), new Lines(mid, to, range));
+		}
+	}
+}
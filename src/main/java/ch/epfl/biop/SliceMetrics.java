@@ -0,0 +1,174 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+/**
+ * Durations and counts of the circle and spine finding of one slice, one object of a label image or one selection of a set
+ */
+public class SliceMetrics {
+
+	/**
+	 * The phases the time of a slice is split into
+	 */
+	public enum Phase {
+		/**
+		 * Making the mask of the distance map: upsampling, cropping and padding
+		 */
+		RESIZE,
+		/**
+		 * Computing the distance map of the whole mask
+		 */
+		DISTANCE_MAP,
+		/**
+		 * Finding the maxima of the distance map, or taking the next center from the priority queue
+		 */
+		MAXIMA,
+		/**
+		 * Sorting the maxima and checking their neighbours to pick the next circle
+		 */
+		CANDIDATES,
+		/**
+		 * Filling the circles in the mask and updating the distance map around them
+		 */
+		FILL,
+		/**
+		 * Finding the circles tile by tile, when tiling
+		 */
+		TILES,
+		/**
+		 * Finding the circles from the edges of the selection, with the polygon engine
+		 */
+		POLYGON,
+		/**
+		 * Tracing the spine through the circles
+		 */
+		SPINE,
+		/**
+		 * Hashing the mask, and reading or writing its results in the cache
+		 */
+		CACHE
+	}
+
+	private final int slice;
+	private final int label;
+	private final long[] nanos = new long[Phase.values().length];
+	private long totalNanos;
+	private long iterations;
+	private long candidates;
+	private long circles;
+
+	SliceMetrics(int slice, int label) {
+		this.slice = slice;
+		this.label = label;
+	}
+
+	/**
+	 * Add the time since the start of a phase to it
+	 * @param phase the phase that just ended
+	 * @param start the {@link System#nanoTime()} at the start of the phase
+	 * @return the current {@link System#nanoTime()}, the start of the next phase
+	 */
+	long lap(Phase phase, long start) {
+		long now = System.nanoTime();
+		nanos[phase.ordinal()] += now - start;
+		return now;
+	}
+
+	void setTotalNanos(long totalNanos) {
+		this.totalNanos = totalNanos;
+	}
+
+	void addIteration(long candidates) {
+		this.iterations++;
+		this.candidates += candidates;
+	}
+
+	void addCandidates(long candidates) {
+		this.candidates += candidates;
+	}
+
+	void addCircles(long circles) {
+		this.circles += circles;
+	}
+
+	/**
+	 * @return the slice, 1-based
+	 */
+	public int getSlice() {
+		return slice;
+	}
+
+	/**
+	 * @return the label of the object, or 0 if this is not a label image
+	 */
+	public int getLabel() {
+		return label;
+	}
+
+	/**
+	 * @param phase the phase
+	 * @return the time spent in the phase, in nanoseconds
+	 */
+	public long getNanos(Phase phase) {
+		return nanos[phase.ordinal()];
+	}
+
+	/**
+	 * @return the time spent on the slice, in nanoseconds, including what is not part of a phase
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * @return how many times the next circle was searched, which is the number of circles plus one per search that ended
+	 */
+	public long getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return how many candidate centers were looked at: maxima found over all iterations, or centers put in the priority queue
+	 */
+	public long getCandidates() {
+		return candidates;
+	}
+
+	/**
+	 * @return the number of circles accepted
+	 */
+	public long getCircles() {
+		return circles;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Slice ").append(slice);
+		if (label > 0) sb.append(" Label ").append(label);
+		sb.append(String.format(": %.1f ms", totalNanos / 1e6));
+		for (Phase phase : Phase.values()) {
+			if (nanos[phase.ordinal()] > 0) sb.append(String.format(", %s %.1f ms", phase, nanos[phase.ordinal()] / 1e6));
+		}
+		return sb.append(", ").append(iterations).append(" iterations, ").append(candidates).append(" candidates, ")
+				.append(circles).append(" circles").toString();
+	}
+}
@@ -0,0 +1,267 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Greedy largest-first sphere packing of a 3D mask with anisotropic voxels, the 3D counterpart of
+ * {@link IncrementalDistanceMap} and {@link PriorityQueuePacking} together.
+ *
+ * The distance map is computed once. After each sphere, only the voxels closer to the cleared voxels than the
+ * current largest distance are recomputed, and only they can become new candidate centers.
+ */
+class SpherePacking {
+
+	// Side of the blocks used to keep track of the largest distance without scanning the whole map
+	private static final int BLOCK = 16;
+	// Local updates smaller than this run on the calling thread
+	private static final int PARALLEL_VOXELS = 1 << 20;
+
+	private final byte[] mask;
+	private final int width;
+	private final int height;
+	private final int depth;
+	private final double wx;
+	private final double wy;
+	private final double wz;
+	private final double minRadius;
+	private final float[] dist;
+	private final SeparableDistanceTransform3D transform;
+	private final CandidateHeap heap = new CandidateHeap();
+
+	private final int blocksX;
+	private final int blocksY;
+	private final float[] blockMax;
+
+	// Buffer for the local updates, grown on demand
+	private float[] local = new float[0];
+
+	/**
+	 * Compute the distance map of the mask and collect the candidate centers
+	 * @param mask the mask, slice by slice and row by row, non-zero voxels are foreground. It is modified by {@link #clear(int, double)}
+	 * @param wx the size of a voxel along x
+	 * @param wy the size of a voxel along y
+	 * @param wz the size of a voxel along z
+	 * @param minRadius the smallest radius of the spheres to find, excluded
+	 * @param pool the pool to compute the distance map on
+	 * @throws IllegalArgumentException if the mask has no background voxel
+	 */
+	SpherePacking(byte[] mask, int width, int height, int depth, double wx, double wy, double wz, double minRadius, ForkJoinPool pool) {
+		this.mask = mask;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.wx = wx;
+		this.wy = wy;
+		this.wz = wz;
+		this.minRadius = minRadius;
+		this.transform = new SeparableDistanceTransform3D(pool, wx, wy, wz);
+
+		this.dist = new float[mask.length];
+		for (int i = 0; i < mask.length; i++) {
+			dist[i] = mask[i] != 0 ? SeparableDistanceTransform3D.INF : 0;
+		}
+		transform.transform(dist, width, height, depth, true);
+		// Voxels are only left without a site when there is none at all, outside of the volume is not background
+		if (dist.length > 0 && dist[0] == SeparableDistanceTransform3D.INF)
+			throw new IllegalArgumentException("The mask has no background, no spheres can be inscribed in it");
+		for (int i = 0; i < dist.length; i++) {
+			dist[i] = toDistance(dist[i]);
+		}
+
+		this.blocksX = (width + BLOCK - 1) / BLOCK;
+		this.blocksY = (height + BLOCK - 1) / BLOCK;
+		int blocksZ = (depth + BLOCK - 1) / BLOCK;
+		this.blockMax = new float[blocksX * blocksY * blocksZ];
+		updateBlockMax(0, 0, 0, width, height, depth);
+		addCandidates(0, 0, 0, width, height, depth);
+	}
+
+	/**
+	 * Get the center of the largest sphere that can currently be placed
+	 * @return the index of the voxel with the largest distance, or -1 if no distance is larger than the minimum radius
+	 */
+	int next() {
+		while (!heap.isEmpty()) {
+			float key = heap.topKey();
+			int voxel = heap.topPixel();
+			heap.pop();
+			if (key == dist[voxel]) return voxel;
+			// The distance shrunk since the voxel was added, keep it if it is still a candidate
+			if (isCandidate(voxel)) heap.push(dist[voxel], voxel);
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the current distance of a voxel to the background
+	 */
+	float getDistance(int voxel) {
+		return dist[voxel];
+	}
+
+	/**
+	 * Clear a sphere from the mask, update the distance map and add the new candidates around it
+	 * @param voxel the index of the center
+	 * @param radius the radius, in the units of the voxel sizes
+	 */
+	void clear(int voxel, double radius) {
+		int cx = voxel % width;
+		int cy = (voxel / width) % height;
+		int cz = voxel / (width * height);
+		int rx = extent(radius, wx, width);
+		int ry = extent(radius, wy, height);
+		int rz = extent(radius, wz, depth);
+
+		// Bounding box of the voxels that get cleared
+		int minX = width, minY = height, minZ = depth, maxX = -1, maxY = -1, maxZ = -1;
+		double r2 = radius * radius;
+		for (int z = Math.max(0, cz - rz); z <= Math.min(depth - 1, cz + rz); z++) {
+			double dz = (z - cz) * wz;
+			for (int y = Math.max(0, cy - ry); y <= Math.min(height - 1, cy + ry); y++) {
+				double dy = (y - cy) * wy;
+				for (int x = Math.max(0, cx - rx); x <= Math.min(width - 1, cx + rx); x++) {
+					double dx = (x - cx) * wx;
+					int i = (z * height + y) * width + x;
+					if (mask[i] != 0 && dx * dx + dy * dy + dz * dz < r2) {
+						mask[i] = 0;
+						minX = Math.min(minX, x);
+						maxX = Math.max(maxX, x);
+						minY = Math.min(minY, y);
+						maxY = Math.max(maxY, y);
+						minZ = Math.min(minZ, z);
+						maxZ = Math.max(maxZ, z);
+					}
+				}
+			}
+		}
+		if (maxX < 0) return;
+
+		// Only voxels closer to the cleared voxels than the current largest distance can change
+		float maxDistance = getMaxDistance();
+		int x0 = Math.max(0, minX - extent(maxDistance, wx, width));
+		int y0 = Math.max(0, minY - extent(maxDistance, wy, height));
+		int z0 = Math.max(0, minZ - extent(maxDistance, wz, depth));
+		int x1 = Math.min(width, maxX + extent(maxDistance, wx, width) + 1);
+		int y1 = Math.min(height, maxY + extent(maxDistance, wy, height) + 1);
+		int z1 = Math.min(depth, maxZ + extent(maxDistance, wz, depth) + 1);
+		int w = x1 - x0;
+		int h = y1 - y0;
+		int d = z1 - z0;
+
+		// All the background of the box can be used as sites, the voxels closer to other sites keep their distance
+		if (local.length < w * h * d) local = new float[w * h * d];
+		for (int z = 0; z < d; z++) {
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					int i = ((z0 + z) * height + y0 + y) * width + x0 + x;
+					local[(z * h + y) * w + x] = mask[i] != 0 ? SeparableDistanceTransform3D.INF : 0;
+				}
+			}
+		}
+		transform.transform(local, w, h, d, (long) w * h * d >= PARALLEL_VOXELS);
+
+		for (int z = 0; z < d; z++) {
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					int i = ((z0 + z) * height + y0 + y) * width + x0 + x;
+					float distance = toDistance(local[(z * h + y) * w + x]);
+					if (distance < dist[i]) dist[i] = distance;
+				}
+			}
+		}
+		updateBlockMax(x0, y0, z0, x1, y1, z1);
+
+		// The neighbours of the updated voxels may have become local maxima as well
+		addCandidates(Math.max(0, x0 - 1), Math.max(0, y0 - 1), Math.max(0, z0 - 1),
+				Math.min(width, x1 + 1), Math.min(height, y1 + 1), Math.min(depth, z1 + 1));
+	}
+
+	/**
+	 * @return the largest distance currently in the map
+	 */
+	float getMaxDistance() {
+		float max = 0;
+		for (float m : blockMax) {
+			if (m > max) max = m;
+		}
+		return max;
+	}
+
+	/**
+	 * @return the number of voxels along an axis that a distance spans, at most the size of the volume along it
+	 */
+	private static int extent(double distance, double voxelSize, int size) {
+		return (int) Math.ceil(Math.min(distance / voxelSize, size));
+	}
+
+	// Only the windows of local updates can have no site, their largest value leaves the distances already known unchanged
+	private static float toDistance(float sq) {
+		return sq == SeparableDistanceTransform3D.INF ? Float.MAX_VALUE : (float) Math.sqrt(sq);
+	}
+
+	private void addCandidates(int x0, int y0, int z0, int x1, int y1, int z1) {
+		for (int z = z0; z < z1; z++) {
+			for (int y = y0; y < y1; y++) {
+				for (int x = x0; x < x1; x++) {
+					int i = (z * height + y) * width + x;
+					if (isCandidate(i)) heap.push(dist[i], i);
+				}
+			}
+		}
+	}
+
+	private boolean isCandidate(int voxel) {
+		float d = dist[voxel];
+		if (d <= minRadius) return false;
+		int x = voxel % width;
+		int y = (voxel / width) % height;
+		int z = voxel / (width * height);
+		for (int zz = Math.max(0, z - 1); zz <= Math.min(depth - 1, z + 1); zz++) {
+			for (int yy = Math.max(0, y - 1); yy <= Math.min(height - 1, y + 1); yy++) {
+				for (int xx = Math.max(0, x - 1); xx <= Math.min(width - 1, x + 1); xx++) {
+					if (dist[(zz * height + yy) * width + xx] > d) return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private void updateBlockMax(int x0, int y0, int z0, int x1, int y1, int z1) {
+		for (int bz = z0 / BLOCK; bz <= (z1 - 1) / BLOCK; bz++) {
+			for (int by = y0 / BLOCK; by <= (y1 - 1) / BLOCK; by++) {
+				for (int bx = x0 / BLOCK; bx <= (x1 - 1) / BLOCK; bx++) {
+					float max = 0;
+					for (int z = bz * BLOCK; z < Math.min(depth, (bz + 1) * BLOCK); z++) {
+						for (int y = by * BLOCK; y < Math.min(height, (by + 1) * BLOCK); y++) {
+							for (int x = bx * BLOCK; x < Math.min(width, (bx + 1) * BLOCK); x++) {
+								max = Math.max(max, dist[(z * height + y) * width + x]);
+							}
+						}
+					}
+					blockMax[(bz * blocksY + by) * blocksX + bx] = max;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,611 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.IJ;
+import ij.gui.OvalRoi;
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Greedy circle packing of a large mask, one tile at a time, giving the same circles as the priority queue engine
+ * on the whole mask.
+ *
+ * Each tile owns the circles centered in its core, and works on its core grown by a halo, so that the distance map
+ * of its core is exact as long as no distance is larger than the halo. The distance maps of the tiles processed last
+ * are kept between rounds, and only updated around the circles accepted since by their neighbours. The other tiles
+ * only keep the centers and radii of the circles that touch them, to rebuild their distance map from the image
+ * when they are processed again, and forget them once they have no candidate left. Only the tiles being processed
+ * and a bounded number of kept ones are thus in memory.
+ *
+ * Distances only decrease while circles are filled. A tile can thus accept its best candidates as long as they
+ * come before everything its neighbours have close to it, in the order of the single pass: largest distance first,
+ * then top to bottom and left to right. Circles accepted at the same time by different tiles cannot interact, and
+ * the tiles are processed in rounds until no candidate is left.
+ */
+class TiledCircleFinder {
+
+	private final MaskSource source;
+	private final int scale;
+	private final double minRadius;
+	private final DistanceTransform distanceTransform;
+	private final boolean nativeResolution;
+	private final ExecutorService executor;
+
+	// Largest radius for which the distance maps of the tile cores are exact
+	private final int maxRadius;
+	// Circles can only interact with candidates closer than this
+	private final int reach;
+
+	// Width of the bands of distance to a neighbour that the best priorities are kept for
+	private static final int BAND = 8;
+	// A circle clears pixels and changes distances a little further than its radius
+	private static final double INTERACTION_MARGIN = 4.0D;
+	// Pixels around an area that its interpolation can use when it is resized, bicubic using the most
+	private static final int RESIZE_MARGIN = 2;
+
+	private final List<Tile> tiles = new ArrayList<>();
+	private volatile boolean isHaloTooSmall;
+
+	// Tiles whose distance map is kept between rounds, least recently processed first
+	private final LinkedHashSet<Tile> kept = new LinkedHashSet<>();
+	private final int maxKeptTiles;
+
+	/**
+	 * @param source the mask, non-zero pixels are foreground, which is read one tile at a time
+	 * @param tileSize the side of the tiles, in pixels of the mask
+	 * @param halo the margin added around each tile, in pixels of the mask. It must be larger than the largest circle radius
+	 * @param scale the upsampling of the mask before computing the distance map
+	 * @param nativeResolution whether to refine the circles to sub-pixel accuracy, when scale is 1
+	 * @param minRadius the smallest radius of the circles to find, in pixels of the distance map, excluded
+	 * @param distanceTransform the distance transform used to compute the distance map of the tiles
+	 * @param executor the executor to process the tiles with, or null to process them one after the other
+	 * @param maxKeptTiles how many distance maps of tiles not being processed are kept between rounds
+	 */
+	TiledCircleFinder(MaskSource source, int tileSize, int halo, int scale, boolean nativeResolution, double minRadius,
+					  DistanceTransform distanceTransform, ExecutorService executor, int maxKeptTiles) {
+		this.source = source;
+		this.maxKeptTiles = maxKeptTiles;
+		this.scale = scale;
+		this.nativeResolution = nativeResolution;
+		this.minRadius = minRadius;
+		this.distanceTransform = distanceTransform;
+		this.executor = executor;
+
+		// The distances next to the core must be exact too, to find the candidates on its border
+		this.maxRadius = Math.max(0, halo * scale - 2);
+		this.reach = 2 * maxRadius + (int) INTERACTION_MARGIN;
+
+		Rectangle image = new Rectangle(0, 0, source.getWidth(), source.getHeight());
+		for (int y = 0; y < source.getHeight(); y += tileSize) {
+			for (int x = 0; x < source.getWidth(); x += tileSize) {
+				Rectangle core = new Rectangle(x, y, tileSize, tileSize).intersection(image);
+				Rectangle extended = new Rectangle(core);
+				extended.grow(halo, halo);
+				extended = extended.intersection(image);
+				tiles.add(new Tile(scaled(core), scaled(extended), extended));
+			}
+		}
+
+		// Tiles whose candidates can interact
+		for (Tile t : tiles) {
+			Rectangle zone = new Rectangle(t.core);
+			zone.grow(reach, reach);
+			for (Tile n : tiles) {
+				if (n != t && zone.intersects(n.core)) t.neighbours.add(n);
+			}
+		}
+	}
+
+	/**
+	 * Pack the circles
+	 * @param maxCircles stop once the largest circles up to this many are known, 0 for no limit
+	 * @param minRadiusRatio stop once the remaining circles are smaller than this ratio of the largest one, 0 for no limit
+	 * @param timeLimit stop accepting circles after this many nanoseconds, once the largest circle is found, 0 for no limit
+	 * @return the center x, center y and radius of each circle, in pixels of the distance map, in the order of the single pass
+	 */
+	List<double[]> findCircles(int maxCircles, double minRadiusRatio, long timeLimit) {
+		long start = System.nanoTime();
+		List<Circle> found = new ArrayList<>();
+
+		// A first round without accepting anything tells which tiles have the best candidates
+		runRound(tiles, false, false);
+		if (tiles.stream().noneMatch(t -> t.hasBackground)) {
+			// Outside of the mask is not background, so nothing would bound the circles
+			IJ.log("The mask has no background, no circles can be inscribed in it");
+			return new ArrayList<>();
+		}
+
+		// Rounds accept nothing while the tiles catch up with each other. When the halo is too small, a tile can stay
+		// ahead without any candidate it can accept, so after one such round per tile all the tiles are refreshed
+		int emptyRounds = 0;
+		while (true) {
+			boolean isStalled = emptyRounds >= tiles.size();
+			List<Tile> active = new ArrayList<>();
+			for (Tile t : tiles) {
+				if (!isStalled && t.top != null && t.isAhead(t.top)) active.add(t);
+			}
+			boolean isRefresh = active.isEmpty();
+			if (isRefresh) {
+				// What the tiles know about each other is outdated, refresh all of them
+				for (Tile t : tiles) {
+					if (t.top != null) active.add(t);
+				}
+			}
+			if (active.isEmpty()) break;
+
+			List<Circle> accepted = runRound(active, true, false);
+			if (accepted.isEmpty() && isRefresh) {
+				// This only happens when the halo is too small: let the tiles go ahead one at a time, best first
+				active.removeIf(t -> t.top == null);
+				active.sort(Comparator.comparing((Tile t) -> t.top).reversed());
+				for (Tile t : active) {
+					accepted = runRound(Collections.singletonList(t), true, true);
+					if (!accepted.isEmpty()) break;
+				}
+				if (accepted.isEmpty()) break;
+			}
+			emptyRounds = accepted.isEmpty() && !isRefresh ? emptyRounds + 1 : 0;
+			found.addAll(accepted);
+			if (isDone(found, maxCircles, minRadiusRatio)) break;
+			if (timeLimit > 0 && !found.isEmpty() && System.nanoTime() - start >= timeLimit) break;
+		}
+
+		if (isHaloTooSmall) {
+			IJ.log("Some circles are larger than the tile halo, consider increasing it to get the same circles as without tiles.");
+		}
+
+		// Tiles accept circles out of order, so some may be past the limits
+		found.sort(Comparator.comparing((Circle c) -> c.priority).reversed());
+		List<double[]> result = new ArrayList<>();
+		for (Circle c : found) {
+			if (maxCircles > 0 && result.size() == maxCircles) break;
+			if (c.r < minRadiusRatio * found.get(0).r) break;
+			result.add(new double[]{c.x, c.y, c.r});
+		}
+		return result;
+	}
+
+	/**
+	 * @return whether no circle left in the tiles can be among the largest circles up to the maximum count, or above the radius ratio
+	 */
+	private boolean isDone(List<Circle> found, int maxCircles, double minRadiusRatio) {
+		if (found.isEmpty() || (maxCircles <= 0 && minRadiusRatio <= 0)) return false;
+		// The tops of the tiles are never smaller than the circles they can still accept
+		Priority best = null;
+		for (Tile t : tiles) {
+			if (t.top != null && (best == null || t.top.compareTo(best) > 0)) best = t.top;
+		}
+		if (best == null) return true;
+
+		List<Priority> priorities = new ArrayList<>();
+		Circle largest = found.get(0);
+		for (Circle c : found) {
+			priorities.add(c.priority);
+			if (c.priority.compareTo(largest.priority) > 0) largest = c;
+		}
+		priorities.sort(Collections.reverseOrder());
+		if (maxCircles > 0 && priorities.size() >= maxCircles && priorities.get(maxCircles - 1).compareTo(best) > 0) return true;
+		// Refining at native resolution can change a radius by less than a pixel
+		return minRadiusRatio > 0 && best.value + 1.0D < minRadiusRatio * largest.r;
+	}
+
+	/**
+	 * Process some tiles, then share the circles they accepted with all the tiles they touch
+	 * @param active the tiles to process
+	 * @param canAccept whether the tiles can accept circles, or only update what they know about each other
+	 * @param ignoreNeighbours whether the tiles can accept circles without waiting for their neighbours
+	 * @return the circles accepted
+	 */
+	private List<Circle> runRound(List<Tile> active, boolean canAccept, boolean ignoreNeighbours) {
+		// Everything the tiles use from their neighbours is taken before the round starts
+		List<Callable<List<Circle>>> jobs = new ArrayList<>();
+		for (Tile t : active) {
+			Map<Tile, Priority[]> bounds = !canAccept ? null : ignoreNeighbours ? new HashMap<>() : t.getNeighbourBounds();
+			jobs.add(() -> process(t, bounds));
+		}
+
+		List<List<Circle>> results = new ArrayList<>();
+		try {
+			if (executor == null || jobs.size() == 1) {
+				for (Callable<List<Circle>> job : jobs) {
+					results.add(job.call());
+				}
+			} else {
+				List<Future<List<Circle>>> futures = new ArrayList<>();
+				for (Callable<List<Circle>> job : jobs) {
+					futures.add(executor.submit(job));
+				}
+				for (Future<List<Circle>> future : futures) {
+					results.add(future.get());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while finding circles", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Error while finding circles: " + e.getCause().getMessage(), e.getCause());
+		} catch (Exception e) {
+			throw new RuntimeException("Error while finding circles: " + e.getMessage(), e);
+		}
+
+		// Circles are shared between rounds only, the tiles are not processed then
+		List<Circle> accepted = new ArrayList<>();
+		for (int k = 0; k < results.size(); k++) {
+			Tile owner = active.get(k);
+			for (Circle c : results.get(k)) {
+				Rectangle bounds = c.getBounds();
+				for (Tile t : tiles) {
+					if (t.isDone || !bounds.intersects(t.extended)) continue;
+					t.circles.add(c);
+					// The tile that accepted it already cleared it from its distance map
+					if (t != owner && t.distanceMap != null) t.pending.add(c);
+				}
+				accepted.add(c);
+			}
+		}
+		return accepted;
+	}
+
+	/**
+	 * Update or rebuild the distance map of a tile, accept its candidates that come before those of its neighbours,
+	 * then update what the neighbours know about it
+	 * @param t the tile
+	 * @param bounds the best priorities of each neighbour close to this tile, see {@link #isAhead(Priority, Map)}, or null to accept nothing
+	 * @return the circles accepted
+	 */
+	private List<Circle> process(Tile t, Map<Tile, Priority[]> bounds) {
+		unkeep(t);
+		Rectangle ext = t.extended;
+		Rectangle core = new Rectangle(t.core.x - ext.x, t.core.y - ext.y, t.core.width, t.core.height);
+		if (t.distanceMap == null) {
+			ImageProcessor mask = getMask(t.sourceArea);
+			for (Circle c : t.circles) {
+				Roi roi = c.toRoi();
+				IncrementalDistanceMap.fill(mask, c.getBounds(ext), roi.getMask());
+			}
+			if (!MaxInscribedCircles.hasBackground(mask)) {
+				// Nothing bounds the distances of the tile, so the edge of its halo is used as background instead.
+				// Its circles are then larger than the halo, which is reported
+				t.hasBackground = false;
+				mask.setValue(0);
+				mask.drawRect(0, 0, mask.getWidth(), mask.getHeight());
+			}
+			t.distanceMap = new IncrementalDistanceMap(mask, distanceTransform);
+			t.queue = new PriorityQueuePacking(t.distanceMap, minRadius, core);
+		} else {
+			for (Circle c : t.pending) {
+				Roi roi = c.toRoi();
+				t.queue.clear(c.getBounds(ext), roi.getMask());
+			}
+		}
+		t.pending.clear();
+		FloatProcessor dist = t.distanceMap.getProcessor();
+		PriorityQueuePacking queue = t.queue;
+
+		List<Circle> accepted = new ArrayList<>();
+		if (bounds != null) {
+			while (true) {
+				int pixel = queue.next();
+				if (pixel < 0) break;
+				int x = pixel % ext.width;
+				int y = pixel / ext.width;
+				double r = dist.getf(pixel);
+				Priority priority = new Priority(dist.getf(pixel), ext.y + y, ext.x + x);
+				// Candidates come in priority order, so the following ones have to wait as well
+				if (!isAhead(priority, bounds)) {
+					queue.putBack(pixel);
+					break;
+				}
+
+				// Centers are computed in the coordinates of the whole mask, to round them the same way
+				double cx = ext.x + x;
+				double cy = ext.y + y;
+				if (nativeResolution) {
+					double[] refined = MaxInscribedCircles.refineMaximum(dist, x, y, ext.x, ext.y);
+					cx = refined[0] + MaxInscribedCircles.NATIVE_CENTER_OFFSET;
+					cy = refined[1] + MaxInscribedCircles.NATIVE_CENTER_OFFSET;
+					r = refined[2] + MaxInscribedCircles.NATIVE_RADIUS_OFFSET;
+				}
+				Circle c = new Circle(cx, cy, r, priority);
+				queue.clear(c.getBounds(ext), c.toRoi().getMask());
+				accepted.add(c);
+			}
+		}
+
+		// Best pixel of the core, and of the core by band of distance to each neighbour
+		Priority top = getTop(dist, core, ext);
+		if (top != null && top.value > maxRadius) isHaloTooSmall = true;
+		Map<Tile, Priority[]> zones = new HashMap<>();
+		if (top != null) {
+			for (Tile n : t.neighbours) {
+				zones.put(n, getBands(dist, t.core, n.core, ext));
+			}
+		}
+		t.update(top, zones);
+		if (top == null) {
+			// Distances only decrease, so the tile will never have a candidate again
+			t.isDone = true;
+			t.forget();
+			t.circles.clear();
+		} else {
+			keep(t);
+		}
+		return accepted;
+	}
+
+	/**
+	 * Keep the distance map of a tile that was just processed, forgetting the ones processed the longest ago
+	 */
+	private synchronized void keep(Tile t) {
+		kept.add(t);
+		Iterator<Tile> it = kept.iterator();
+		while (kept.size() > maxKeptTiles) {
+			Tile oldest = it.next();
+			it.remove();
+			oldest.forget();
+		}
+	}
+
+	/**
+	 * Take a tile out of the kept ones while it is processed, so that its distance map is not forgotten meanwhile
+	 */
+	private synchronized void unkeep(Tile t) {
+		kept.remove(t);
+	}
+
+	/**
+	 * A pixel can only change a pixel of a neighbour if they are closer than the sum of their distances, plus a margin.
+	 * The neighbours keep their best priority by band of distance to the tile, so only the bands close enough to
+	 * the pixel are compared, using the larger of the distances from the pixel and from the band to the other tile
+	 * @param priority the priority of a pixel
+	 * @param bounds the best priority of each neighbour by band of distance to the tile of the pixel
+	 * @return whether the pixel comes before all the pixels of the neighbours that it can interact with
+	 */
+	private static boolean isAhead(Priority priority, Map<Tile, Priority[]> bounds) {
+		for (Map.Entry<Tile, Priority[]> entry : bounds.entrySet()) {
+			double distance = getDistance(entry.getKey().core, priority.x, priority.y);
+			Priority[] bands = entry.getValue();
+			for (int k = 0; k < bands.length; k++) {
+				Priority bound = bands[k];
+				if (bound == null || bound.compareTo(priority) < 0) continue;
+				if (bound.value + priority.value + INTERACTION_MARGIN > Math.max(distance, k * BAND)) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the best priority of the pixels of a core that are closer to another core than {@link #reach},
+	 * by band of distance to it
+	 */
+	private Priority[] getBands(FloatProcessor dist, Rectangle core, Rectangle other, Rectangle ext) {
+		float[] pixels = (float[]) dist.getPixels();
+		Priority[] bands = new Priority[reach / BAND + 1];
+		Rectangle zone = new Rectangle(other);
+		zone.grow(reach, reach);
+		zone = zone.intersection(core);
+		for (int y = zone.y; y < zone.y + zone.height; y++) {
+			for (int x = zone.x; x < zone.x + zone.width; x++) {
+				float value = pixels[(y - ext.y) * ext.width + x - ext.x];
+				if (value <= minRadius) continue;
+				double distance = getDistance(other, x, y);
+				if (distance > reach) continue;
+				// Pixels are scanned in priority order for equal values, so the first one wins
+				int k = (int) (distance / BAND);
+				if (bands[k] == null || value > bands[k].value) bands[k] = new Priority(value, y, x);
+			}
+		}
+		return bands;
+	}
+
+	/**
+	 * @return the distance from a pixel to the closest pixel of a rectangle
+	 */
+	private static double getDistance(Rectangle r, long x, long y) {
+		long dx = Math.max(0, Math.max(r.x - x, x - (r.x + r.width - 1)));
+		long dy = Math.max(0, Math.max(r.y - y, y - (r.y + r.height - 1)));
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * @return the pixel of the area with the best priority among those larger than the minimum radius, or null if there is none
+	 */
+	private Priority getTop(FloatProcessor dist, Rectangle area, Rectangle ext) {
+		float[] pixels = (float[]) dist.getPixels();
+		int best = -1;
+		for (int y = area.y; y < area.y + area.height; y++) {
+			for (int x = area.x; x < area.x + area.width; x++) {
+				int i = y * ext.width + x;
+				// Pixels are scanned in priority order for equal values, so the first one wins
+				if (pixels[i] > minRadius && (best < 0 || pixels[i] > pixels[best])) best = i;
+			}
+		}
+		if (best < 0) return null;
+		return new Priority(pixels[best], ext.y + best / ext.width, ext.x + best % ext.width);
+	}
+
+	/**
+	 * Read an area of the source as a binary mask, upsampled to the scale of the distance map. The area is read with
+	 * a margin where the mask has one, resized, then cropped, so that its pixels are interpolated like those of the
+	 * whole mask. It is made binary afterwards, as the whole mask is only once resized
+	 */
+	ImageProcessor getMask(Rectangle area) {
+		Rectangle read = new Rectangle(area);
+		if (scale > 1) {
+			read.grow(RESIZE_MARGIN, RESIZE_MARGIN);
+			read = read.intersection(new Rectangle(0, 0, source.getWidth(), source.getHeight()));
+		}
+		ImageProcessor ip;
+		synchronized (source) {
+			ip = source.read(read);
+		}
+		if (scale > 1) {
+			ip = ip.resize(read.width * scale, read.height * scale);
+			ip.setRoi((area.x - read.x) * scale, (area.y - read.y) * scale, area.width * scale, area.height * scale);
+			ip = ip.crop();
+		}
+
+		ByteProcessor mask = new ByteProcessor(ip.getWidth(), ip.getHeight());
+		for (int i = 0; i < mask.getPixelCount(); i++) {
+			if (ip.getf(i) != 0) mask.set(i, 255);
+		}
+		return mask;
+	}
+
+	private Rectangle scaled(Rectangle r) {
+		return new Rectangle(r.x * scale, r.y * scale, r.width * scale, r.height * scale);
+	}
+
+	/**
+	 * Order of the circles in the single pass: largest distance first, then top to bottom and left to right
+	 */
+	static final class Priority implements Comparable<Priority> {
+		private final float value;
+		private final long y;
+		private final long x;
+
+		Priority(float value, long y, long x) {
+			this.value = value;
+			this.y = y;
+			this.x = x;
+		}
+
+		@Override
+		public int compareTo(Priority o) {
+			if (value != o.value) return Float.compare(value, o.value);
+			if (y != o.y) return Long.compare(o.y, y);
+			return Long.compare(o.x, x);
+		}
+	}
+
+	private static final class Circle {
+		private final double x;
+		private final double y;
+		private final double r;
+		private final Priority priority;
+
+		Circle(double x, double y, double r, Priority priority) {
+			this.x = x;
+			this.y = y;
+			this.r = r;
+			this.priority = priority;
+		}
+
+		/**
+		 * The pixels of an OvalRoi depend on where it is, so circles are always drawn where they are in the single pass
+		 * @return the circle, in pixels of the distance map
+		 */
+		Roi toRoi() {
+			return new OvalRoi(x - r, y - r, r * 2.0D, r * 2.0D);
+		}
+
+		/**
+		 * @return the bounds of the circle, in pixels of the distance map
+		 */
+		Rectangle getBounds() {
+			return toRoi().getBounds();
+		}
+
+		/**
+		 * @return the bounds of the circle in the coordinates of a tile
+		 */
+		Rectangle getBounds(Rectangle extended) {
+			Rectangle bounds = getBounds();
+			bounds.translate(-extended.x, -extended.y);
+			return bounds;
+		}
+	}
+
+	private static final class Tile {
+		// Areas in pixels of the distance map, and area of the source to read
+		private final Rectangle core;
+		private final Rectangle extended;
+		private final Rectangle sourceArea;
+
+		private final List<Tile> neighbours = new ArrayList<>();
+		// Circles touching the tile, to rebuild its distance map, and the ones its kept distance map misses
+		private final List<Circle> circles = new ArrayList<>();
+		private final List<Circle> pending = new ArrayList<>();
+		private IncrementalDistanceMap distanceMap;
+		private PriorityQueuePacking queue;
+		private boolean isDone;
+		// Whether the tile had background before any circle was filled in it
+		private boolean hasBackground = true;
+
+		// Best priority of the core, and of the core by band of distance to each neighbour.
+		// They are only updated when the tile is processed, and can only be too high
+		private Priority top;
+		private Map<Tile, Priority[]> zones;
+
+		Tile(Rectangle core, Rectangle extended, Rectangle sourceArea) {
+			this.core = core;
+			this.extended = extended;
+			this.sourceArea = sourceArea;
+		}
+
+		void update(Priority top, Map<Tile, Priority[]> zones) {
+			this.top = top;
+			this.zones = zones;
+		}
+
+		/**
+		 * Forget the distance map, it is rebuilt from the circles when the tile is processed again
+		 */
+		void forget() {
+			distanceMap = null;
+			queue = null;
+			pending.clear();
+		}
+
+		/**
+		 * @return the best priorities of the neighbours that still have candidates, by band of distance to this tile
+		 */
+		Map<Tile, Priority[]> getNeighbourBounds() {
+			Map<Tile, Priority[]> bounds = new HashMap<>();
+			for (Tile n : neighbours) {
+				if (n.top != null) bounds.put(n, n.zones.get(this));
+			}
+			return bounds;
+		}
+
+		boolean isAhead(Priority priority) {
+			return TiledCircleFinder.isAhead(priority, getNeighbourBounds());
+		}
+	}
+}
@@ -0,0 +1,262 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the circles of a frame starting from the circles of the previous frame.
+ *
+ * The changed pixels are grouped in blocks grown by a margin. The circles of the previous frame that touch them are
+ * removed, and the others are kept. New circles are searched around the kept ones in crops covering the changed
+ * blocks and the removed circles, grown by the margin again. Crops are surrounded by background where they are
+ * inside the image, so the new circles of a crop stay inside it and crops can be solved one after the other.
+ */
+class WarmStart {
+
+	// Side of the blocks the changed pixels are grouped in
+	private static final int BLOCK = 32;
+
+	private final double maxChangedFraction;
+	private final int margin;
+
+	// Mask and circles of the previous frame, in the coordinates of the image
+	private ImageProcessor previousMask;
+	private List<Roi> previousCircles;
+
+	/**
+	 * @param maxChangedFraction the largest fraction of changed pixels for which to start from the previous frame
+	 * @param margin how far from the changed pixels circles are removed and searched again
+	 */
+	WarmStart(double maxChangedFraction, int margin) {
+		this.maxChangedFraction = maxChangedFraction;
+		this.margin = margin;
+	}
+
+	/**
+	 * Forget the previous frame
+	 */
+	void reset() {
+		previousMask = null;
+		previousCircles = null;
+	}
+
+	/**
+	 * Find the circles of the next frame
+	 * @param mic the settings to find circles with
+	 * @param imp the mask of the frame, with its selection if any
+	 * @param metrics the metrics to add the durations and counts to
+	 * @return the circles, largest first
+	 */
+	List<Roi> findCircles(MaxInscribedCircles mic, ImagePlus imp, SliceMetrics metrics) {
+		ImageProcessor mask = imp.getProcessor();
+		Roi sel = imp.getRoi();
+		List<Rectangle> changed = sel != null && sel.isArea() ? null : getChangedAreas(mask);
+
+		List<Roi> circles;
+		if (changed == null) {
+			circles = mic.findSliceCircles(imp, null, metrics, null);
+		} else {
+			circles = findAround(mic, mask, changed, metrics);
+		}
+
+		previousMask = mask.duplicate();
+		previousCircles = copy(circles);
+		return circles;
+	}
+
+	/**
+	 * @return the blocks with pixels that changed since the previous frame, grown by the margin,
+	 * or null if the frame has to be solved on its own
+	 */
+	private List<Rectangle> getChangedAreas(ImageProcessor mask) {
+		if (previousMask == null || previousMask.getWidth() != mask.getWidth() || previousMask.getHeight() != mask.getHeight()) return null;
+
+		int width = mask.getWidth();
+		int height = mask.getHeight();
+		Rectangle image = new Rectangle(0, 0, width, height);
+		List<Rectangle> changed = new ArrayList<>();
+		long count = 0;
+		for (int by = 0; by < height; by += BLOCK) {
+			for (int bx = 0; bx < width; bx += BLOCK) {
+				long blockCount = 0;
+				for (int y = by; y < Math.min(height, by + BLOCK); y++) {
+					for (int x = bx; x < Math.min(width, bx + BLOCK); x++) {
+						if ((mask.get(x, y) != 0) != (previousMask.get(x, y) != 0)) blockCount++;
+					}
+				}
+				if (blockCount == 0) continue;
+				count += blockCount;
+				Rectangle block = new Rectangle(bx, by, BLOCK, BLOCK);
+				block.grow(margin, margin);
+				changed.add(block.intersection(image));
+			}
+		}
+		if (count > maxChangedFraction * width * height) return null;
+		return changed;
+	}
+
+	/**
+	 * Keep the previous circles away from the changed areas and search new ones around them
+	 */
+	private List<Roi> findAround(MaxInscribedCircles mic, ImageProcessor mask, List<Rectangle> changed, SliceMetrics metrics) {
+		List<Roi> kept = new ArrayList<>();
+		List<Rectangle> crops = new ArrayList<>(changed);
+		for (Roi r : previousCircles) {
+			boolean isRemoved = false;
+			for (Rectangle c : changed) {
+				isRemoved |= r.getBounds().intersects(c);
+			}
+			if (isRemoved) {
+				Rectangle bounds = r.getBounds();
+				bounds.grow(margin, margin);
+				crops.add(bounds);
+			} else {
+				kept.add((Roi) r.clone());
+			}
+		}
+		crops = merge(crops, new Rectangle(0, 0, mask.getWidth(), mask.getHeight()));
+
+		List<Roi> circles = new ArrayList<>(kept);
+		for (Rectangle crop : crops) {
+			circles.addAll(findInCrop(mic, mask, crop, kept, metrics));
+		}
+		// Largest first, keeping the order of the previous frame for equal circles
+		circles.sort(Comparator.comparingDouble(Roi::getFloatWidth).reversed());
+		return circles;
+	}
+
+	/**
+	 * Search new circles in a crop of the mask, around the kept circles
+	 */
+	private static List<Roi> findInCrop(MaxInscribedCircles mic, ImageProcessor mask, Rectangle crop, List<Roi> kept, SliceMetrics metrics) {
+		// Background around the crop where it is inside the image. Outside of the image is not background, like without crops
+		int left = crop.x > 0 ? 1 : 0;
+		int top = crop.y > 0 ? 1 : 0;
+		int right = crop.x + crop.width < mask.getWidth() ? 1 : 0;
+		int bottom = crop.y + crop.height < mask.getHeight() ? 1 : 0;
+		ByteProcessor cropMask = new ByteProcessor(crop.width + left + right, crop.height + top + bottom);
+		for (int y = 0; y < crop.height; y++) {
+			for (int x = 0; x < crop.width; x++) {
+				if (mask.get(crop.x + x, crop.y + y) != 0) cropMask.set(x + left, y + top, 255);
+			}
+		}
+		int offsetX = crop.x - left;
+		int offsetY = crop.y - top;
+
+		List<Roi> filled = new ArrayList<>();
+		for (Roi r : kept) {
+			if (!r.getBounds().intersects(crop)) continue;
+			Roi f = (Roi) r.clone();
+			f.setLocation(r.getXBase() - offsetX, r.getYBase() - offsetY);
+			filled.add(f);
+		}
+
+		List<Roi> circles = mic.findSliceCircles(new ImagePlus("Warm start", cropMask), filled, metrics, null);
+		for (Roi r : circles) {
+			r.setLocation(r.getXBase() + offsetX, r.getYBase() + offsetY);
+		}
+		return circles;
+	}
+
+	/**
+	 * @return the rectangles clipped to the image, with the ones that intersect merged into their union
+	 */
+	private static List<Rectangle> merge(List<Rectangle> rectangles, Rectangle image) {
+		List<Rectangle> merged = new ArrayList<>();
+		for (Rectangle r : rectangles) {
+			merged.add(r.intersection(image));
+		}
+		// A union can touch rectangles none of its parts touches, so merge again until nothing intersects
+		int count;
+		do {
+			count = merged.size();
+			merged = mergeIntersecting(merged);
+		} while (merged.size() < count);
+		return merged;
+	}
+
+	/**
+	 * Group the rectangles that intersect, directly or through others, sweeping them from left to right
+	 * @return the union of each group, in the order of the first rectangle of the group
+	 */
+	private static List<Rectangle> mergeIntersecting(List<Rectangle> rectangles) {
+		int n = rectangles.size();
+		Integer[] byX = new Integer[n];
+		int[] parent = new int[n];
+		for (int i = 0; i < n; i++) {
+			byX[i] = i;
+			parent[i] = i;
+		}
+		Arrays.sort(byX, Comparator.comparingInt(i -> rectangles.get(i).x));
+
+		// Rectangles that may still reach the ones further right
+		List<Integer> open = new ArrayList<>();
+		for (int i : byX) {
+			Rectangle r = rectangles.get(i);
+			open.removeIf(k -> rectangles.get(k).x + rectangles.get(k).width <= r.x);
+			for (int k : open) {
+				if (rectangles.get(k).intersects(r)) parent[find(parent, k)] = find(parent, i);
+			}
+			open.add(i);
+		}
+
+		List<Rectangle> merged = new ArrayList<>();
+		int[] group = new int[n];
+		Arrays.fill(group, -1);
+		for (int i = 0; i < n; i++) {
+			int root = find(parent, i);
+			if (group[root] < 0) {
+				group[root] = merged.size();
+				merged.add(new Rectangle(rectangles.get(i)));
+			} else {
+				merged.get(group[root]).add(rectangles.get(i));
+			}
+		}
+		return merged;
+	}
+
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private static List<Roi> copy(List<Roi> circles) {
+		List<Roi> copy = new ArrayList<>();
+		for (Roi r : circles) {
+			copy.add((Roi) r.clone());
+		}
+		return copy;
+	}
+}
@@ -0,0 +1,134 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import ch.epfl.biop.CircleTable;
+import ch.epfl.biop.MaxInscribedCircles;
+import ij.ImagePlus;
+import ij.WindowManager;
+import ij.gui.OvalRoi;
+import ij.gui.Roi;
+import ij.macro.Interpreter;
+import ij.process.ByteProcessor;
+import ij.process.FloatPolygon;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the macro functions from a macro, and checks that the variables they fill are arrays the macro can use,
+ * holding the circles and spines found by {@link MaxInscribedCircles}
+ */
+public class Max_Inscribed_Circles_ExtensionsTest {
+
+    private static ImagePlus mask() {
+        ByteProcessor ip = new ByteProcessor(90, 70);
+        ip.setValue(255);
+        ip.fill(new OvalRoi(5, 10, 80, 25));
+        ip.fill(new OvalRoi(30, 20, 30, 45));
+        return new ImagePlus("Mask", ip);
+    }
+
+    private static String join(double[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (double v : values) {
+            sb.append(String.format(Locale.ROOT, "%.4f", v)).append(';');
+        }
+        return sb.toString();
+    }
+
+    // Same as the join function of the macro below
+    private static String join(float[] values) {
+        double[] d = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            d[i] = values[i];
+        }
+        return join(d);
+    }
+
+    private static final String MACRO = String.join("\n",
+            "function join(a) {",
+            "    s = '';",
+            "    for (i = 0; i < a.length; i++) s = s + d2s(a[i], 4) + ';';",
+            "    return s;",
+            "}",
+            // Like run("Max Inscribed Circles Extensions"), without the menus of ImageJ
+            "plugin = call('ij.IJ.runPlugIn', 'Max_Inscribed_Circles_Extensions', '');",
+            "Ext.findCircles(3, false, true);",
+            "xs = 0; ys = 0; rs = 0; slices = 0;",
+            "Ext.getCircles(xs, ys, rs, slices);",
+            // Arrays the macro functions accept
+            "Array.getStatistics(rs, min, max);",
+            "sorted = Array.sort(Array.copy(rs));",
+            "n = 0;",
+            "Ext.getSpineCount(n);",
+            "spineXs = 0; spineYs = 0; spineLength = 0;",
+            "Ext.getSpine(0, spineXs, spineYs, spineLength);",
+            // User functions cannot start a concatenation
+            "circles = join(xs); circles = circles + '|' + join(ys); circles = circles + '|' + join(rs); circles = circles + '|' + join(slices);",
+            "spine = join(spineXs); spine = spine + '|' + join(spineYs);",
+            "result = circles + '|' + d2s(max, 4) + '|' + d2s(sorted[0], 4) + '|' + n + '|' + spine + '|' + d2s(spineLength, 4);",
+            // Set to numbers, the variables can be filled again
+            "xs = 0; ys = 0; rs = 0; slices = 0;",
+            "Ext.getCircles(xs, ys, rs, slices);",
+            "return result + '|' + xs.length;");
+
+    @Test
+    public void macroArraysHoldTheResults() {
+        ImagePlus imp = mask();
+        WindowManager.setTempCurrentImage(imp);
+        String result;
+        try {
+            result = new Interpreter().run(MACRO, "");
+        } finally {
+            WindowManager.setTempCurrentImage(null);
+        }
+
+        MaxInscribedCircles mic = MaxInscribedCircles.builder(mask()).minimumDiameter(3).getSpine(true).build();
+        mic.process();
+        CircleTable circles = mic.getCircleTable();
+        List<Roi> spines = mic.getSpines();
+        assertTrue(circles.size() > 1);
+        assertEquals(1, spines.size());
+
+        int n = circles.size();
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        double[] rs = new double[n];
+        double[] slices = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = circles.getX(i);
+            ys[i] = circles.getY(i);
+            rs[i] = circles.getRadius(i);
+            slices[i] = circles.getSlice(i);
+        }
+        FloatPolygon spine = spines.get(0).getFloatPolygon();
+        String expected = join(xs) + "|" + join(ys) + "|" + join(rs) + "|" + join(slices)
+                + "|" + String.format(Locale.ROOT, "%.4f", rs[0]) + "|" + String.format(Locale.ROOT, "%.4f", rs[n - 1])
+                + "|" + spines.size() + "|" + join(spine.xpoints) + "|" + join(spine.ypoints)
+                + "|" + String.format(Locale.ROOT, "%.4f", spines.get(0).getLength()) + "|" + n;
+        assertEquals(expected, result);
+    }
+}
@@ -0,0 +1,77 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares the circles found on small masks, with and without a selection, with the ones the plugin found before
+ * the distance map was updated incrementally. baseline-circles.txt holds those results, one case per line:
+ * the mask kind, seed and minimum diameter, then the circles
+ */
+public class BaselineTest {
+
+	private static Map<String, String> readBaseline() throws IOException {
+		Map<String, String> baseline = new LinkedHashMap<>();
+		try (InputStream is = BaselineTest.class.getResourceAsStream("baseline-circles.txt")) {
+			assertNotNull("Missing baseline-circles.txt", is);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int split = line.indexOf('=');
+				baseline.put(line.substring(0, split), line.substring(split + 1));
+			}
+		}
+		return baseline;
+	}
+
+	@Test
+	public void circlesAreUnchanged() throws IOException {
+		int cases = 0;
+		for (Map.Entry<String, String> e : readBaseline().entrySet()) {
+			String[] key = e.getKey().split(" ");
+			int kind = Integer.parseInt(key[1]);
+			long seed = Long.parseLong(key[2]);
+			double minD = Double.parseDouble(key[3]);
+			boolean isSelection = key[0].equals("selection");
+
+			ImagePlus imp = TestMasks.mask(kind, 70, 60, seed);
+			if (isSelection) imp.setRoi(TestMasks.selection(seed));
+			assertEquals(e.getKey(), e.getValue(), TestMasks.describeCircles(MaxInscribedCircles.findCircles(imp, minD, isSelection)));
+			cases++;
+		}
+		assertEquals(54, cases);
+	}
+}
@@ -0,0 +1,178 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileSaver;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the batch runner passes its options on to the circle finder, finds the files of folders and globs,
+ * rejects wrong arguments, and refuses to run when two files would write the same outputs
+ */
+public class BatchRunnerTest {
+
+	private static void save(ImagePlus imp, Path path) throws IOException {
+		Files.createDirectories(path.getParent());
+		assertTrue(new FileSaver(imp).saveAsTiff(path.toString()));
+	}
+
+	private static ImagePlus stack() {
+		ImageStack stack = new ImageStack(70, 60);
+		stack.addSlice(TestMasks.mask(0, 70, 60, 1).getProcessor());
+		stack.addSlice(TestMasks.mask(1, 70, 60, 2).getProcessor());
+		return new ImagePlus("Stack", stack);
+	}
+
+	private static List<String> list(Path folder) throws IOException {
+		if (!Files.exists(folder)) return Collections.emptyList();
+		try (Stream<Path> s = Files.list(folder)) {
+			return s.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+		}
+	}
+
+	private static void delete(Path folder) throws IOException {
+		try (Stream<Path> s = Files.walk(folder)) {
+			for (Path p : s.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(p);
+			}
+		}
+	}
+
+	private static boolean run(String... args) {
+		BatchRunner runner = new BatchRunner();
+		runner.parse(args);
+		return runner.run();
+	}
+
+	@Test
+	public void optionsReachTheCircleFinder() throws IOException {
+		Path folder = Files.createTempDirectory("mic-batch");
+		try {
+			ImagePlus imp = stack();
+			save(imp, folder.resolve("in").resolve("mask.tif"));
+			Path out = folder.resolve("out");
+			assertTrue(run("--input", folder.resolve("in").toString(), "--output", out.toString(), "--threads", "2",
+					"--minimumDiameter", "4", "--spine", "--spineClosenessTolerance", "12", "--spineMinimumSimilarity", "0.4",
+					"--engine", "priority_queue", "--appendPositionToName", "--maximumCircles", "20", "--minimumRadiusRatio", "0.1"));
+
+			MaxInscribedCircles mic = MaxInscribedCircles.builder(imp).minimumDiameter(4).getSpine(true).spineClosenessTolerance(12)
+					.spineMinimumSimilarity(0.4).engine(MaxInscribedCircles.Engine.PRIORITY_QUEUE).appendPositionToName(true)
+					.maximumCircles(20).minimumRadiusRatio(0.1).build();
+			mic.process();
+			assertTrue(mic.getSpines().size() > 0);
+			Path expected = folder.resolve("expected.csv");
+			ResultWriter.writeTable(mic.getCircleTable(), mic.getSpines(), expected);
+			assertEquals(Files.readAllLines(expected), Files.readAllLines(out.resolve("mask_circles.csv")));
+			assertEquals("[mask_circles.csv, mask_rois.zip]", list(out).toString());
+
+			// The defaults differ from these options
+			Path defaults = folder.resolve("defaults");
+			assertTrue(run("--input", folder.resolve("in").toString(), "--output", defaults.toString()));
+			assertFalse(Files.readAllLines(expected).equals(Files.readAllLines(defaults.resolve("mask_circles.csv"))));
+		} finally {
+			delete(folder);
+		}
+	}
+
+	@Test
+	public void inputsAreFoldersFilesAndGlobs() throws IOException {
+		Path folder = Files.createTempDirectory("mic-batch");
+		try {
+			save(TestMasks.mask(0, 70, 60, 1), folder.resolve("a").resolve("one.tif"));
+			save(TestMasks.mask(1, 70, 60, 1), folder.resolve("a").resolve("two.TIFF"));
+			Files.write(folder.resolve("a").resolve("notes.txt"), "not a mask".getBytes());
+			save(TestMasks.mask(2, 70, 60, 1), folder.resolve("b").resolve("c").resolve("three.tif"));
+			save(TestMasks.mask(2, 70, 60, 2), folder.resolve("b").resolve("c").resolve("skipped.png.tif.bak"));
+			save(TestMasks.mask(0, 70, 60, 3), folder.resolve("four.tif"));
+
+			Path out = folder.resolve("out");
+			assertTrue(run("--input", folder.resolve("a").toString(), "--input", folder.resolve("b") + "/*/*.tif",
+					"--input", folder.resolve("four.tif").toString(), "--output", out.toString(), "--minimumDiameter", "5"));
+			assertEquals("[four_circles.csv, four_rois.zip, one_circles.csv, one_rois.zip, three_circles.csv, three_rois.zip, two_circles.csv, two_rois.zip]",
+					list(out).toString());
+
+			// Nothing to process is an error
+			assertFalse(run("--input", folder.resolve("b") + "/*.tif", "--output", out.toString()));
+		} finally {
+			delete(folder);
+		}
+	}
+
+	@Test
+	public void duplicateOutputsFail() throws IOException {
+		Path folder = Files.createTempDirectory("mic-batch");
+		try {
+			save(TestMasks.mask(0, 70, 60, 1), folder.resolve("a").resolve("mask.tif"));
+			save(TestMasks.mask(1, 70, 60, 1), folder.resolve("b").resolve("Mask.tiff"));
+			save(TestMasks.mask(2, 70, 60, 1), folder.resolve("b").resolve("other.tif"));
+
+			// Outputs differing by case only are the same file on some file systems
+			Path out = folder.resolve("out");
+			assertFalse(run("--input", folder.resolve("a").toString(), "--input", folder.resolve("b").toString(), "--output", out.toString()));
+			assertEquals("[]", list(out).toString());
+
+			// The same file given twice is processed once
+			assertTrue(run("--input", folder.resolve("a").toString(), "--input", folder.resolve("a").resolve("mask.tif").toString(), "--output", out.toString()));
+			assertEquals("[mask_circles.csv, mask_rois.zip]", list(out).toString());
+		} finally {
+			delete(folder);
+		}
+	}
+
+	@Test
+	public void wrongArgumentsAreRejected() {
+		String[][] wrong = {
+				{"--output", "out"},
+				{"--input", "in"},
+				{"--input", "in", "--output"},
+				{"--input", "in", "--output", "out", "--unknown"},
+				{"--input", "in", "--output", "out", "--threads", "0"},
+				{"--input", "in", "--output", "out", "--cacheSize", "0"},
+				{"--input", "in", "--output", "out", "--engine", "fastest"},
+				{"--input", "in", "--output", "out", "--minimumDiameter", "ten"},
+		};
+		for (String[] args : wrong) {
+			try {
+				new BatchRunner().parse(args);
+				fail(String.join(" ", args) + " was accepted");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+}
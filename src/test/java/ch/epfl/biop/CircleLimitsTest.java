@@ -0,0 +1,162 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the limits on the circles stop the search without changing the circles found before
+ */
+public class CircleLimitsTest {
+
+	private static String find(MaxInscribedCircles.Builder builder) {
+		MaxInscribedCircles mic = builder.build();
+		mic.process();
+		return TestMasks.describeCircles(mic.getCircles());
+	}
+
+	@Test
+	public void maximumCirclesKeepsTheFirstCircles() {
+		for (MaxInscribedCircles.Engine engine : MaxInscribedCircles.Engine.values()) {
+			for (int kind = 0; kind < TestMasks.KINDS; kind++) {
+				ImagePlus imp = TestMasks.mask(kind, 70, 60, 1);
+				MaxInscribedCircles all = MaxInscribedCircles.builder(imp).minimumDiameter(3).engine(engine).build();
+				all.process();
+				List<Roi> circles = all.getCircles();
+				for (int k : new int[]{1, 3, 10}) {
+					String expected = TestMasks.describeCircles(circles.subList(0, Math.min(k, circles.size())));
+					String found = find(MaxInscribedCircles.builder(imp).minimumDiameter(3).engine(engine).maximumCircles(k));
+					assertEquals(engine + ", kind " + kind + ", " + k + " circles", expected, found);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the first circles, down to the ratio of the largest radius
+	 */
+	private static List<Roi> aboveRatio(List<Roi> circles, double ratio) {
+		List<Roi> kept = new ArrayList<>();
+		for (Roi r : circles) {
+			if (r.getFloatWidth() < ratio * circles.get(0).getFloatWidth()) break;
+			kept.add(r);
+		}
+		return kept;
+	}
+
+	@Test
+	public void minimumRadiusRatioKeepsTheLargestCircles() {
+		for (MaxInscribedCircles.Engine engine : MaxInscribedCircles.Engine.values()) {
+			for (int kind = 0; kind < TestMasks.KINDS; kind++) {
+				ImagePlus imp = TestMasks.mask(kind, 70, 60, 1);
+				MaxInscribedCircles all = MaxInscribedCircles.builder(imp).minimumDiameter(3).engine(engine).build();
+				all.process();
+				for (double ratio : new double[]{0.25, 0.5, 1}) {
+					List<Roi> kept = aboveRatio(all.getCircles(), ratio);
+					assertTrue(kept.size() < all.getCircles().size());
+					String found = find(MaxInscribedCircles.builder(imp).minimumDiameter(3).engine(engine).minimumRadiusRatio(ratio));
+					assertEquals(engine + ", kind " + kind + ", ratio " + ratio, TestMasks.describeCircles(kept), found);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void tilesStopAtTheSameCircles() {
+		for (int kind = 0; kind < TestMasks.KINDS; kind++) {
+			ImagePlus imp = TestMasks.mask(kind, 70, 60, 2);
+			MaxInscribedCircles all = MaxInscribedCircles.builder(imp).minimumDiameter(3).engine(MaxInscribedCircles.Engine.PRIORITY_QUEUE).build();
+			all.process();
+			List<Roi> circles = all.getCircles();
+			for (int tileSize : new int[]{16, 33}) {
+				MaxInscribedCircles.Builder tiled = MaxInscribedCircles.builder(imp).minimumDiameter(3)
+						.engine(MaxInscribedCircles.Engine.PRIORITY_QUEUE).tiles(tileSize, 40).parallelism(3);
+				for (int k : new int[]{1, 5}) {
+					assertEquals("kind " + kind + ", tile " + tileSize + ", " + k + " circles",
+							TestMasks.describeCircles(circles.subList(0, k)), find(tiled.maximumCircles(k)));
+				}
+				tiled.maximumCircles(0);
+				for (double ratio : new double[]{0.25, 0.5}) {
+					assertEquals("kind " + kind + ", tile " + tileSize + ", ratio " + ratio,
+							TestMasks.describeCircles(aboveRatio(circles, ratio)), find(tiled.minimumRadiusRatio(ratio)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void timeLimitKeepsTheFirstCircles() {
+		// Large enough for the search to take longer than the time limit
+		ImagePlus imp = TestMasks.mask(2, 300, 250, 3);
+		for (MaxInscribedCircles.Engine engine : MaxInscribedCircles.Engine.values()) {
+			MaxInscribedCircles all = MaxInscribedCircles.builder(imp).minimumDiameter(2).engine(engine).build();
+			all.process();
+			List<Roi> circles = all.getCircles();
+
+			// A limit that is never reached changes nothing
+			assertEquals(engine + ", no limit reached", TestMasks.describeCircles(circles),
+					find(MaxInscribedCircles.builder(imp).minimumDiameter(2).engine(engine).timeLimit(3600000)));
+
+			// The largest circle is always found, then the search stops before the end, after the same circles
+			MaxInscribedCircles limited = MaxInscribedCircles.builder(imp).minimumDiameter(2).engine(engine).timeLimit(1).build();
+			limited.process();
+			List<Roi> found = limited.getCircles();
+			assertTrue(engine + ", " + found.size() + " circles", found.size() > 0 && found.size() < circles.size());
+			assertEquals(engine.toString(), TestMasks.describeCircles(circles.subList(0, found.size())), TestMasks.describeCircles(found));
+		}
+	}
+
+	@Test
+	public void timeLimitKeepsCirclesOfTiles() {
+		ImagePlus imp = TestMasks.mask(2, 300, 250, 3);
+		MaxInscribedCircles.Builder tiled = MaxInscribedCircles.builder(imp).minimumDiameter(2)
+				.engine(MaxInscribedCircles.Engine.PRIORITY_QUEUE).tiles(100, 80).parallelism(3);
+		MaxInscribedCircles all = tiled.build();
+		all.process();
+		List<Roi> circles = all.getCircles();
+
+		// Tiles accept circles out of order, so the circles found in time are some of the circles, with the largest one
+		MaxInscribedCircles limited = tiled.timeLimit(1).build();
+		limited.process();
+		List<Roi> found = limited.getCircles();
+		assertTrue(found.size() + " circles", found.size() > 0 && found.size() < circles.size());
+		assertEquals(TestMasks.describeGeometry(circles.subList(0, 1)), TestMasks.describeGeometry(found.subList(0, 1)));
+		Set<String> known = new HashSet<>();
+		for (Roi r : circles) {
+			known.add(TestMasks.describeGeometry(Collections.singletonList(r)));
+		}
+		for (Roi r : found) {
+			assertTrue(r + " is not among the circles", known.contains(TestMasks.describeGeometry(Collections.singletonList(r))));
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.gui.OvalRoi;
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Compares the distance maps with a full recompute by fiji.process3d.EDT, the transform the plugin used first
+ */
+public class DistanceMapTest {
+
+	private static float[] edt(ImageProcessor mask) {
+		return new FijiDistanceTransform().compute(mask.duplicate(), null);
+	}
+
+	@Test
+	public void separableTransformMatchesEdt() {
+		for (int kind = 0; kind < TestMasks.KINDS; kind++) {
+			for (long seed = 0; seed < 4; seed++) {
+				ImageProcessor mask = TestMasks.mask(kind, 70, 60, seed).getProcessor();
+				float[] separable = new SeparableDistanceTransform().compute(mask, null);
+				assertArrayEquals("kind " + kind + ", seed " + seed, edt(mask), separable, 0.0F);
+			}
+		}
+	}
+
+	@Test
+	public void incrementalMapMatchesRecompute() {
+		DistanceTransform[] transforms = {new SeparableDistanceTransform(), new FijiDistanceTransform()};
+		for (DistanceTransform transform : transforms) {
+			for (int kind = 0; kind < TestMasks.KINDS; kind++) {
+				for (long seed = 0; seed < 4; seed++) {
+					ImageProcessor mask = TestMasks.mask(kind, 70, 60, seed).getProcessor();
+					mask.setValue(0);
+					IncrementalDistanceMap distanceMap = new IncrementalDistanceMap(mask, transform);
+					Random random = new Random(seed);
+					for (int k = 0; k < 10; k++) {
+						double d = 2 + random.nextInt(20);
+						Roi circle = new OvalRoi(random.nextInt(80) - 10, random.nextInt(70) - 10, d, d);
+						distanceMap.clear(circle);
+						String message = transform.getClass().getSimpleName() + ", kind " + kind + ", seed " + seed + ", circle " + k;
+						assertArrayEquals(message, edt(mask), (float[]) distanceMap.getProcessor().getPixels(), 0.0F);
+					}
+				}
+			}
+		}
+	}
+}
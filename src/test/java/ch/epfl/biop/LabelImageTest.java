@@ -0,0 +1,107 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that each object of a 16-bit or 32-bit label image gets the circles it would get as a mask of its own,
+ * when objects touch, and that the objects are listed by label rather than by where they are
+ */
+public class LabelImageTest {
+
+	/**
+	 * Fill the left part of the overlapping ellipses with one label and the right part with the other, so that
+	 * the two objects touch along a vertical line
+	 */
+	private static ImageProcessor labels(ImageProcessor labels, int left, int right) {
+		ImageProcessor mask = TestMasks.mask(1, labels.getWidth(), labels.getHeight(), 4).getProcessor();
+		for (int y = 0; y < labels.getHeight(); y++) {
+			for (int x = 0; x < labels.getWidth(); x++) {
+				if (mask.get(x, y) != 0) labels.setf(x, y, x < labels.getWidth() / 2 ? left : right);
+			}
+		}
+		return labels;
+	}
+
+	private static void checkLabels(ImageProcessor labels, int left, int right) {
+		boolean touch = false;
+		for (int y = 0; y < labels.getHeight(); y++) {
+			touch |= labels.getf(labels.getWidth() / 2 - 1, y) == left && labels.getf(labels.getWidth() / 2, y) == right;
+		}
+		assertTrue("The labels do not touch", touch);
+
+		MaxInscribedCircles mic = MaxInscribedCircles.builder(new ImagePlus("Labels", labels))
+				.minimumDiameter(3)
+				.labelImage(true)
+				.build();
+		mic.process();
+
+		List<Roi> expected = new ArrayList<>();
+		List<Integer> expectedLabels = new ArrayList<>();
+		for (int label : new int[]{Math.min(left, right), Math.max(left, right)}) {
+			ByteProcessor mask = new ByteProcessor(labels.getWidth(), labels.getHeight());
+			for (int y = 0; y < labels.getHeight(); y++) {
+				for (int x = 0; x < labels.getWidth(); x++) {
+					if (labels.getf(x, y) == label) mask.set(x, y, 255);
+				}
+			}
+			MaxInscribedCircles single = MaxInscribedCircles.builder(new ImagePlus("Label " + label, mask))
+					.minimumDiameter(3)
+					.build();
+			single.process();
+			assertTrue("No circles in label " + label, single.getCircles().size() > 1);
+			for (Roi r : single.getCircles()) {
+				expected.add(r);
+				expectedLabels.add(label);
+			}
+		}
+
+		assertEquals(TestMasks.describeGeometry(expected), TestMasks.describeGeometry(mic.getCircles()));
+		CircleTable table = mic.getCircleTable();
+		for (int i = 0; i < table.size(); i++) {
+			assertEquals(expectedLabels.get(i).intValue(), table.getLabel(i));
+		}
+	}
+
+	@Test
+	public void shortLabelsMatchSeparateMasks() {
+		checkLabels(labels(new ShortProcessor(90, 70), 300, 2), 300, 2);
+	}
+
+	@Test
+	public void floatLabelsMatchSeparateMasks() {
+		checkLabels(labels(new FloatProcessor(90, 70), 70000, 5), 70000, 5);
+	}
+}
@@ -0,0 +1,119 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.gui.OvalRoi;
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the single pass search of the largest circle with the maxima finder, which the builder uses with
+ * the fiji.process3d.EDT transform, on the test masks and on masks with ties and plateaus
+ */
+public class LargestCircleTest {
+
+	private static String find(ImagePlus imp, boolean nativeResolution, boolean useSelectionOnly, DistanceTransform transform) {
+		MaxInscribedCircles mic = MaxInscribedCircles.builder(imp).minimumDiameter(0).nativeResolution(nativeResolution)
+				.useSelectionOnly(useSelectionOnly).distanceTransform(transform).build();
+		mic.process();
+		List<Roi> circles = mic.getCircles();
+		return TestMasks.describeGeometry(circles.isEmpty() ? circles : circles.subList(0, 1));
+	}
+
+	private static void assertSameCircle(String message, ImagePlus imp) {
+		String expected = find(imp, true, false, new FijiDistanceTransform());
+		Roi largest = MaxInscribedCircles.findLargestCircle(imp.getProcessor(), null, true);
+		assertEquals(message, expected, largest == null ? "" : TestMasks.describeGeometry(Collections.singletonList(largest)));
+		assertEquals(message + ", native", expected, find(imp, true, false, new SeparableDistanceTransform()));
+		assertEquals(message + ", 2x", find(imp, false, false, new FijiDistanceTransform()),
+				find(imp, false, false, new SeparableDistanceTransform()));
+	}
+
+	@Test
+	public void largestCircleMatchesMaximaFinder() {
+		for (int kind = 0; kind < TestMasks.KINDS; kind++) {
+			for (long seed = 0; seed < 6; seed++) {
+				int width = 50 + (int) (seed * 7 % 41);
+				int height = 40 + (int) (seed * 13 % 37);
+				assertSameCircle("kind " + kind + ", seed " + seed, TestMasks.mask(kind, width, height, seed));
+			}
+		}
+	}
+
+	@Test
+	public void selectionsMatchMaximaFinder() {
+		for (long seed = 0; seed < 3; seed++) {
+			ImagePlus imp = TestMasks.mask(0, 70, 60, seed);
+			Roi selection = TestMasks.selection(seed);
+			imp.setRoi(selection);
+			String expected = find(imp, true, true, new FijiDistanceTransform());
+			Roi largest = MaxInscribedCircles.findLargestCircle(null, selection, true);
+			assertEquals("selection " + seed, expected, TestMasks.describeGeometry(Collections.singletonList(largest)));
+		}
+	}
+
+	@Test
+	public void plateausMatchMaximaFinder() {
+		// Rectangles have a ridge of equal distances, squares of an even side a plateau of 4 pixels
+		int[][] rectangles = {{5, 5, 30, 10}, {5, 5, 10, 30}, {5, 5, 20, 20}, {5, 5, 21, 21}, {2, 2, 40, 3}, {2, 2, 41, 4}};
+		for (int[] r : rectangles) {
+			ByteProcessor bp = new ByteProcessor(60, 50);
+			bp.setValue(255);
+			bp.fill(new Roi(r[0], r[1], r[2], r[3]));
+			assertSameCircle("rectangle " + r[2] + "x" + r[3], new ImagePlus("Rectangle", bp));
+		}
+
+		ByteProcessor full = new ByteProcessor(30, 20);
+		full.setValue(255);
+		full.fill();
+		assertEquals("no background", null, MaxInscribedCircles.findLargestCircle(full, null, true));
+		full.set(10, 10, 0);
+		assertSameCircle("one background pixel", new ImagePlus("Full", full));
+		assertEquals("no foreground", null, MaxInscribedCircles.findLargestCircle(new ByteProcessor(30, 20), null, true));
+	}
+
+	@Test
+	public void tiesMatchMaximaFinder() {
+		// The same shape several times, the maxima finder keeps the last one in row order
+		for (int d = 4; d < 30; d += 5) {
+			ByteProcessor disks = new ByteProcessor(80, 40);
+			disks.setValue(255);
+			disks.fill(new OvalRoi(5, 5, d, d));
+			disks.fill(new OvalRoi(45, 5, d, d));
+			assertSameCircle("disks " + d, new ImagePlus("Disks", disks));
+
+			ByteProcessor squares = new ByteProcessor(80, 80);
+			squares.setValue(255);
+			squares.fill(new Roi(5, 5, d, d));
+			squares.fill(new Roi(45, 5, d, d));
+			squares.fill(new Roi(5, 45, d, d));
+			assertSameCircle("squares " + d, new ImagePlus("Squares", squares));
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.Roi;
+import ij.measure.Calibration;
+import ij.measure.ResultsTable;
+import ij.process.ByteProcessor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the spheres found in calibrated balls against their size and center
+ */
+public class MaxInscribedSpheresTest {
+
+	/**
+	 * @return a ball of a radius in the units of the calibration, centered in a volume of voxels of the given sizes,
+	 * with a margin of background around it
+	 */
+	private static ImagePlus ball(double radius, double wx, double wy, double wz) {
+		int width = (int) Math.ceil(2 * radius / wx) + 6;
+		int height = (int) Math.ceil(2 * radius / wy) + 6;
+		int depth = (int) Math.ceil(2 * radius / wz) + 6;
+		ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; z++) {
+			ByteProcessor bp = new ByteProcessor(width, height);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					double dx = (x - width / 2) * wx;
+					double dy = (y - height / 2) * wy;
+					double dz = (z - depth / 2) * wz;
+					if (dx * dx + dy * dy + dz * dz < radius * radius) bp.set(x, y, 255);
+				}
+			}
+			stack.addSlice(bp);
+		}
+		ImagePlus imp = new ImagePlus("Ball", stack);
+		Calibration cal = imp.getCalibration();
+		cal.pixelWidth = wx;
+		cal.pixelHeight = wy;
+		cal.pixelDepth = wz;
+		return imp;
+	}
+
+	private static ResultsTable find(ImagePlus imp, double minimumDiameter) {
+		MaxInscribedSpheres mis = MaxInscribedSpheres.builder(imp).minimumDiameter(minimumDiameter).parallelism(2).build();
+		mis.process();
+		return mis.getSpheres();
+	}
+
+	@Test
+	public void ballsMatchTheirRadiusAndCenter() {
+		// Isotropic, elongated along z, and different along each axis
+		for (double[] w : new double[][]{{0.5, 0.5, 0.5}, {0.5, 0.5, 2.0}, {0.3, 0.4, 1.0}}) {
+			String message = w[0] + " x " + w[1] + " x " + w[2];
+			ImagePlus imp = ball(9.7, w[0], w[1], w[2]);
+			MaxInscribedSpheres mis = MaxInscribedSpheres.builder(imp).minimumDiameter(0).build();
+			mis.process();
+			ResultsTable spheres = mis.getSpheres();
+			assertEquals(message, 1, spheres.size());
+			// The distance to the closest background voxel is at most a voxel larger than the radius
+			double r = spheres.getValue("Radius", 0);
+			assertTrue(message + ": " + r, r >= 9.7 && r < 9.7 + Math.max(w[0], Math.max(w[1], w[2])));
+			assertEquals(message, imp.getWidth() / 2 + 0.5D, spheres.getValue("X", 0), 0.0D);
+			assertEquals(message, imp.getHeight() / 2 + 0.5D, spheres.getValue("Y", 0), 0.0D);
+			assertEquals(message, imp.getStackSize() / 2 + 1, spheres.getValue("Slice", 0), 0.0D);
+
+			// One cross-section on each slice closer to the center than the radius, in calibrated units
+			int sections = 0;
+			for (int z = 0; z < imp.getStackSize(); z++) {
+				if (Math.abs(z - imp.getStackSize() / 2) * w[2] < r) sections++;
+			}
+			assertEquals(message, sections, mis.getCrossSections().size());
+		}
+	}
+
+	@Test
+	public void minimumDiameterCutsTheSpheres() {
+		// A box, filled with spheres of decreasing sizes
+		ImageStack stack = new ImageStack(44, 28);
+		for (int z = 0; z < 14; z++) {
+			ByteProcessor bp = new ByteProcessor(44, 28);
+			bp.setValue(255);
+			if (z > 1 && z < 12) bp.fill(new Roi(2, 2, 40, 24));
+			stack.addSlice(bp);
+		}
+		ImagePlus imp = new ImagePlus("Box", stack);
+		imp.getCalibration().pixelWidth = 0.5;
+		imp.getCalibration().pixelHeight = 0.5;
+		imp.getCalibration().pixelDepth = 1.0;
+
+		ResultsTable all = find(imp, 1.0);
+		ResultsTable large = find(imp, 3.0);
+		assertTrue(all.size() > large.size() && large.size() > 1);
+		for (int i = 0; i < large.size(); i++) {
+			assertTrue(large.getValue("Diameter", i) > 3.0);
+			// Spheres are found largest first, so the larger minimum only drops the last ones
+			assertEquals(all.getValue("X", i), large.getValue("X", i), 0.0D);
+			assertEquals(all.getValue("Y", i), large.getValue("Y", i), 0.0D);
+			assertEquals(all.getValue("Slice", i), large.getValue("Slice", i), 0.0D);
+			assertEquals(all.getValue("Radius", i), large.getValue("Radius", i), 0.0D);
+		}
+		assertTrue(all.getValue("Diameter", large.size()) <= 3.0);
+		for (int i = 0; i < all.size(); i++) {
+			assertTrue(all.getValue("Diameter", i) > 1.0);
+		}
+
+		assertEquals(0, find(imp, 11.0).size());
+		assertEquals(1, find(imp, 0).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void volumeWithoutBackgroundIsRejected() {
+		ImageStack stack = new ImageStack(10, 10);
+		for (int z = 0; z < 4; z++) {
+			ByteProcessor bp = new ByteProcessor(10, 10);
+			bp.setValue(255);
+			bp.fill();
+			stack.addSlice(bp);
+		}
+		find(new ImagePlus("Full", stack), 1.0);
+	}
+}
@@ -0,0 +1,223 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.OvalRoi;
+import ij.process.ShortProcessor;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the metrics of each slice, object or selection count the circles found and time the phases each way
+ * of finding circles goes through, and that they are recorded by Java Flight Recorder
+ */
+public class MetricsTest {
+
+	private static List<SliceMetrics> process(MaxInscribedCircles.Builder builder) {
+		List<SliceMetrics> metrics = Collections.synchronizedList(new ArrayList<>());
+		MaxInscribedCircles mic = builder.metricsListener(metrics::add).build();
+		mic.process();
+		metrics.sort(Comparator.comparing(SliceMetrics::getSlice).thenComparing(SliceMetrics::getLabel));
+		return metrics;
+	}
+
+	private static long getPhaseNanos(SliceMetrics metrics) {
+		long nanos = 0;
+		for (SliceMetrics.Phase phase : SliceMetrics.Phase.values()) {
+			assertTrue(phase + " is negative", metrics.getNanos(phase) >= 0);
+			nanos += metrics.getNanos(phase);
+		}
+		return nanos;
+	}
+
+	/**
+	 * Check that exactly these phases took time
+	 */
+	private static void checkPhases(String name, SliceMetrics metrics, SliceMetrics.Phase... phases) {
+		List<SliceMetrics.Phase> timed = new ArrayList<>();
+		for (SliceMetrics.Phase phase : SliceMetrics.Phase.values()) {
+			if (metrics.getNanos(phase) > 0) timed.add(phase);
+		}
+		List<SliceMetrics.Phase> expected = new ArrayList<>();
+		Collections.addAll(expected, phases);
+		assertEquals(name, expected, timed);
+		assertTrue(name + ": phases take longer than the slice", getPhaseNanos(metrics) <= metrics.getTotalNanos());
+	}
+
+	@Test
+	public void metricsCountTheCirclesOfEachSlice() {
+		ImageStack stack = new ImageStack(70, 60);
+		for (int kind = 0; kind < TestMasks.KINDS; kind++) {
+			stack.addSlice(TestMasks.mask(kind, 70, 60, kind).getProcessor());
+		}
+		ImagePlus imp = new ImagePlus("Stack", stack);
+		for (MaxInscribedCircles.Engine engine : new MaxInscribedCircles.Engine[]{MaxInscribedCircles.Engine.MAXIMUM_FINDER, MaxInscribedCircles.Engine.PRIORITY_QUEUE}) {
+			MaxInscribedCircles.Builder builder = MaxInscribedCircles.builder(imp).minimumDiameter(3).engine(engine).parallelism(2);
+			List<SliceMetrics> metrics = process(builder);
+			MaxInscribedCircles mic = builder.metricsListener(null).build();
+			mic.process();
+			CircleTable circles = mic.getCircleTable();
+
+			assertEquals(TestMasks.KINDS, metrics.size());
+			for (int k = 0; k < metrics.size(); k++) {
+				SliceMetrics m = metrics.get(k);
+				String name = engine + ", slice " + (k + 1);
+				assertEquals(name, k + 1, m.getSlice());
+				assertEquals(name, 0, m.getLabel());
+				int count = 0;
+				for (int i = 0; i < circles.size(); i++) {
+					if (circles.getSlice(i) == k + 1) count++;
+				}
+				assertEquals(name, count, m.getCircles());
+				// One more search finds nothing, or a circle too small
+				assertEquals(name, count + 1, m.getIterations());
+				assertTrue(name, m.getCandidates() >= count);
+				if (engine == MaxInscribedCircles.Engine.MAXIMUM_FINDER) {
+					checkPhases(name, m, SliceMetrics.Phase.RESIZE, SliceMetrics.Phase.DISTANCE_MAP, SliceMetrics.Phase.MAXIMA,
+							SliceMetrics.Phase.CANDIDATES, SliceMetrics.Phase.FILL);
+				} else {
+					checkPhases(name, m, SliceMetrics.Phase.RESIZE, SliceMetrics.Phase.DISTANCE_MAP, SliceMetrics.Phase.MAXIMA,
+							SliceMetrics.Phase.FILL);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void metricsTimeThePhasesOfEachPath() {
+		ImagePlus imp = TestMasks.mask(0, 70, 60, 1);
+		List<SliceMetrics> metrics = process(MaxInscribedCircles.builder(imp).minimumDiameter(3).engine(MaxInscribedCircles.Engine.PRIORITY_QUEUE).getSpine(true));
+		assertEquals(1, metrics.size());
+		checkPhases("spine", metrics.get(0), SliceMetrics.Phase.RESIZE, SliceMetrics.Phase.DISTANCE_MAP, SliceMetrics.Phase.MAXIMA,
+				SliceMetrics.Phase.FILL, SliceMetrics.Phase.SPINE);
+
+		metrics = process(MaxInscribedCircles.builder(imp).minimumDiameter(3).engine(MaxInscribedCircles.Engine.PRIORITY_QUEUE).tiles(32, 40));
+		assertEquals(1, metrics.size());
+		checkPhases("tiles", metrics.get(0), SliceMetrics.Phase.TILES);
+		assertTrue(metrics.get(0).getCircles() > 0);
+
+		ImagePlus selected = TestMasks.mask(0, 70, 60, 1);
+		selected.setRoi(new OvalRoi(5, 5, 50, 40));
+		metrics = process(MaxInscribedCircles.builder(selected).minimumDiameter(3).engine(MaxInscribedCircles.Engine.POLYGON).useSelectionOnly(true));
+		assertEquals(1, metrics.size());
+		checkPhases("polygon", metrics.get(0), SliceMetrics.Phase.POLYGON);
+		assertEquals(metrics.get(0).getCircles() + 1, metrics.get(0).getIterations());
+
+		// Each object of a label image gets its own metrics
+		ShortProcessor labels = new ShortProcessor(70, 60);
+		labels.setValue(7);
+		labels.fill(new OvalRoi(2, 2, 30, 25));
+		labels.setValue(3);
+		labels.fill(new OvalRoi(35, 30, 30, 25));
+		metrics = process(MaxInscribedCircles.builder(new ImagePlus("Labels", labels)).minimumDiameter(3).labelImage(true).parallelism(2));
+		assertEquals(2, metrics.size());
+		assertEquals(3, metrics.get(0).getLabel());
+		assertEquals(7, metrics.get(1).getLabel());
+	}
+
+	@Test
+	public void metricsTimeTheCache() throws Exception {
+		Path folder = Files.createTempDirectory("mic-cache");
+		try {
+			ResultCache cache = new ResultCache(folder, 1 << 20);
+			ImagePlus imp = TestMasks.mask(1, 70, 60, 1);
+			MaxInscribedCircles.Builder builder = MaxInscribedCircles.builder(imp).minimumDiameter(3).cache(cache);
+			SliceMetrics missed = process(builder).get(0);
+			assertTrue(missed.getNanos(SliceMetrics.Phase.CACHE) > 0);
+			assertTrue(missed.getNanos(SliceMetrics.Phase.DISTANCE_MAP) > 0);
+			SliceMetrics hit = process(builder).get(0);
+			checkPhases("cached", hit, SliceMetrics.Phase.CACHE);
+			assertEquals(missed.getCircles(), hit.getCircles());
+		} finally {
+			try (Stream<Path> s = Files.list(folder)) {
+				for (Path p : s.collect(Collectors.toList())) {
+					Files.delete(p);
+				}
+			}
+			Files.delete(folder);
+		}
+	}
+
+	/**
+	 * Record the events of the plugin with Java Flight Recorder, through reflection as the plugin still builds for Java 8
+	 */
+	@Test
+	public void flightRecorderRecordsEachSlice() throws Exception {
+		Class<?> recordingClass;
+		try {
+			recordingClass = Class.forName("jdk.jfr.Recording");
+		} catch (ClassNotFoundException e) {
+			// No Java Flight Recorder in this JVM
+			return;
+		}
+		assertNotNull(JfrMetrics.LISTENER);
+		String eventName = "ch.epfl.biop.MaxInscribedCircles.Slice";
+		Object recording = recordingClass.getConstructor().newInstance();
+		recordingClass.getMethod("enable", String.class).invoke(recording, eventName);
+		recordingClass.getMethod("start").invoke(recording);
+
+		ImageStack stack = new ImageStack(70, 60);
+		stack.addSlice(TestMasks.mask(0, 70, 60, 1).getProcessor());
+		stack.addSlice(TestMasks.mask(1, 70, 60, 2).getProcessor());
+		MaxInscribedCircles mic = MaxInscribedCircles.builder(new ImagePlus("Stack", stack)).minimumDiameter(3).build();
+		mic.process();
+
+		Path file = Files.createTempFile("mic", ".jfr");
+		try {
+			recordingClass.getMethod("stop").invoke(recording);
+			recordingClass.getMethod("dump", Path.class).invoke(recording, file);
+			recordingClass.getMethod("close").invoke(recording);
+			List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", Path.class).invoke(null, file);
+
+			List<String> found = new ArrayList<>();
+			long circles = 0;
+			for (Object event : events) {
+				Object type = event.getClass().getMethod("getEventType").invoke(event);
+				if (!eventName.equals(type.getClass().getMethod("getName").invoke(type))) continue;
+				Method getValue = event.getClass().getMethod("getValue", String.class);
+				found.add(getValue.invoke(event, "slice") + "/" + getValue.invoke(event, "label"));
+				circles += (Long) getValue.invoke(event, "circles");
+				assertTrue((Long) getValue.invoke(event, "distanceMapTime") > 0);
+			}
+			Collections.sort(found);
+			assertEquals("[1/0, 2/0]", found.toString());
+			assertEquals(mic.getCircles().size(), circles);
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
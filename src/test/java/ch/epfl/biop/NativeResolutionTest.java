@@ -0,0 +1,85 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the circles found at native resolution stay within the bounds given in
+ * {@link MaxInscribedCircles.Builder#nativeResolution(boolean)} of those found on the mask upsampled 2x
+ */
+public class NativeResolutionTest {
+
+	private static List<Roi> find(ImagePlus imp, boolean nativeResolution) {
+		MaxInscribedCircles mic = MaxInscribedCircles.builder(imp).minimumDiameter(3).nativeResolution(nativeResolution).build();
+		mic.process();
+		return mic.getCircles();
+	}
+
+	private static double centerX(Roi circle) {
+		return circle.getXBase() + circle.getFloatWidth() / 2.0D;
+	}
+
+	private static double centerY(Roi circle) {
+		return circle.getYBase() + circle.getFloatWidth() / 2.0D;
+	}
+
+	@Test
+	public void largestCircleIsCloseToUpsampled() {
+		double sum = 0;
+		int n = 0;
+		for (int kind = 0; kind < TestMasks.KINDS; kind++) {
+			for (long seed = 0; seed < 4; seed++) {
+				for (int size = 1; size <= 2; size++) {
+					ImagePlus imp = TestMasks.mask(kind, 70 * size, 60 * size, seed);
+					List<Roi> upsampled = find(imp, false);
+					Roi largest = find(imp, true).get(0);
+					String message = "kind " + kind + ", seed " + seed + ", size " + size;
+
+					double radiusError = Math.abs(largest.getFloatWidth() - upsampled.get(0).getFloatWidth()) / 2.0D;
+					assertEquals(message + ", radius", 0.0D, radiusError, 0.5D);
+					sum += radiusError;
+					n++;
+
+					// When two circles are about as large, each mode can find a different one first
+					Roi nearest = upsampled.get(0);
+					for (Roi circle : upsampled) {
+						if (Math.hypot(centerX(circle) - centerX(largest), centerY(circle) - centerY(largest))
+								< Math.hypot(centerX(nearest) - centerX(largest), centerY(nearest) - centerY(largest))) {
+							nearest = circle;
+						}
+					}
+					double centerError = Math.hypot(centerX(nearest) - centerX(largest), centerY(nearest) - centerY(largest));
+					assertEquals(message + ", center", 0.0D, centerError, 1.2D);
+					assertEquals(message + ", radius of the nearest", 0.0D, Math.abs(largest.getFloatWidth() - nearest.getFloatWidth()) / 2.0D, 0.5D);
+				}
+			}
+		}
+		assertEquals("mean radius error", 0.0D, sum / n, 0.35D);
+	}
+}
@@ -0,0 +1,150 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the bit-packed mask answers pixel, segment and ray queries like reading the image, with
+ * {@link ImageProcessor#getLine(double, double, double, double)} and {@link ImageProcessor#getf(int, int)}, on widths
+ * around the 64 pixels packed in a word
+ */
+public class PackedMaskTest {
+
+	private static final int[] WIDTHS = {1, 63, 64, 65, 130};
+
+	/**
+	 * @return a mask of random rectangles, with a few random pixels of other values
+	 */
+	private static ImageProcessor mask(int width, int height, long seed, boolean isFloat) {
+		ImageProcessor ip = new ByteProcessor(width, height);
+		Random random = new Random(seed);
+		ip.setValue(255);
+		for (int k = 0; k < 8; k++) {
+			ip.fill(new Roi(random.nextInt(width), random.nextInt(height), 1 + random.nextInt(width), 1 + random.nextInt(height)));
+		}
+		if (isFloat) ip = ip.convertToFloat();
+		for (int k = 0; k < width * height / 20; k++) {
+			ip.setf(random.nextInt(width), random.nextInt(height), random.nextInt(3) * 127.5F);
+		}
+		return ip;
+	}
+
+	private static boolean isInMask(ImageProcessor ip, int x, int y, float value) {
+		return x >= 0 && y >= 0 && x < ip.getWidth() && y < ip.getHeight() && ip.getf(x, y) == value;
+	}
+
+	private static boolean isLineInMask(ImageProcessor ip, double x1, double y1, double x2, double y2, float value) {
+		for (double v : ip.getLine(x1, y1, x2, y2)) {
+			if (v != value) return false;
+		}
+		return true;
+	}
+
+	private static int getExitStep(ImageProcessor ip, double x, double y, double dx, double dy, double start, float value) {
+		double length = Math.sqrt(dx * dx + dy * dy);
+		int i = 0;
+		while (isInMask(ip, (int) Math.round(x + (start + i) * dx / length), (int) Math.round(y + (start + i) * dy / length), value)) {
+			i++;
+		}
+		return i;
+	}
+
+	@Test
+	public void pixelsMatchTheImage() {
+		for (int width : WIDTHS) {
+			for (boolean isFloat : new boolean[]{false, true}) {
+				for (float value : new float[]{255, 127.5F, 0}) {
+					ImageProcessor ip = mask(width, 40, width, isFloat);
+					PackedMask packed = new PackedMask(ip, value);
+					for (int y = -1; y <= ip.getHeight(); y++) {
+						for (int x = -1; x <= width; x++) {
+							assertEquals("width " + width + ", float " + isFloat + ", value " + value + " at " + x + "," + y,
+									isInMask(ip, x, y, value), packed.contains(x, y));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void segmentsMatchGetLine() {
+		Random random = new Random(1);
+		for (int width : WIDTHS) {
+			ImageProcessor ip = mask(width, 50, width + 1, false);
+			PackedMask packed = new PackedMask(ip, 255);
+			for (int k = 0; k < 2000; k++) {
+				// Ends are sometimes outside of the image, sometimes on the same row or column
+				double x1 = random.nextDouble() * (width + 4) - 2;
+				double y1 = random.nextDouble() * 54 - 2;
+				double x2 = k % 5 == 0 ? x1 : random.nextDouble() * (width + 4) - 2;
+				double y2 = k % 5 == 1 ? y1 : random.nextDouble() * 54 - 2;
+				assertEquals("width " + width + ", " + x1 + "," + y1 + " to " + x2 + "," + y2,
+						isLineInMask(ip, x1, y1, x2, y2, 255), packed.containsSegment(x1, y1, x2, y2));
+			}
+			// Lines as long as the image, which getLine samples once less
+			for (int x = 0; x < width; x++) {
+				assertEquals("column " + x, isLineInMask(ip, x, 0, x, 50, 255), packed.containsSegment(x, 0, x, 50));
+			}
+			for (int y = 0; y < 50; y++) {
+				assertEquals("row " + y, isLineInMask(ip, 0, y, width, y, 255), packed.containsSegment(0, y, width, y));
+			}
+		}
+	}
+
+	@Test
+	public void raysMatchGetf() {
+		Random random = new Random(2);
+		for (int width : WIDTHS) {
+			ImageProcessor ip = mask(width, 50, width + 2, false);
+			PackedMask packed = new PackedMask(ip, 255);
+			for (int k = 0; k < 2000; k++) {
+				double x = random.nextDouble() * width;
+				double y = random.nextDouble() * 50;
+				double dx = random.nextGaussian();
+				double dy = k % 7 == 0 ? 0 : random.nextGaussian();
+				double start = random.nextDouble() * 10;
+				assertEquals("width " + width + ", from " + x + "," + y + " towards " + dx + "," + dy + " after " + start,
+						getExitStep(ip, x, y, dx, dy, start, 255), packed.getExitStep(x, y, dx, dy, start));
+			}
+		}
+	}
+
+	@Test
+	public void floatValuesAreCompared() {
+		FloatProcessor ip = new FloatProcessor(3, 1, new float[]{255, 254.9F, 255.1F});
+		PackedMask packed = new PackedMask(ip, 255);
+		assertEquals(true, packed.contains(0, 0));
+		assertEquals(false, packed.contains(1, 0));
+		assertEquals(false, packed.contains(2, 0));
+		assertEquals(false, new PackedMask(new ByteProcessor(2, 2), 255).containsSegment(0, 0, 1, 1));
+	}
+}
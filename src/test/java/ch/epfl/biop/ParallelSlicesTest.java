@@ -0,0 +1,111 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.ImageProcessor;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that slices processed in parallel give the same circles, in the same order, as one after the other
+ */
+public class ParallelSlicesTest {
+
+	private static String find(MaxInscribedCircles.Builder builder) {
+		MaxInscribedCircles mic = builder.build();
+		mic.process();
+		return TestMasks.describeCircles(mic.getCircles());
+	}
+
+	@Test
+	public void parallelSlicesMatchSequential() {
+		ImageStack stack = new ImageStack(70, 60);
+		for (int kind = 0; kind < TestMasks.KINDS; kind++) {
+			for (long seed = 0; seed < 2; seed++) {
+				stack.addSlice(TestMasks.mask(kind, 70, 60, seed).getProcessor());
+			}
+		}
+		ImagePlus imp = new ImagePlus("Stack", stack);
+		MaxInscribedCircles.Builder sequential = MaxInscribedCircles.builder(imp).minimumDiameter(3).appendPositionToName(true);
+		MaxInscribedCircles.Builder parallel = MaxInscribedCircles.builder(imp).minimumDiameter(3).appendPositionToName(true).parallelism(3);
+		assertEquals(find(sequential), find(parallel));
+	}
+
+	/**
+	 * A virtual stack of test masks which checks, whenever a slice is read, how many slices are being processed
+	 */
+	private static class CheckedStack extends VirtualStack {
+
+		private final int nSlices;
+		private final int parallelism;
+		private final Thread reader = Thread.currentThread();
+		private final AtomicInteger processed = new AtomicInteger();
+		private int read;
+
+		CheckedStack(int nSlices, int parallelism) {
+			super(70, 60, null, null);
+			this.nSlices = nSlices;
+			this.parallelism = parallelism;
+		}
+
+		@Override
+		public ImageProcessor getProcessor(int n) {
+			assertEquals("slice " + n + " read on another thread", reader, Thread.currentThread());
+			assertTrue("slice " + n + " read with " + (read - processed.get()) + " slices in memory",
+					read - processed.get() < parallelism);
+			read++;
+			return TestMasks.mask(n % TestMasks.KINDS, 70, 60, n).getProcessor();
+		}
+
+		@Override
+		public int getSize() {
+			return nSlices;
+		}
+	}
+
+	@Test
+	public void slicesAreReadWhenThreadsAreFree() {
+		CheckedStack stack = new CheckedStack(20, 3);
+		ImagePlus imp = new ImagePlus("Virtual", stack);
+		stack.read = 0;
+		MaxInscribedCircles mic = MaxInscribedCircles.builder(imp).minimumDiameter(3).parallelism(3)
+				.metricsListener(metrics -> stack.processed.incrementAndGet()).build();
+		mic.process();
+		assertEquals(20, stack.read);
+		assertEquals(20, stack.processed.get());
+
+		ImageStack copy = new ImageStack(70, 60);
+		for (int n = 1; n <= 20; n++) {
+			copy.addSlice(TestMasks.mask(n % TestMasks.KINDS, 70, 60, n).getProcessor());
+		}
+		MaxInscribedCircles sequential = MaxInscribedCircles.builder(new ImagePlus("Stack", copy)).minimumDiameter(3).build();
+		sequential.process();
+		assertEquals(TestMasks.describeCircles(sequential.getCircles()), TestMasks.describeCircles(mic.getCircles()));
+	}
+}
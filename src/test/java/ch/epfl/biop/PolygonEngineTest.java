@@ -0,0 +1,106 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.gui.OvalRoi;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.gui.ShapeRoi;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the polygon engine finds the same largest circle as the distance map, up to its precision and a pixel,
+ * on a polygon selection and on a shape selection with a hole, and that its circles stay inside the selection
+ * without overlapping each other
+ */
+public class PolygonEngineTest {
+
+	private static final double TOLERANCE = PolygonPacking.PRECISION + 1;
+
+	private static List<Roi> find(Roi selection, MaxInscribedCircles.Engine engine) {
+		ImagePlus imp = new ImagePlus("Mask", new ByteProcessor(80, 70));
+		imp.setRoi(selection);
+		MaxInscribedCircles mic = MaxInscribedCircles.builder(imp).minimumDiameter(4).useSelectionOnly(true).engine(engine).build();
+		mic.process();
+		return mic.getCircles();
+	}
+
+	private static double[] getCircle(Roi r) {
+		Rectangle2D.Double b = r.getFloatBounds();
+		return new double[]{b.x + b.width / 2, b.y + b.height / 2, b.width / 2};
+	}
+
+	private static void checkSelection(String name, Roi selection) {
+		List<Roi> raster = find(selection, MaxInscribedCircles.Engine.PRIORITY_QUEUE);
+		List<Roi> polygon = find(selection, MaxInscribedCircles.Engine.POLYGON);
+		assertTrue(name + ": no circles", polygon.size() > 1);
+
+		double[] expected = getCircle(raster.get(0));
+		double[] largest = getCircle(polygon.get(0));
+		assertEquals(name + ": radius", expected[2], largest[2], TOLERANCE);
+		// Centers can be far apart along a ridge, where the distance to the edges barely changes
+		double distance = new PolygonPacking(selection, 0).getDistance(expected[0], expected[1]);
+		assertEquals(name + ": distance at the center", largest[2], distance, TOLERANCE);
+
+		// No pixel outside of the selection is well within a circle
+		ImageProcessor mask = selection.getMask();
+		Rectangle bounds = selection.getBounds();
+		for (int i = 0; i < polygon.size(); i++) {
+			double[] c = getCircle(polygon.get(i));
+			for (int y = 0; y < mask.getHeight(); y++) {
+				for (int x = 0; x < mask.getWidth(); x++) {
+					if (mask.get(x, y) != 0) continue;
+					double d = Math.hypot(bounds.x + x + 0.5 - c[0], bounds.y + y + 0.5 - c[1]);
+					assertTrue(name + ": circle " + i + " covers " + (bounds.x + x) + "," + (bounds.y + y), d >= c[2] - TOLERANCE);
+				}
+			}
+			for (int j = 0; j < i; j++) {
+				double[] d = getCircle(polygon.get(j));
+				assertTrue(name + ": circles " + j + " and " + i + " overlap",
+						Math.hypot(c[0] - d[0], c[1] - d[1]) >= c[2] + d[2] - PolygonPacking.PRECISION);
+			}
+		}
+	}
+
+	@Test
+	public void polygonSelectionMatchesDistanceMap() {
+		checkSelection("triangle", TestMasks.selection(2));
+		checkSelection("quadrilateral", new PolygonRoi(new float[]{4.5f, 70.25f, 62, 10}, new float[]{6, 2.5f, 60.75f, 48}, Roi.POLYGON));
+	}
+
+	@Test
+	public void shapeWithHoleMatchesDistanceMap() {
+		ShapeRoi holed = new ShapeRoi(new OvalRoi(5, 4, 70, 60));
+		holed = holed.not(new ShapeRoi(new OvalRoi(18, 20, 24, 20)));
+		checkSelection("ellipse with a hole", holed);
+	}
+}
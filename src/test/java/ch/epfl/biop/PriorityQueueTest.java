@@ -0,0 +1,70 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the priority queue engine finds the same largest circle as the maxima finder
+ */
+public class PriorityQueueTest {
+
+	private static double getLargestDiameter(MaxInscribedCircles.Builder builder) {
+		MaxInscribedCircles mic = builder.build();
+		mic.process();
+		return mic.getCircles().get(0).getFloatWidth();
+	}
+
+	@Test
+	public void priorityQueueFindsTheSameLargestCircle() {
+		// Equally large circles may come in another order, so only the largest one is the same. At native resolution
+		// the radius is refined around the center picked, so it can differ as well
+		for (int kind = 0; kind < TestMasks.KINDS; kind++) {
+			for (long seed = 0; seed < 4; seed++) {
+				for (double minD : new double[]{0, 3, 8}) {
+					ImagePlus imp = TestMasks.mask(kind, 70, 60, seed);
+					double expected = getLargestDiameter(MaxInscribedCircles.builder(imp).minimumDiameter(minD));
+					double found = getLargestDiameter(MaxInscribedCircles.builder(imp).minimumDiameter(minD).engine(MaxInscribedCircles.Engine.PRIORITY_QUEUE));
+					assertEquals("kind " + kind + ", seed " + seed + ", minD " + minD, expected, found, 0.0D);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void maskWithoutBackgroundHasNoCircles() {
+		// Outside of the image is not background, so nothing bounds the circles
+		for (MaxInscribedCircles.Engine engine : MaxInscribedCircles.Engine.values()) {
+			for (double minD : new double[]{0, 3}) {
+				ImagePlus imp = TestMasks.mask(2, 70, 60, 0);
+				imp.getProcessor().setValue(255);
+				imp.getProcessor().fill();
+				MaxInscribedCircles mic = MaxInscribedCircles.builder(imp).minimumDiameter(minD).engine(engine).build();
+				mic.process();
+				assertEquals(engine + ", minD " + minD, 0, mic.getCircles().size());
+			}
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.gui.Line;
+import ij.gui.OvalRoi;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the cache reads back the results it stored, exactly, only for the same mask and settings, that it
+ * deletes the least recently used results once it is too large, and that it ignores files it cannot read
+ */
+public class ResultCacheTest {
+
+	private static MaxInscribedCircles process(ImagePlus mask, ResultCache cache, double minimumDiameter, MaxInscribedCircles.Engine engine) {
+		MaxInscribedCircles mic = MaxInscribedCircles.builder(mask)
+				.minimumDiameter(minimumDiameter)
+				.engine(engine)
+				.getSpine(true)
+				.cache(cache)
+				.build();
+		mic.process();
+		return mic;
+	}
+
+	private static String describe(MaxInscribedCircles mic) {
+		return TestMasks.describeCircles(mic.getCircles()) + "|" + TestMasks.describeShapes(mic.getSpines())
+				+ "|" + TestMasks.describeShapes(mic.getSpineParts());
+	}
+
+	private static List<Path> list(Path folder) throws IOException {
+		try (Stream<Path> s = Files.list(folder)) {
+			return s.filter(p -> p.toString().endsWith(".mic")).sorted().collect(Collectors.toList());
+		}
+	}
+
+	private static void delete(Path folder) throws IOException {
+		try (Stream<Path> s = Files.list(folder)) {
+			for (Path p : s.collect(Collectors.toList())) {
+				Files.delete(p);
+			}
+		}
+		Files.delete(folder);
+	}
+
+	/**
+	 * @return results with a single circle, of 36 bytes in the cache
+	 */
+	private static MaxInscribedCircles.Result single(double r) {
+		CircleTable circles = new CircleTable();
+		circles.add(10, 20, r);
+		return new MaxInscribedCircles.Result(circles, null, Collections.emptyList());
+	}
+
+	@Test
+	public void cachedResultsAreReadBack() throws IOException {
+		Path folder = Files.createTempDirectory("mic-cache");
+		try {
+			ResultCache cache = new ResultCache(folder, 1 << 20);
+			ImagePlus a = TestMasks.mask(0, 70, 60, 1);
+			ImagePlus b = TestMasks.mask(1, 70, 60, 2);
+			String expectedA = describe(process(a, null, 3, MaxInscribedCircles.Engine.MAXIMUM_FINDER));
+			String expectedB = describe(process(b, null, 3, MaxInscribedCircles.Engine.MAXIMUM_FINDER));
+			assertNotEquals(expectedA, expectedB);
+
+			// Missing: searched and stored
+			assertEquals(expectedA, describe(process(a, cache, 3, MaxInscribedCircles.Engine.MAXIMUM_FINDER)));
+			List<Path> files = list(folder);
+			assertEquals(1, files.size());
+			assertEquals(Files.size(files.get(0)), cache.getSize());
+			Path fileA = files.get(0);
+
+			// Found: read back, the same as searched
+			assertEquals(expectedA, describe(process(a, cache, 3, MaxInscribedCircles.Engine.MAXIMUM_FINDER)));
+			assertEquals(1, list(folder).size());
+
+			// Replacing the results of a by those of b shows that they are read rather than searched again
+			assertEquals(expectedB, describe(process(b, cache, 3, MaxInscribedCircles.Engine.MAXIMUM_FINDER)));
+			files = list(folder);
+			files.remove(fileA);
+			Files.copy(files.get(0), fileA, StandardCopyOption.REPLACE_EXISTING);
+			assertEquals(expectedB, describe(process(a, cache, 3, MaxInscribedCircles.Engine.MAXIMUM_FINDER)));
+		} finally {
+			delete(folder);
+		}
+	}
+
+	@Test
+	public void keysDependOnMaskAndSettings() throws IOException {
+		Path folder = Files.createTempDirectory("mic-cache");
+		try {
+			ResultCache cache = new ResultCache(folder, 1 << 20);
+			ImagePlus mask = TestMasks.mask(2, 70, 60, 3);
+			process(mask, cache, 3, MaxInscribedCircles.Engine.MAXIMUM_FINDER);
+			process(mask, cache, 4, MaxInscribedCircles.Engine.MAXIMUM_FINDER);
+			process(mask, cache, 3, MaxInscribedCircles.Engine.PRIORITY_QUEUE);
+			assertEquals(3, list(folder).size());
+
+			// The same mask and settings, in another image, share their results
+			process(TestMasks.mask(2, 70, 60, 3), cache, 3, MaxInscribedCircles.Engine.MAXIMUM_FINDER);
+			assertEquals(3, list(folder).size());
+
+			// A different mask or selection does not
+			process(TestMasks.mask(2, 70, 60, 4), cache, 3, MaxInscribedCircles.Engine.MAXIMUM_FINDER);
+			assertEquals(4, list(folder).size());
+			ImagePlus selected = TestMasks.mask(2, 70, 60, 3);
+			selected.setRoi(new OvalRoi(5, 5, 50, 40));
+			MaxInscribedCircles.builder(selected).minimumDiameter(3).getSpine(true).useSelectionOnly(true).cache(cache).build().process();
+			assertEquals(5, list(folder).size());
+
+			String settings = "minimumDiameter=3";
+			assertEquals(cache.getKey(mask, settings), cache.getKey(TestMasks.mask(2, 70, 60, 3), settings));
+			assertFalse(cache.getKey(mask, settings).equals(cache.getKey(mask, "minimumDiameter=4")));
+		} finally {
+			delete(folder);
+		}
+	}
+
+	@Test
+	public void leastRecentlyUsedResultsAreDeleted() throws IOException {
+		Path folder = Files.createTempDirectory("mic-cache");
+		try {
+			// Room for two results of 36 bytes
+			ResultCache cache = new ResultCache(folder, 80);
+			cache.put("a", single(1));
+			cache.put("b", single(2));
+			assertEquals(72, cache.getSize());
+			assertNotNull(cache.get("a", false));
+			cache.put("c", single(3));
+
+			assertEquals(72, cache.getSize());
+			assertNull(cache.get("b", false));
+			assertFalse(Files.exists(folder.resolve("b.mic")));
+			assertEquals(1, cache.get("a", false).getCircleTable().getRadius(0), 0);
+			assertEquals(3, cache.get("c", false).getCircleTable().getRadius(0), 0);
+
+			// The order of use carries over to the next runs through the modification times
+			Files.setLastModifiedTime(folder.resolve("a.mic"), FileTime.fromMillis(2000));
+			Files.setLastModifiedTime(folder.resolve("c.mic"), FileTime.fromMillis(1000));
+			ResultCache reopened = new ResultCache(folder, 40);
+			assertEquals(36, reopened.getSize());
+			assertNull(reopened.get("c", false));
+			assertFalse(Files.exists(folder.resolve("c.mic")));
+			assertNotNull(reopened.get("a", false));
+		} finally {
+			delete(folder);
+		}
+	}
+
+	@Test
+	public void corruptFilesAreIgnored() throws IOException {
+		Path folder = Files.createTempDirectory("mic-cache");
+		try {
+			ResultCache cache = new ResultCache(folder, 1 << 20);
+			cache.put("truncated", single(1));
+			Path truncated = folder.resolve("truncated.mic");
+			byte[] data = Files.readAllBytes(truncated);
+			Files.write(truncated, Arrays.copyOf(data, data.length - 5));
+			cache.put("version", single(2));
+			Path version = folder.resolve("version.mic");
+			data = Files.readAllBytes(version);
+			data[3]++;
+			Files.write(version, data);
+
+			assertNull(cache.get("truncated", false));
+			assertNull(cache.get("version", false));
+			assertEquals(0, cache.getSize());
+
+			// Unreadable results are searched again and replaced
+			ImagePlus mask = TestMasks.mask(0, 70, 60, 5);
+			String expected = describe(process(mask, null, 3, MaxInscribedCircles.Engine.MAXIMUM_FINDER));
+			process(mask, cache, 3, MaxInscribedCircles.Engine.MAXIMUM_FINDER);
+			List<Path> files = list(folder);
+			files.removeAll(Arrays.asList(truncated, version));
+			assertEquals(1, files.size());
+			data = Files.readAllBytes(files.get(0));
+			Files.write(files.get(0), Arrays.copyOf(data, data.length / 2));
+			assertEquals(expected, describe(process(mask, cache, 3, MaxInscribedCircles.Engine.MAXIMUM_FINDER)));
+			assertEquals(data.length, Files.size(files.get(0)));
+			assertEquals(expected, describe(process(mask, cache, 3, MaxInscribedCircles.Engine.MAXIMUM_FINDER)));
+		} finally {
+			delete(folder);
+		}
+	}
+
+	@Test
+	public void resultsAreReadBackExactly() throws IOException {
+		Path folder = Files.createTempDirectory("mic-cache");
+		try {
+			CircleTable circles = new CircleTable();
+			circles.add(10.25, 20.125, 7.3);
+			circles.add(1.0 / 3, 2.0 / 7, Math.PI);
+			PolygonRoi spine = new PolygonRoi(new float[]{10.25f, 0.33f, 5.5f}, new float[]{20.125f, 0.29f, 40.75f}, Roi.POLYLINE);
+			spine.setName("Spine");
+			spine.setStrokeColor(Color.YELLOW);
+			spine.setStrokeWidth(2);
+			Line part = new Line(10.25, 20.125, 1.0 / 3, 2.0 / 7);
+			part.setStrokeColor(new Color(10, 20, 30, 40));
+			ResultCache cache = new ResultCache(folder, 1 << 20);
+			cache.put("key", new MaxInscribedCircles.Result(circles, spine, Collections.singletonList(part)));
+
+			MaxInscribedCircles.Result read = cache.get("key", true);
+			CircleTable table = read.getCircleTable();
+			assertEquals(2, table.size());
+			for (int i = 0; i < 2; i++) {
+				assertEquals(circles.getX(i), table.getX(i), 0);
+				assertEquals(circles.getY(i), table.getY(i), 0);
+				assertEquals(circles.getRadius(i), table.getRadius(i), 0);
+			}
+
+			Roi readSpine = read.getSpine();
+			assertTrue(readSpine.getType() == Roi.POLYLINE);
+			assertEquals("Spine", readSpine.getName());
+			assertEquals(Color.YELLOW, readSpine.getStrokeColor());
+			assertEquals(2, readSpine.getStrokeWidth(), 0);
+			assertArrayEquals(spine.getFloatPolygon().xpoints, readSpine.getFloatPolygon().xpoints, 0);
+			assertArrayEquals(spine.getFloatPolygon().ypoints, readSpine.getFloatPolygon().ypoints, 0);
+
+			assertEquals(1, read.getSpineParts().size());
+			Line readPart = (Line) read.getSpineParts().get(0);
+			assertNull(readPart.getName());
+			assertEquals(new Color(10, 20, 30, 40), readPart.getStrokeColor());
+			assertEquals(part.x1d, readPart.x1d, 0);
+			assertEquals(part.y1d, readPart.y1d, 0);
+			assertEquals(part.x2d, readPart.x2d, 0);
+			assertEquals(part.y2d, readPart.y2d, 0);
+		} finally {
+			delete(folder);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.OvalRoi;
+import ij.gui.Roi;
+import ij.io.RoiDecoder;
+import ij.process.ShortProcessor;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the ROI zip reads back as the circles and spines found, in order, and that the CSV table holds their
+ * names, slices, labels, centers, diameters and lengths
+ */
+public class ResultWriterTest {
+
+	private static List<Roi> readRois(Path zip, List<String> entries) throws IOException {
+		List<Roi> rois = new ArrayList<>();
+		try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zip))) {
+			ZipEntry entry;
+			while ((entry = in.getNextEntry()) != null) {
+				entries.add(entry.getName());
+				Roi roi = RoiDecoder.openFromByteArray(readAll(in));
+				assertNotNull(entry.getName(), roi);
+				rois.add(roi);
+			}
+		}
+		return rois;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			bytes.write(buffer, 0, n);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void delete(Path folder) throws IOException {
+		try (Stream<Path> s = Files.list(folder)) {
+			for (Path p : s.collect(Collectors.toList())) {
+				Files.delete(p);
+			}
+		}
+		Files.delete(folder);
+	}
+
+	/**
+	 * Write the results, then read them back and compare them with what was written
+	 */
+	private static void checkRoundTrip(MaxInscribedCircles mic) throws IOException {
+		Path folder = Files.createTempDirectory("mic-results");
+		try {
+			ResultWriter.write(mic, folder, "mask");
+			CircleTable circles = mic.getCircleTable();
+			List<Roi> spines = mic.getSpines();
+			assertTrue(circles.size() > 0);
+
+			// The ROIs, numbered so that equal names stay apart
+			List<String> entries = new ArrayList<>();
+			List<Roi> rois = readRois(folder.resolve("mask_rois.zip"), entries);
+			assertEquals(circles.size() + spines.size(), rois.size());
+			Set<String> unique = new HashSet<>(entries);
+			assertEquals(entries.size(), unique.size());
+			for (int i = 0; i < rois.size(); i++) {
+				Roi expected = i < circles.size() ? circles.getRoi(i) : spines.get(i - circles.size());
+				Roi read = rois.get(i);
+				assertEquals(String.format("%04d-%s.roi", i + 1, expected.getName()), entries.get(i));
+				assertEquals(expected.getName(), read.getName());
+				assertEquals(expected.getType(), read.getType());
+				assertEquals(expected.getPosition(), read.getPosition());
+				assertEquals(expected.getXBase(), read.getXBase(), 1e-4);
+				assertEquals(expected.getYBase(), read.getYBase(), 1e-4);
+				assertEquals(expected.getFloatWidth(), read.getFloatWidth(), 1e-4);
+				assertEquals(expected.getFloatHeight(), read.getFloatHeight(), 1e-4);
+				if (i >= circles.size()) {
+					assertArrayEquals(expected.getFloatPolygon().xpoints, read.getFloatPolygon().xpoints, 1e-4F);
+					assertArrayEquals(expected.getFloatPolygon().ypoints, read.getFloatPolygon().ypoints, 1e-4F);
+				}
+			}
+
+			// The table, one row per circle then per spine
+			List<String> lines = Files.readAllLines(folder.resolve("mask_circles.csv"));
+			assertEquals("Type,Name,Slice,Label,X,Y,Diameter,Length", lines.get(0));
+			assertEquals(1 + circles.size() + spines.size(), lines.size());
+			for (int i = 0; i < circles.size(); i++) {
+				String[] row = lines.get(i + 1).split(",", -1);
+				assertEquals(8, row.length);
+				assertEquals("Circle", row[0]);
+				assertEquals(circles.getName(i), row[1]);
+				assertEquals(circles.getSlice(i), Integer.parseInt(row[2]));
+				assertEquals(circles.getLabel(i) > 0 ? String.valueOf(circles.getLabel(i)) : "", row[3]);
+				assertEquals(circles.getX(i), Double.parseDouble(row[4]), 5e-4);
+				assertEquals(circles.getY(i), Double.parseDouble(row[5]), 5e-4);
+				assertEquals(2 * circles.getRadius(i), Double.parseDouble(row[6]), 5e-4);
+				assertEquals("", row[7]);
+			}
+			for (int k = 0; k < spines.size(); k++) {
+				Roi spine = spines.get(k);
+				String label = spine.getProperty(MaxInscribedCircles.LABEL_PROPERTY);
+				assertEquals(String.format(Locale.ROOT, "Spine,%s,%d,%s,,,,%.3f", spine.getName(), spine.getPosition(),
+						label == null ? "" : label, spine.getLength()), lines.get(1 + circles.size() + k));
+			}
+		} finally {
+			delete(folder);
+		}
+	}
+
+	@Test
+	public void stackResultsReadBack() throws IOException {
+		ImageStack stack = new ImageStack(70, 60);
+		stack.addSlice(TestMasks.mask(0, 70, 60, 1).getProcessor());
+		stack.addSlice(TestMasks.mask(1, 70, 60, 2).getProcessor());
+		MaxInscribedCircles mic = MaxInscribedCircles.builder(new ImagePlus("Stack", stack)).minimumDiameter(3).getSpine(true)
+				.appendPositionToName(true).build();
+		mic.process();
+		assertTrue(mic.getSpines().size() > 0);
+		checkRoundTrip(mic);
+	}
+
+	@Test
+	public void labelResultsReadBack() throws IOException {
+		ShortProcessor labels = new ShortProcessor(70, 60);
+		labels.setValue(4);
+		labels.fill(new OvalRoi(2, 2, 50, 20));
+		labels.setValue(9);
+		labels.fill(new OvalRoi(10, 30, 55, 25));
+		MaxInscribedCircles mic = MaxInscribedCircles.builder(new ImagePlus("Labels", labels)).minimumDiameter(3).getSpine(true)
+				.labelImage(true).build();
+		mic.process();
+		assertTrue(mic.getSpines().size() > 0);
+		checkRoundTrip(mic);
+	}
+}
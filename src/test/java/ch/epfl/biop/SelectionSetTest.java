@@ -0,0 +1,56 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that each selection of a set gets the same circles as when it is the selection of the image
+ */
+public class SelectionSetTest {
+
+	@Test
+	public void selectionsMatchSelectionOfTheImage() {
+		for (int kind = 0; kind < TestMasks.KINDS; kind++) {
+			ImagePlus imp = TestMasks.mask(kind, 70, 60, 0);
+			List<Roi> selections = new ArrayList<>();
+			for (long seed = 0; seed < 3; seed++) {
+				selections.add(TestMasks.selection(seed));
+			}
+			MaxInscribedCircles mic = MaxInscribedCircles.builder(imp).minimumDiameter(3).selections(selections).build();
+			mic.process();
+			for (int k = 0; k < selections.size(); k++) {
+				imp.setRoi(selections.get(k));
+				String expected = TestMasks.describeGeometry(MaxInscribedCircles.findCircles(imp, 3, true));
+				List<Roi> found = mic.getSelectionResults().get(k).getCircles();
+				assertEquals("kind " + kind + ", selection " + k, expected, TestMasks.describeGeometry(found));
+			}
+		}
+	}
+}
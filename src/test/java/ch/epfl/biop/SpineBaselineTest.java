@@ -0,0 +1,82 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares the circles, spines and spine parts found on small masks with the ones the plugin found when the spine
+ * started to use a circle index, and the centers of the circles rather than the centroids of their contours.
+ * baseline-spines.txt holds those results, one case per line: the mask kind, seed and closeness tolerance, then the
+ * circles, spines and spine parts separated by '|'
+ */
+public class SpineBaselineTest {
+
+	private static Map<String, String> readBaseline() throws IOException {
+		Map<String, String> baseline = new LinkedHashMap<>();
+		try (InputStream is = SpineBaselineTest.class.getResourceAsStream("baseline-spines.txt")) {
+			assertNotNull("Missing baseline-spines.txt", is);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int split = line.indexOf('=');
+				baseline.put(line.substring(0, split), line.substring(split + 1));
+			}
+		}
+		return baseline;
+	}
+
+	@Test
+	public void spinesAreUnchanged() throws IOException {
+		int cases = 0;
+		for (Map.Entry<String, String> e : readBaseline().entrySet()) {
+			String[] key = e.getKey().split(" ");
+			ImageStack stack = new ImageStack(70, 60);
+			stack.addSlice(TestMasks.mask(Integer.parseInt(key[1]), 70, 60, Long.parseLong(key[2])).getProcessor());
+
+			MaxInscribedCircles mic = MaxInscribedCircles.builder(new ImagePlus("Mask", stack))
+					.minimumDiameter(3)
+					.getSpine(true)
+					.spineClosenessTolerance(Double.parseDouble(key[3]))
+					.build();
+			mic.process();
+			String found = TestMasks.describeCircles(mic.getCircles()) + "|" + TestMasks.describeShapes(mic.getSpines())
+					+ "|" + TestMasks.describeShapes(mic.getSpineParts());
+			assertEquals(e.getKey(), e.getValue(), found);
+			cases++;
+		}
+		assertEquals(22, cases);
+	}
+}
@@ -0,0 +1,179 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that streamed results come slice by slice, in order, with the circles process() keeps without a listener,
+ * that each circle is handed over before the result of its slice, and that only the slices read ahead and being
+ * searched are in memory
+ */
+public class StreamTest {
+
+	private static final int SLICES = 12;
+
+	private static ImageProcessor slice(int n) {
+		return TestMasks.mask(n % TestMasks.KINDS, 70, 60, n).getProcessor();
+	}
+
+	/**
+	 * A virtual stack of test masks which checks, whenever a slice is read, how many slices were read but not delivered yet
+	 */
+	private static class CheckedStack extends VirtualStack {
+
+		private final int maxInFlight;
+		private final AtomicInteger delivered = new AtomicInteger();
+		private Thread reader;
+		private int read;
+
+		CheckedStack(int maxInFlight) {
+			super(70, 60, null, null);
+			this.maxInFlight = maxInFlight;
+		}
+
+		@Override
+		public ImageProcessor getProcessor(int n) {
+			if (reader == null) reader = Thread.currentThread();
+			assertSame("slice " + n + " read on another thread", reader, Thread.currentThread());
+			assertTrue("slice " + n + " read with " + (read - delivered.get()) + " slices in flight",
+					read - delivered.get() < maxInFlight);
+			read++;
+			return slice(n);
+		}
+
+		@Override
+		public int getSize() {
+			return SLICES;
+		}
+	}
+
+	/**
+	 * Keeps the streamed circles and results, and checks that each circle comes before the result of its slice
+	 */
+	private static class Collector implements ResultListener {
+
+		private final List<Roi> found = Collections.synchronizedList(new ArrayList<>());
+		private final List<MaxInscribedCircles.Result> results = new ArrayList<>();
+		private final CheckedStack stack;
+
+		Collector(CheckedStack stack) {
+			this.stack = stack;
+		}
+
+		@Override
+		public void circleFound(Roi circle) {
+			found.add(circle);
+		}
+
+		@Override
+		public void sliceProcessed(MaxInscribedCircles.Result result) {
+			List<Roi> ofSlice = new ArrayList<>();
+			synchronized (found) {
+				for (Roi r : found) {
+					if (r.getPosition() == result.getSlice()) ofSlice.add(r);
+				}
+			}
+			assertEquals("circles of slice " + result.getSlice(), TestMasks.describeCircles(result.getCircles()), TestMasks.describeCircles(ofSlice));
+			results.add(result);
+			if (stack != null) stack.delivered.incrementAndGet();
+		}
+	}
+
+	private static String expected() {
+		ImageStack stack = new ImageStack(70, 60);
+		for (int n = 1; n <= SLICES; n++) {
+			stack.addSlice(slice(n));
+		}
+		MaxInscribedCircles mic = MaxInscribedCircles.builder(new ImagePlus("Stack", stack)).minimumDiameter(3).appendPositionToName(true).build();
+		mic.process();
+		return TestMasks.describeCircles(mic.getCircles());
+	}
+
+	private static void checkStream(int parallelism, int prefetch) {
+		CheckedStack stack = new CheckedStack(parallelism + prefetch);
+		ImagePlus imp = new ImagePlus("Virtual", stack);
+		stack.reader = null;
+		stack.read = 0;
+		Collector collector = new Collector(stack);
+		MaxInscribedCircles mic = MaxInscribedCircles.builder(imp).minimumDiameter(3).appendPositionToName(true)
+				.parallelism(parallelism).stream(collector, prefetch).build();
+		mic.process();
+
+		assertEquals(SLICES, stack.read);
+		assertEquals(SLICES, collector.results.size());
+		List<Roi> streamed = new ArrayList<>();
+		for (int k = 0; k < SLICES; k++) {
+			assertEquals(k + 1, collector.results.get(k).getSlice());
+			streamed.addAll(collector.results.get(k).getCircles());
+		}
+		assertEquals(expected(), TestMasks.describeCircles(streamed));
+		assertEquals(streamed.size(), collector.found.size());
+		assertEquals(0, mic.getCircles().size());
+	}
+
+	@Test
+	public void streamedSlicesComeInOrder() {
+		checkStream(1, 0);
+		checkStream(1, 3);
+		checkStream(3, 2);
+	}
+
+	@Test
+	public void circlesComeOneByOneInOrder() {
+		ImageStack stack = new ImageStack(70, 60);
+		stack.addSlice(slice(2));
+		List<Roi> found = new ArrayList<>();
+		MaxInscribedCircles mic = MaxInscribedCircles.builder(new ImagePlus("Mask", stack)).minimumDiameter(3)
+				.stream(new Collector(null) {
+					@Override
+					public void circleFound(Roi circle) {
+						assertTrue("circle found after the result", super.results.isEmpty());
+						found.add(circle);
+						super.circleFound(circle);
+					}
+				}, 1).build();
+		mic.process();
+
+		MaxInscribedCircles kept = MaxInscribedCircles.builder(new ImagePlus("Mask", slice(2))).minimumDiameter(3).build();
+		kept.process();
+		assertTrue(found.size() > 1);
+		assertEquals(TestMasks.describeCircles(kept.getCircles()), TestMasks.describeCircles(found));
+		for (int k = 1; k < found.size(); k++) {
+			assertTrue("circle " + k + " larger than the one before", found.get(k).getFloatWidth() <= found.get(k - 1).getFloatWidth());
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.gui.OvalRoi;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Small synthetic masks and selections the tests run on, and text descriptions of results to compare them exactly
+ */
+final class TestMasks {
+
+	static final int KINDS = 3;
+
+	private TestMasks() {
+	}
+
+	/**
+	 * @param kind 0 for a rectangle and a disk, 1 for overlapping ellipses, 2 for a full image with elliptic holes
+	 * @param width the width of the mask
+	 * @param height the height of the mask
+	 * @param seed the seed of the random shapes
+	 * @return the mask, 255 for foreground
+	 */
+	static ImagePlus mask(int kind, int width, int height, long seed) {
+		ByteProcessor bp = new ByteProcessor(width, height);
+		Random random = new Random(seed);
+		bp.setValue(255);
+		if (kind == 0) {
+			bp.fill(new Roi(5, 7, width / 2, height / 3));
+			bp.fill(new OvalRoi(width / 2, height / 3, width / 3, height / 2));
+		} else if (kind == 1) {
+			for (int i = 0; i < 8; i++) {
+				bp.fill(new OvalRoi(random.nextInt(width - 20), random.nextInt(height - 20), 10 + random.nextInt(width / 3), 10 + random.nextInt(height / 3)));
+			}
+		} else {
+			bp.fill(new Roi(0, 0, width, height));
+			bp.setValue(0);
+			for (int i = 0; i < 6; i++) {
+				bp.fill(new OvalRoi(random.nextInt(width), random.nextInt(height), 5 + random.nextInt(width / 4), 5 + random.nextInt(height / 4)));
+			}
+		}
+		return new ImagePlus("Mask " + kind, bp);
+	}
+
+	/**
+	 * @return an oval, a rectangular or a triangular-ish selection within a 70x60 mask
+	 */
+	static Roi selection(long seed) {
+		if (seed == 0) return new OvalRoi(8, 6, 45, 40);
+		if (seed == 1) return new PolygonRoi(new int[]{3, 53, 53, 3}, new int[]{4, 4, 34, 34}, 4, Roi.POLYGON);
+		return new PolygonRoi(new int[]{2, 60, 30, 10}, new int[]{3, 10, 55, 40}, 4, Roi.POLYGON);
+	}
+
+	/**
+	 * @return the names, positions and diameters of circles, in order
+	 */
+	static String describeCircles(List<Roi> circles) {
+		StringBuilder b = new StringBuilder();
+		for (Roi r : circles) {
+			b.append(r.getName()).append('@').append(r.getXBase()).append(',').append(r.getYBase()).append(',').append(r.getFloatWidth()).append(';');
+		}
+		return b.toString();
+	}
+
+	/**
+	 * @return the positions and diameters of circles, in order, whatever their names
+	 */
+	static String describeGeometry(List<Roi> circles) {
+		StringBuilder b = new StringBuilder();
+		for (Roi r : circles) {
+			b.append(r.getXBase()).append(',').append(r.getYBase()).append(',').append(r.getFloatWidth()).append(';');
+		}
+		return b.toString();
+	}
+
+	/**
+	 * @return the names, slices, bounds and points of spines or spine parts, in order
+	 */
+	static String describeShapes(List<Roi> shapes) {
+		StringBuilder b = new StringBuilder();
+		for (Roi r : shapes) {
+			Rectangle2D.Double q = r.getFloatBounds();
+			b.append(r.getName()).append('@').append(r.getPosition());
+			b.append(',').append(q.x).append(',').append(q.y).append(',').append(q.width).append(',').append(q.height);
+			b.append(Arrays.toString(r.getFloatPolygon().xpoints)).append(Arrays.toString(r.getFloatPolygon().ypoints)).append(';');
+		}
+		return b.toString();
+	}
+}
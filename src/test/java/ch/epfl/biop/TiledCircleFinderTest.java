@@ -0,0 +1,174 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import org.junit.Test;
+
+import java.awt.Rectangle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that tiles find the same circles as the priority queue engine on the whole mask
+ */
+public class TiledCircleFinderTest {
+
+	private static String find(MaxInscribedCircles.Builder builder) {
+		MaxInscribedCircles mic = builder.build();
+		mic.process();
+		return TestMasks.describeCircles(mic.getCircles());
+	}
+
+	@Test
+	public void tilesMatchWholeMask() {
+		for (boolean nativeResolution : new boolean[]{false, true}) {
+			for (int kind = 0; kind < TestMasks.KINDS; kind++) {
+				for (long seed = 0; seed < 2; seed++) {
+					for (double minD : new double[]{0, 3, 8}) {
+						ImagePlus imp = TestMasks.mask(kind, 70, 60, seed);
+						String expected = find(MaxInscribedCircles.builder(imp).minimumDiameter(minD).nativeResolution(nativeResolution)
+								.engine(MaxInscribedCircles.Engine.PRIORITY_QUEUE));
+						for (int tileSize : new int[]{7, 16, 33}) {
+							String found = find(MaxInscribedCircles.builder(imp).minimumDiameter(minD).nativeResolution(nativeResolution)
+									.engine(MaxInscribedCircles.Engine.PRIORITY_QUEUE).tiles(tileSize, 40).parallelism(3));
+							assertEquals("native " + nativeResolution + ", kind " + kind + ", seed " + seed + ", minD " + minD + ", tile " + tileSize, expected, found);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a mask whose foreground pixels next to the background are grey, from 1 to 200
+	 */
+	private static ImagePlus greyEdges(ImagePlus imp) {
+		ImageProcessor ip = imp.getProcessor();
+		ImageProcessor grey = ip.duplicate();
+		for (int y = 0; y < ip.getHeight(); y++) {
+			for (int x = 0; x < ip.getWidth(); x++) {
+				if (ip.get(x, y) == 0) continue;
+				boolean isEdge = false;
+				for (int k = 0; k < 4; k++) {
+					int x2 = x + (k == 0 ? -1 : k == 1 ? 1 : 0);
+					int y2 = y + (k == 2 ? -1 : k == 3 ? 1 : 0);
+					isEdge |= x2 >= 0 && y2 >= 0 && x2 < ip.getWidth() && y2 < ip.getHeight() && ip.get(x2, y2) == 0;
+				}
+				if (isEdge) grey.set(x, y, 1 + (7 * x + 13 * y) % 200);
+			}
+		}
+		return new ImagePlus(imp.getTitle(), grey);
+	}
+
+	/**
+	 * A source reading the areas of an image, which checks that they are never larger than a tile and its margins
+	 */
+	private static MaskSource checkedSource(ImageProcessor ip, int maxSide) {
+		MaskSource source = MaskSource.of(ip);
+		return new MaskSource() {
+			@Override
+			public int getWidth() {
+				return source.getWidth();
+			}
+
+			@Override
+			public int getHeight() {
+				return source.getHeight();
+			}
+
+			@Override
+			public ImageProcessor read(Rectangle area) {
+				assertTrue("read " + area, area.width <= maxSide && area.height <= maxSide);
+				return source.read(area);
+			}
+		};
+	}
+
+	@Test
+	public void tileRowsMatchWholeMaskWithGreyEdges() {
+		for (boolean nativeResolution : new boolean[]{false, true}) {
+			for (int kind = 0; kind < 2; kind++) {
+				ImagePlus imp = greyEdges(TestMasks.mask(kind, 150, 140, kind));
+				String message = "native " + nativeResolution + ", kind " + kind;
+				String expected = find(MaxInscribedCircles.builder(imp).minimumDiameter(4).nativeResolution(nativeResolution)
+						.engine(MaxInscribedCircles.Engine.PRIORITY_QUEUE));
+				String found = find(MaxInscribedCircles.builder(imp).minimumDiameter(4).nativeResolution(nativeResolution)
+						.engine(MaxInscribedCircles.Engine.PRIORITY_QUEUE).tiles(32, 40).parallelism(3));
+				assertEquals(message, expected, found);
+
+				// Tiles of 32 pixels with halos of 40 pixels, and the margin to resize them
+				MaskSource source = checkedSource(imp.getProcessor(), 32 + 2 * 40 + 4);
+				found = find(MaxInscribedCircles.builder(source).minimumDiameter(4).engine(MaxInscribedCircles.Engine.PRIORITY_QUEUE).nativeResolution(nativeResolution)
+						.tiles(32, 40).parallelism(3));
+				assertEquals(message + ", source", expected, found);
+			}
+		}
+	}
+
+	@Test
+	public void tileMasksMatchWholeMaskResized() {
+		// Areas touching the border of the mask or not, with faint edges that interpolation can drop
+		ImageProcessor ip = greyEdges(TestMasks.mask(1, 150, 140, 1)).getProcessor();
+		for (int method : new int[]{ImageProcessor.NONE, ImageProcessor.BILINEAR, ImageProcessor.BICUBIC}) {
+			ip.setInterpolationMethod(method);
+			ImageProcessor whole = ip.resize(300, 280);
+			TiledCircleFinder finder = new TiledCircleFinder(MaskSource.of(ip), 32, 40, 2, false, 0, new SeparableDistanceTransform(), null, 0);
+			for (Rectangle area : new Rectangle[]{new Rectangle(0, 0, 72, 72), new Rectangle(30, 20, 70, 90), new Rectangle(100, 101, 50, 39)}) {
+				ImageProcessor mask = finder.getMask(area);
+				for (int y = 0; y < mask.getHeight(); y++) {
+					for (int x = 0; x < mask.getWidth(); x++) {
+						boolean expected = whole.getf(2 * area.x + x, 2 * area.y + y) != 0;
+						assertEquals("method " + method + ", " + area + " at " + x + ", " + y, expected, mask.get(x, y) != 0);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void tilesWithoutBackgroundFinish() {
+		// A single background pixel leaves most tiles without any, and circles much larger than the halo
+		ImagePlus imp = TestMasks.mask(2, 100, 90, 0);
+		imp.getProcessor().setValue(255);
+		imp.getProcessor().fill();
+		imp.getProcessor().set(0, 0, 0);
+		MaxInscribedCircles.Builder builder = MaxInscribedCircles.builder(imp).minimumDiameter(8)
+				.engine(MaxInscribedCircles.Engine.PRIORITY_QUEUE).tiles(32, 10);
+		MaxInscribedCircles mic = builder.build();
+		mic.process();
+		assertTrue(mic.getCircles().size() > 0);
+
+		// Without any background, no tile bounds the circles
+		imp.getProcessor().set(0, 0, 255);
+		mic = builder.build();
+		mic.process();
+		assertEquals(0, mic.getCircles().size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void maskSourceNeedsTiles() {
+		MaxInscribedCircles.builder(MaskSource.of(TestMasks.mask(0, 70, 60, 0).getProcessor())).build();
+	}
+}
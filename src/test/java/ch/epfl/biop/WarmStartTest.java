@@ -0,0 +1,124 @@
+/*-
+ * #%L
+ * Mavenized Improved fit largest circle plugin
+ * %%
+ * Copyright (C) 2015 - 2023 EPFL
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package ch.epfl.biop;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.OvalRoi;
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that warm start stays close to solving each frame on its own, on a shape moving by a pixel per frame, and
+ * that it solves the first frame and the frames where too much changed on their own
+ */
+public class WarmStartTest {
+
+	private static final int FRAMES = 10;
+
+	// Frame where a large rectangle appears, more than the changed fraction allowed
+	private static final int JUMP = 6;
+
+	private static ImagePlus movie() {
+		ImageStack stack = new ImageStack(160, 120);
+		for (int t = 0; t < FRAMES; t++) {
+			ImageProcessor ip = TestMasks.mask(1, 160, 120, 3).getProcessor();
+			ip.setValue(255);
+			ip.fill(new OvalRoi(20 + t, 70, 30, 24));
+			if (t >= JUMP) ip.fill(new Roi(0, 0, 160, 50));
+			stack.addSlice(ip);
+		}
+		return new ImagePlus("Movie", stack);
+	}
+
+	private static List<List<Roi>> bySlice(List<Roi> circles) {
+		List<List<Roi>> slices = new ArrayList<>();
+		for (int t = 0; t < FRAMES; t++) {
+			slices.add(new ArrayList<>());
+		}
+		for (Roi r : circles) {
+			slices.get(r.getPosition() - 1).add(r);
+		}
+		return slices;
+	}
+
+	/**
+	 * @return the fraction of the foreground covered by the circles of one list but not by the circles of the other
+	 */
+	private static double getCoverageDifference(List<Roi> a, List<Roi> b, ImageProcessor mask) {
+		ByteProcessor coverA = new ByteProcessor(mask.getWidth(), mask.getHeight());
+		ByteProcessor coverB = new ByteProcessor(mask.getWidth(), mask.getHeight());
+		coverA.setValue(255);
+		coverB.setValue(255);
+		for (Roi r : a) {
+			coverA.fill(r);
+		}
+		for (Roi r : b) {
+			coverB.fill(r);
+		}
+		long foreground = 0;
+		long different = 0;
+		for (int i = 0; i < mask.getPixelCount(); i++) {
+			if (mask.get(i) != 0) foreground++;
+			if (coverA.get(i) != coverB.get(i)) different++;
+		}
+		return different / (double) foreground;
+	}
+
+	@Test
+	public void warmStartStaysCloseToFullRecompute() {
+		ImagePlus imp = movie();
+		List<SliceMetrics> fullMetrics = new ArrayList<>();
+		List<SliceMetrics> warmMetrics = new ArrayList<>();
+		MaxInscribedCircles full = MaxInscribedCircles.builder(imp).minimumDiameter(4).metricsListener(fullMetrics::add).build();
+		full.process();
+		// The largest circles touching the moving shape have a radius of about 53 pixels
+		MaxInscribedCircles warm = MaxInscribedCircles.builder(imp).minimumDiameter(4).warmStart(0.1, 60).metricsListener(warmMetrics::add).build();
+		warm.process();
+
+		List<List<Roi>> fullCircles = bySlice(full.getCircles());
+		List<List<Roi>> warmCircles = bySlice(warm.getCircles());
+		for (int t = 0; t < FRAMES; t++) {
+			String message = "frame " + t;
+			List<Roi> expected = fullCircles.get(t);
+			List<Roi> found = warmCircles.get(t);
+			if (t == 0 || t == JUMP) {
+				// Solved on their own
+				assertEquals(message, TestMasks.describeCircles(expected), TestMasks.describeCircles(found));
+				assertEquals(message, fullMetrics.get(t).getIterations(), warmMetrics.get(t).getIterations());
+			} else {
+				// Solved in crops, with fewer iterations, to within half a pixel on the largest circle and 5% of the covered area
+				assertTrue(message, warmMetrics.get(t).getIterations() < fullMetrics.get(t).getIterations());
+				assertEquals(message, expected.get(0).getFloatWidth(), found.get(0).getFloatWidth(), 0.5D);
+				assertTrue(message, getCoverageDifference(expected, found, imp.getStack().getProcessor(t + 1)) < 0.05D);
+			}
+		}
+	}
+}